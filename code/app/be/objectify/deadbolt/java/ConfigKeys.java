@@ -38,6 +38,48 @@ public class ConfigKeys
     public static final String CUSTOM_EC = "deadbolt.java.custom-execution-context.enable";
     public static final F.Tuple<String, Boolean> CUSTOM_EC_DEFAULT = new F.Tuple<>(CUSTOM_EC,
                                                                                    false);
+    public static final String SYNC_FAST_PATH = "deadbolt.java.sync-fast-path";
+    public static final F.Tuple<String, Boolean> SYNC_FAST_PATH_DEFAULT = new F.Tuple<>(SYNC_FAST_PATH,
+                                                                                        false);
+    public static final String SUBJECT_CACHE_SHARED = "deadbolt.java.subject-cache.shared";
+    public static final F.Tuple<String, Boolean> SUBJECT_CACHE_SHARED_DEFAULT = new F.Tuple<>(SUBJECT_CACHE_SHARED,
+                                                                                              false);
+    public static final String SUBJECT_CACHE_TTL = "deadbolt.java.subject-cache.ttl";
+    public static final F.Tuple<String, Long> SUBJECT_CACHE_TTL_DEFAULT = new F.Tuple<>(SUBJECT_CACHE_TTL,
+                                                                                        60000L);
+    public static final String SUBJECT_CACHE_MAX_SIZE = "deadbolt.java.subject-cache.max-size";
+    public static final F.Tuple<String, Integer> SUBJECT_CACHE_MAX_SIZE_DEFAULT = new F.Tuple<>(SUBJECT_CACHE_MAX_SIZE,
+                                                                                                10000);
+    public static final String SUBJECT_CACHE_SINGLE_FLIGHT = "deadbolt.java.subject-cache.single-flight";
+    public static final F.Tuple<String, Boolean> SUBJECT_CACHE_SINGLE_FLIGHT_DEFAULT = new F.Tuple<>(SUBJECT_CACHE_SINGLE_FLIGHT,
+                                                                                                     false);
+    public static final String ROLE_PERMISSION_CACHE = "deadbolt.java.role-permission-cache.enabled";
+    public static final F.Tuple<String, Boolean> ROLE_PERMISSION_CACHE_DEFAULT = new F.Tuple<>(ROLE_PERMISSION_CACHE,
+                                                                                               false);
+    public static final String ROLE_PERMISSION_CACHE_TTL = "deadbolt.java.role-permission-cache.ttl";
+    public static final F.Tuple<String, Long> ROLE_PERMISSION_CACHE_TTL_DEFAULT = new F.Tuple<>(ROLE_PERMISSION_CACHE_TTL,
+                                                                                                300000L);
+    public static final String ROLE_PERMISSION_CACHE_REFRESH_AFTER = "deadbolt.java.role-permission-cache.refresh-after";
+    public static final F.Tuple<String, Long> ROLE_PERMISSION_CACHE_REFRESH_AFTER_DEFAULT = new F.Tuple<>(ROLE_PERMISSION_CACHE_REFRESH_AFTER,
+                                                                                                          240000L);
+    public static final String ROLE_PERMISSION_CACHE_MAX_SIZE = "deadbolt.java.role-permission-cache.max-size";
+    public static final F.Tuple<String, Integer> ROLE_PERMISSION_CACHE_MAX_SIZE_DEFAULT = new F.Tuple<>(ROLE_PERMISSION_CACHE_MAX_SIZE,
+                                                                                                        1000);
+    public static final String DECISION_CACHE = "deadbolt.java.decision-cache.enabled";
+    public static final F.Tuple<String, Boolean> DECISION_CACHE_DEFAULT = new F.Tuple<>(DECISION_CACHE,
+                                                                                        false);
+    public static final String DECISION_CACHE_TTL = "deadbolt.java.decision-cache.ttl";
+    public static final F.Tuple<String, Long> DECISION_CACHE_TTL_DEFAULT = new F.Tuple<>(DECISION_CACHE_TTL,
+                                                                                         30000L);
+    public static final String DECISION_CACHE_MAX_SIZE = "deadbolt.java.decision-cache.max-size";
+    public static final F.Tuple<String, Integer> DECISION_CACHE_MAX_SIZE_DEFAULT = new F.Tuple<>(DECISION_CACHE_MAX_SIZE,
+                                                                                                 100000);
+    public static final String PATTERN_CACHE_MAX_SIZE = "deadbolt.java.pattern-cache.max-size";
+    public static final F.Tuple<String, Integer> PATTERN_CACHE_MAX_SIZE_DEFAULT = new F.Tuple<>(PATTERN_CACHE_MAX_SIZE,
+                                                                                                10000);
+    public static final String PATTERN_CACHE_WARM_UP = "deadbolt.java.pattern-cache.warm-up";
+    public static final F.Tuple<String, Boolean> PATTERN_CACHE_WARM_UP_DEFAULT = new F.Tuple<>(PATTERN_CACHE_WARM_UP,
+                                                                                               true);
 
     public static final String PATTERN_INVERT = "deadbolt.pattern.invert";
 
@@ -15,24 +15,40 @@
  */
 package be.objectify.deadbolt.java;
 
+import be.objectify.deadbolt.java.cache.DecisionCache;
+import be.objectify.deadbolt.java.cache.EvaluationContext;
+import be.objectify.deadbolt.java.cache.HandlerKey;
 import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.cache.RolePermissionCache;
 import be.objectify.deadbolt.java.cache.SubjectCache;
 import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.models.Permission;
 import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.utils.Fingerprints;
+import be.objectify.deadbolt.java.utils.IdentityCache;
 import be.objectify.deadbolt.java.utils.TriFunction;
 import com.google.inject.Singleton;
+import play.Configuration;
 import play.libs.concurrent.HttpExecution;
 import play.mvc.Http;
 import scala.concurrent.ExecutionContext;
 import scala.concurrent.ExecutionContextExecutor;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * The logic behind the constraints.
@@ -42,6 +58,10 @@ import java.util.function.Supplier;
 @Singleton
 public class ConstraintLogic
 {
+    private static final String ROLE_INDEX = "deadbolt.role-index";
+
+    private static final String PERMISSION_INDEX = "deadbolt.permission-index";
+
     private final DeadboltAnalyzer analyzer;
 
     private final SubjectCache subjectCache;
@@ -50,16 +70,62 @@ public class ConstraintLogic
 
     private final DeadboltExecutionContextProvider executionContextProvider;
 
-    @Inject
+    private final Map<HandlerKey, RolePermissionMatcher> rolePermissionMatchers = new ConcurrentHashMap<>();
+
+    private final IdentityCache<Object, Optional<Pattern>> compiledPatterns = new IdentityCache<>();
+
+    private final IdentityCache<DeadboltHandler, DynamicResourceHandler> stableDynamicResourceHandlers = new IdentityCache<>();
+
+    private final boolean syncFastPath;
+
+    private final Optional<RolePermissionCache> rolePermissionCache;
+
+    private final Optional<DecisionCache> decisionCache;
+
+    /**
+     * Create the logic with the default configuration: no synchronous fast path, and neither the role permission cache
+     * nor the decision cache.
+     *
+     * @param analyzer     the analyzer
+     * @param subjectCache the subject cache
+     * @param patternCache the pattern cache
+     * @param ecProvider   the execution context provider
+     */
     public ConstraintLogic(final DeadboltAnalyzer analyzer,
                            final SubjectCache subjectCache,
                            final PatternCache patternCache,
                            final ExecutionContextProvider ecProvider)
+    {
+        this(analyzer,
+             subjectCache,
+             patternCache,
+             ecProvider,
+             new Configuration(Collections.emptyMap()),
+             () -> null,
+             () -> null);
+    }
+
+    @Inject
+    public ConstraintLogic(final DeadboltAnalyzer analyzer,
+                           final SubjectCache subjectCache,
+                           final PatternCache patternCache,
+                           final ExecutionContextProvider ecProvider,
+                           final Configuration configuration,
+                           final Provider<RolePermissionCache> rolePermissionCache,
+                           final Provider<DecisionCache> decisionCache)
     {
         this.analyzer = analyzer;
         this.subjectCache = subjectCache;
         this.patternCache = patternCache;
         this.executionContextProvider = ecProvider.get();
+        this.syncFastPath = configuration.getBoolean(ConfigKeys.SYNC_FAST_PATH_DEFAULT._1,
+                                                     ConfigKeys.SYNC_FAST_PATH_DEFAULT._2);
+        this.rolePermissionCache = configuration.getBoolean(ConfigKeys.ROLE_PERMISSION_CACHE_DEFAULT._1,
+                                                            ConfigKeys.ROLE_PERMISSION_CACHE_DEFAULT._2) ? Optional.of(rolePermissionCache.get())
+                                                                                                         : Optional.empty();
+        this.decisionCache = configuration.getBoolean(ConfigKeys.DECISION_CACHE_DEFAULT._1,
+                                                      ConfigKeys.DECISION_CACHE_DEFAULT._2) ? Optional.of(decisionCache.get())
+                                                                                            : Optional.empty();
     }
 
     public <T> CompletionStage<T> subjectPresent(final Http.Context ctx,
@@ -69,15 +135,15 @@ public class ConstraintLogic
                                                  final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> notPresent)
     {
         final ExecutionContextExecutor executor = executor();
-        return getSubject(ctx,
-                          deadboltHandler)
-                .thenComposeAsync(maybeSubject -> maybeSubject.isPresent() ? present.apply(ctx,
-                                                                                           deadboltHandler,
-                                                                                           content)
-                                                                           : notPresent.apply(ctx,
-                                                                                              deadboltHandler,
-                                                                                              content),
-                                  executor);
+        return thenCompose(getSubject(ctx,
+                                      deadboltHandler),
+                           maybeSubject -> maybeSubject.isPresent() ? present.apply(ctx,
+                                                                                    deadboltHandler,
+                                                                                    content)
+                                                                    : notPresent.apply(ctx,
+                                                                                       deadboltHandler,
+                                                                                       content),
+                           executor);
     }
 
     public <T> CompletionStage<T> restrict(final Http.Context ctx,
@@ -88,31 +154,78 @@ public class ConstraintLogic
                                            final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final ExecutionContextExecutor executor = executor();
-        return getSubject(ctx,
-                          deadboltHandler)
-                .thenApplyAsync(subjectOption ->
-                                {
-                                    boolean roleOk = false;
-                                    if (subjectOption.isPresent())
-                                    {
-                                        final List<String[]> roleGroups = roleGroupSupplier.get();
-                                        for (int i = 0; !roleOk && i < roleGroups.size(); i++)
-                                        {
-                                            roleOk = analyzer.checkRole(subjectOption,
-                                                                        roleGroups.get(i));
-                                        }
-                                    }
-                                    return roleOk;
-                                },
-                                executor)
-                .thenComposeAsync(allowed -> allowed ? pass.apply(ctx)
-                                                     : fail.apply(ctx,
-                                                                  deadboltHandler,
-                                                                  content),
-                                  executor);
+        return thenCompose(getSubject(ctx,
+                                      deadboltHandler),
+                           subjectOption ->
+                           {
+                               boolean roleOk = false;
+                               if (subjectOption.isPresent())
+                               {
+                                   final List<String[]> roleGroups = roleGroupSupplier.get();
+                                   roleOk = decide(deadboltHandler,
+                                                   subjectOption.get(),
+                                                   () -> RoleGroups.fingerprint(roleGroups),
+                                                   () -> analyzer.checkRoleGroups(roleIndex(ctx,
+                                                                                            subjectOption.get()),
+                                                                                  roleGroups));
+                               }
+                               return roleOk ? pass.apply(ctx)
+                                             : fail.apply(ctx,
+                                                          deadboltHandler,
+                                                          content);
+                           },
+                           executor);
+    }
+
+    public <T> CompletionStage<T> restrict(final Http.Context ctx,
+                                           final DeadboltHandler deadboltHandler,
+                                           final Optional<String> content,
+                                           final RoleGroups roleGroups,
+                                           final Function<Http.Context, CompletionStage<T>> pass,
+                                           final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
+    {
+        final ExecutionContextExecutor executor = executor();
+        return thenCompose(getSubject(ctx,
+                                      deadboltHandler),
+                           subjectOption -> subjectOption.isPresent() && decide(deadboltHandler,
+                                                                                subjectOption.get(),
+                                                                                roleGroups::fingerprint,
+                                                                                () -> analyzer.checkRoleGroups(roleIndex(ctx,
+                                                                                                                         subjectOption.get()),
+                                                                                                               roleGroups)) ? pass.apply(ctx)
+                                                                                                                            : fail.apply(ctx,
+                                                                                                                                         deadboltHandler,
+                                                                                                                                         content),
+                           executor);
 
     }
 
+    /**
+     * Compile role groups for use with {@link #restrict(Http.Context, DeadboltHandler, Optional, RoleGroups, Function, TriFunction)}.
+     *
+     * @param roleGroups the role groups.  Within an array, the roles are ANDed.  The arrays in the list are OR'd.
+     * @return the compiled role groups
+     */
+    public RoleGroups compileRoleGroups(final List<String[]> roleGroups)
+    {
+        return analyzer.compileRoleGroups(roleGroups);
+    }
+
+    /**
+     * Compile role groups declared by a constant source, such as an annotation.  The result is cached against the identity
+     * of the source.
+     *
+     * @param source     the object declaring the role groups
+     * @param roleGroups supplies the role groups if they have not yet been compiled
+     * @return the compiled role groups
+     */
+    public RoleGroups compileRoleGroups(final Object source,
+                                        final Supplier<List<String[]>> roleGroups)
+    {
+        return analyzer.compileRoleGroups(source,
+                                          roleGroups);
+    }
+
     public <T> CompletionStage<T> roleBasedPermissions(final Http.Context ctx,
                                                        final DeadboltHandler deadboltHandler,
                                                        final Optional<String> content,
@@ -121,29 +234,26 @@ public class ConstraintLogic
                                                        final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final ExecutionContextExecutor executor = executor();
-        return getSubject(ctx,
-                          deadboltHandler)
-                .thenComposeAsync(maybeSubject -> maybeSubject.isPresent() ? deadboltHandler.getPermissionsForRole(roleName)
-                                                                                            .thenApplyAsync(permissions -> permissions.stream()
-                                                                                                                                      .map(permission -> Optional
-                                                                                                                                              .ofNullable(patternCache
-                                                                                                                                                                  .apply(permission
-                                                                                                                                                                                 .getValue())))
-                                                                                                                                      .map(maybePattern -> analyzer
-                                                                                                                                              .checkRegexPattern(maybeSubject,
-                                                                                                                                                                 maybePattern))
-                                                                                                                                      .filter(matches -> matches)
-                                                                                                                                      .findFirst()
-                                                                                                                                      .isPresent(),
-                                                                                                            executor)
-
-                                                                           : CompletableFuture.completedFuture(false),
-                                  executor)
-                .thenComposeAsync(allowed -> allowed ? pass.apply(ctx)
-                                                     : fail.apply(ctx,
-                                                                  deadboltHandler,
-                                                                  content),
-                                  executor);
+        return thenCompose(thenCompose(getSubject(ctx,
+                                                  deadboltHandler),
+                                       maybeSubject -> maybeSubject.isPresent() ? decideAsync(deadboltHandler,
+                                                                                              maybeSubject.get(),
+                                                                                              () -> Fingerprints.fingerprint("rbp",
+                                                                                                                             roleName),
+                                                                                              () -> thenApply(rolePermissionMatcher(ctx,
+                                                                                                                                    deadboltHandler,
+                                                                                                                                    roleName,
+                                                                                                                                    executor),
+                                                                                                              matcher -> matcher.test(permissionIndex(ctx,
+                                                                                                                                                      maybeSubject.get())),
+                                                                                                              executor))
+                                                                                : CompletableFuture.completedFuture(false),
+                                       executor),
+                           allowed -> allowed ? pass.apply(ctx)
+                                              : fail.apply(ctx,
+                                                           deadboltHandler,
+                                                           content),
+                           executor);
 
     }
 
@@ -156,6 +266,46 @@ public class ConstraintLogic
                                           final boolean invert,
                                           final Function<Http.Context, CompletionStage<T>> pass,
                                           final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
+    {
+        return pattern(ctx,
+                       deadboltHandler,
+                       content,
+                       value,
+                       patternType,
+                       compilePattern(value,
+                                      patternType),
+                       meta,
+                       invert,
+                       pass,
+                       fail);
+    }
+
+    /**
+     * Checks the pattern using a pattern that has already been compiled with {@link #compilePattern(String, PatternType)},
+     * so the pattern cache is not used when the constraint is evaluated.
+     *
+     * @param ctx             the HTTP context
+     * @param deadboltHandler the Deadbolt handler
+     * @param content         the content type hint
+     * @param value           the pattern value
+     * @param patternType     the type of pattern matching
+     * @param compiledPattern the compiled pattern, if the pattern type is {@link PatternType#REGEX}
+     * @param meta            additional information passed to the dynamic resource handler
+     * @param invert          if true, invert the application of the constraint
+     * @param pass            applied if the constraint is satisfied
+     * @param fail            applied if the constraint is not satisfied
+     * @return the result of pass or fail
+     */
+    public <T> CompletionStage<T> pattern(final Http.Context ctx,
+                                          final DeadboltHandler deadboltHandler,
+                                          final Optional<String> content,
+                                          final String value,
+                                          final PatternType patternType,
+                                          final Optional<Pattern> compiledPattern,
+                                          final Optional<String> meta,
+                                          final boolean invert,
+                                          final Function<Http.Context, CompletionStage<T>> pass,
+                                          final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final CompletionStage<T> result;
 
@@ -174,7 +324,7 @@ public class ConstraintLogic
                 result = regex(ctx,
                                deadboltHandler,
                                content,
-                               value,
+                               compiledPattern,
                                invert,
                                pass,
                                fail);
@@ -196,6 +346,38 @@ public class ConstraintLogic
         return result;
     }
 
+    /**
+     * Compile the pattern value if the pattern type requires it.
+     *
+     * @param value       the pattern value
+     * @param patternType the type of pattern matching
+     * @return an option for the compiled pattern, which is only present for {@link PatternType#REGEX}
+     */
+    public Optional<Pattern> compilePattern(final String value,
+                                            final PatternType patternType)
+    {
+        return patternType == PatternType.REGEX ? Optional.ofNullable(patternCache.apply(value))
+                                                : Optional.empty();
+    }
+
+    /**
+     * Compile a pattern that is declared by a constant source, such as an annotation.  The compiled pattern is cached
+     * against the identity of the source, so it is only compiled the first time the source is seen.
+     *
+     * @param source      the object declaring the pattern
+     * @param value       supplies the pattern value if it has not yet been compiled
+     * @param patternType the type of pattern matching
+     * @return an option for the compiled pattern, which is only present for {@link PatternType#REGEX}
+     */
+    public Optional<Pattern> compilePattern(final Object source,
+                                            final Supplier<String> value,
+                                            final PatternType patternType)
+    {
+        return compiledPatterns.get(source,
+                                    key -> compilePattern(value.get(),
+                                                          patternType));
+    }
+
     public <T> CompletionStage<T> dynamic(final Http.Context ctx,
                                           final DeadboltHandler deadboltHandler,
                                           final Optional<String> content,
@@ -205,19 +387,53 @@ public class ConstraintLogic
                                           final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final ExecutionContextExecutor executor = executor();
-        return deadboltHandler.getDynamicResourceHandler(ctx)
-                              .thenApplyAsync(option -> option.orElseGet(() -> ExceptionThrowingDynamicResourceHandler.INSTANCE),
-                                              executor)
-                              .thenComposeAsync(drh -> drh.isAllowed(name,
-                                                                     meta,
-                                                                     deadboltHandler,
-                                                                     ctx),
-                                                executor)
-                              .thenComposeAsync(allowed -> allowed ? pass.apply(ctx)
-                                                                   : fail.apply(ctx,
-                                                                                deadboltHandler,
-                                                                                content),
-                                                executor);
+        return thenCompose(withDynamicResourceHandler(ctx,
+                                                      deadboltHandler,
+                                                      drh -> decideDynamic(ctx,
+                                                                           deadboltHandler,
+                                                                           decisionCache.isPresent() && drh.isCacheable(name,
+                                                                                                                        meta),
+                                                                           () -> Fingerprints.fingerprint("dynamic",
+                                                                                                          name,
+                                                                                                          meta.orElse(null)),
+                                                                           () -> drh.isAllowed(name,
+                                                                                               meta,
+                                                                                               deadboltHandler,
+                                                                                               ctx),
+                                                                           executor),
+                                                      executor),
+                           allowed -> allowed ? pass.apply(ctx)
+                                              : fail.apply(ctx,
+                                                           deadboltHandler,
+                                                           content),
+                           executor);
+    }
+
+    /**
+     * Checks access to the named resource for many pieces of meta information at once, e.g. for the rows of a listing,
+     * by asking the dynamic resource handler for all of them with
+     * {@link DynamicResourceHandler#isAllowedAll(String, List, DeadboltHandler, Http.Context)}.  The decisions are not
+     * taken from or stored in the decision cache, as the handler answers them together.
+     *
+     * @param ctx             the HTTP context
+     * @param deadboltHandler the Deadbolt handler
+     * @param name            the name of the resource
+     * @param metas           the meta information of each resource
+     * @return the decisions.  Bit i is set if access to the resource described by metas.get(i) is allowed.
+     */
+    public CompletionStage<BitSet> dynamicAll(final Http.Context ctx,
+                                              final DeadboltHandler deadboltHandler,
+                                              final String name,
+                                              final List<Optional<String>> metas)
+    {
+        return metas.isEmpty() ? CompletableFuture.completedFuture(new BitSet())
+                               : withDynamicResourceHandler(ctx,
+                                                            deadboltHandler,
+                                                            drh -> drh.isAllowedAll(name,
+                                                                                    metas,
+                                                                                    deadboltHandler,
+                                                                                    ctx),
+                                                            executor());
     }
 
     private <T> CompletionStage<T> custom(final Http.Context ctx,
@@ -232,19 +448,26 @@ public class ConstraintLogic
         ctx.args.put(ConfigKeys.PATTERN_INVERT,
                      invert);
         final ExecutionContextExecutor executor = executor();
-        return deadboltHandler.getDynamicResourceHandler(ctx)
-                              .thenApplyAsync(option -> option.orElseGet(() -> ExceptionThrowingDynamicResourceHandler.INSTANCE),
-                                              executor)
-                              .thenComposeAsync(resourceHandler -> resourceHandler.checkPermission(value,
-                                                                                                   meta,
-                                                                                                   deadboltHandler,
-                                                                                                   ctx),
-                                                executor)
-                              .thenComposeAsync(allowed -> (invert ? !allowed : allowed) ? pass.apply(ctx)
-                                                                                         : fail.apply(ctx,
-                                                                                                      deadboltHandler,
-                                                                                                      content),
-                                                executor);
+        return thenCompose(withDynamicResourceHandler(ctx,
+                                                      deadboltHandler,
+                                                      drh -> decideDynamic(ctx,
+                                                                           deadboltHandler,
+                                                                           decisionCache.isPresent() && drh.isPermissionCacheable(value,
+                                                                                                                                  meta),
+                                                                           () -> Fingerprints.fingerprint("custom",
+                                                                                                          value,
+                                                                                                          meta.orElse(null)),
+                                                                           () -> drh.checkPermission(value,
+                                                                                                     meta,
+                                                                                                     deadboltHandler,
+                                                                                                     ctx),
+                                                                           executor),
+                                                      executor),
+                           allowed -> (invert ? !allowed : allowed) ? pass.apply(ctx)
+                                                                    : fail.apply(ctx,
+                                                                                 deadboltHandler,
+                                                                                 content),
+                           executor);
     }
 
     private <T> CompletionStage<T> equality(final Http.Context ctx,
@@ -256,24 +479,281 @@ public class ConstraintLogic
                                             final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final ExecutionContextExecutor executor = executor();
-        return getSubject(ctx,
-                          deadboltHandler)
-                .thenApplyAsync(subject -> subject.isPresent() ? analyzer.checkPatternEquality(subject,
-                                                                                               Optional.ofNullable(value))
-                                                               : invert, // this is a little clumsy - it means no subject + invert is still denied
-                                executor)
-                .thenComposeAsync(equal -> (invert ? !equal : equal) ? pass.apply(ctx)
-                                                                     : fail.apply(ctx,
-                                                                                  deadboltHandler,
-                                                                                  content), executor);
+        return thenCompose(getSubject(ctx,
+                                      deadboltHandler),
+                           subject ->
+                           {
+                               final boolean equal = subject.isPresent() ? decide(deadboltHandler,
+                                                                                  subject.get(),
+                                                                                  () -> Fingerprints.fingerprint("equality",
+                                                                                                                 value),
+                                                                                  () -> analyzer.checkPatternEquality(permissionIndex(ctx,
+                                                                                                                                      subject.get()),
+                                                                                                                      Optional.ofNullable(value)))
+                                                                         : invert; // this is a little clumsy - it means no subject + invert is still denied
+                               return (invert ? !equal : equal) ? pass.apply(ctx)
+                                                                : fail.apply(ctx,
+                                                                             deadboltHandler,
+                                                                             content);
+                           },
+                           executor);
+    }
+
+    /**
+     * Gets the role index for the subject.  The index is stored in the request context, so it is built at most once per
+     * subject per request.
+     *
+     * @param ctx     the HTTP context
+     * @param subject the subject
+     * @return the role index of the subject
+     */
+    protected RoleIndex roleIndex(final Http.Context ctx,
+                                  final Subject subject)
+    {
+        final Object cached = ctx.args == null ? null
+                                               : ctx.args.get(ROLE_INDEX);
+        final RoleIndex roleIndex;
+        if (cached instanceof RoleIndex && ((RoleIndex) cached).isFor(subject))
+        {
+            roleIndex = (RoleIndex) cached;
+        }
+        else
+        {
+            roleIndex = RoleIndex.of(subject);
+            if (ctx.args != null)
+            {
+                ctx.args.put(ROLE_INDEX,
+                             roleIndex);
+            }
+        }
+        return roleIndex;
+    }
+
+    /**
+     * Gets the permission index for the subject.  The index is stored in the request context, so it is built at most once
+     * per subject per request.
+     *
+     * @param ctx     the HTTP context
+     * @param subject the subject
+     * @return the permission index of the subject
+     */
+    protected PermissionIndex permissionIndex(final Http.Context ctx,
+                                              final Subject subject)
+    {
+        final Object cached = ctx.args == null ? null
+                                               : ctx.args.get(PERMISSION_INDEX);
+        final PermissionIndex permissionIndex;
+        if (cached instanceof PermissionIndex && ((PermissionIndex) cached).isFor(subject))
+        {
+            permissionIndex = (PermissionIndex) cached;
+        }
+        else
+        {
+            permissionIndex = PermissionIndex.of(subject);
+            if (ctx.args != null)
+            {
+                ctx.args.put(PERMISSION_INDEX,
+                             permissionIndex);
+            }
+        }
+        return permissionIndex;
+    }
+
+    /**
+     * Gets the compiled matcher for the permissions of the role, from the role permission cache if it is enabled or
+     * from the handler if it is not.
+     *
+     * @param ctx             the HTTP context
+     * @param deadboltHandler the handler
+     * @param roleName        the role name
+     * @param executor        the executor
+     * @return the matcher
+     */
+    private CompletionStage<RolePermissionMatcher> rolePermissionMatcher(final Http.Context ctx,
+                                                                         final DeadboltHandler deadboltHandler,
+                                                                         final String roleName,
+                                                                         final Executor executor)
+    {
+        final Supplier<CompletionStage<RolePermissionMatcher>> resolver =
+                () -> rolePermissionCache.isPresent() ? rolePermissionCache.get().getMatcher(deadboltHandler,
+                                                                                             roleName)
+                                                      : thenApply(deadboltHandler.getPermissionsForRole(roleName),
+                                                                  permissions -> rolePermissionMatcher(deadboltHandler,
+                                                                                                       roleName,
+                                                                                                       permissions),
+                                                                  executor);
+        final Optional<EvaluationContext> evaluation = EvaluationContext.current(ctx);
+        return evaluation.isPresent() ? evaluation.get().rolePermissionMatcher(deadboltHandler,
+                                                                               roleName,
+                                                                               resolver)
+                                      : resolver.get();
+    }
+
+    /**
+     * Gets the compiled matcher for the permissions of the role.  The matcher is cached against the handler and the role
+     * name, as handlers may give the same role different permissions, and recompiled if the permissions of the role change.
+     *
+     * @param deadboltHandler the handler
+     * @param roleName        the role name
+     * @param permissions     the permissions of the role
+     * @return the matcher
+     */
+    private RolePermissionMatcher rolePermissionMatcher(final DeadboltHandler deadboltHandler,
+                                                        final String roleName,
+                                                        final List<? extends Permission> permissions)
+    {
+        final List<String> permissionValues = RolePermissionMatcher.values(permissions);
+        final HandlerKey key = roleName == null ? null
+                                                : new HandlerKey(deadboltHandler,
+                                                                 roleName);
+        RolePermissionMatcher matcher = key == null ? null
+                                                    : rolePermissionMatchers.get(key);
+        if (matcher == null || !matcher.isFor(permissionValues))
+        {
+            matcher = RolePermissionMatcher.compile(permissionValues,
+                                                    patternCache);
+            if (key != null)
+            {
+                rolePermissionMatchers.put(key,
+                                           matcher);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Applies the function to the dynamic resource handler of the Deadbolt handler.  If the Deadbolt handler declares its
+     * dynamic resource handler stable and it has already been resolved, the function is applied straight away on the
+     * calling thread.
+     *
+     * @param ctx             the HTTP context
+     * @param deadboltHandler the Deadbolt handler
+     * @param fn              the function
+     * @param executor        the executor to use if the dynamic resource handler has to be resolved
+     * @return the stage returned by the function
+     */
+    private <T> CompletionStage<T> withDynamicResourceHandler(final Http.Context ctx,
+                                                              final DeadboltHandler deadboltHandler,
+                                                              final Function<DynamicResourceHandler, CompletionStage<T>> fn,
+                                                              final Executor executor)
+    {
+        final boolean stable = deadboltHandler.isDynamicResourceHandlerStable();
+        final DynamicResourceHandler resolved = stable ? stableDynamicResourceHandlers.getIfPresent(deadboltHandler)
+                                                       : null;
+        CompletionStage<T> result;
+        if (resolved != null)
+        {
+            try
+            {
+                result = fn.apply(resolved);
+            }
+            catch (RuntimeException e)
+            {
+                final CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                result = failed;
+            }
+        }
+        else
+        {
+            final Optional<EvaluationContext> evaluation = EvaluationContext.current(ctx);
+            result = thenCompose(evaluation.isPresent() ? evaluation.get().dynamicResourceHandler(deadboltHandler,
+                                                                                                  () -> deadboltHandler.getDynamicResourceHandler(ctx))
+                                                        : deadboltHandler.getDynamicResourceHandler(ctx),
+                                 option ->
+                                 {
+                                     final DynamicResourceHandler drh = option.orElseGet(() -> ExceptionThrowingDynamicResourceHandler.INSTANCE);
+                                     return fn.apply(stable ? stableDynamicResourceHandlers.get(deadboltHandler,
+                                                                                                handler -> drh)
+                                                            : drh);
+                                 },
+                                 executor);
+        }
+        return result;
+    }
+
+    /**
+     * Checks a constraint whose outcome depends only on the subject, using the decision cache if it is enabled.
+     *
+     * @param deadboltHandler the handler
+     * @param subject         the subject
+     * @param fingerprint     supplies the fingerprint of the constraint
+     * @param evaluation      evaluates the constraint
+     * @return true iff the constraint is satisfied
+     */
+    private boolean decide(final DeadboltHandler deadboltHandler,
+                           final Subject subject,
+                           final Supplier<String> fingerprint,
+                           final BooleanSupplier evaluation)
+    {
+        return decisionCache.isPresent() ? decisionCache.get().test(deadboltHandler,
+                                                                    subject,
+                                                                    fingerprint,
+                                                                    evaluation)
+                                         : evaluation.getAsBoolean();
+    }
+
+    /**
+     * Checks a constraint whose outcome depends only on the subject but is not known straight away, using the decision
+     * cache if it is enabled.
+     *
+     * @param deadboltHandler the handler
+     * @param subject         the subject
+     * @param fingerprint     supplies the fingerprint of the constraint
+     * @param evaluation      evaluates the constraint
+     * @return true iff the constraint is satisfied
+     */
+    private CompletionStage<Boolean> decideAsync(final DeadboltHandler deadboltHandler,
+                                                 final Subject subject,
+                                                 final Supplier<String> fingerprint,
+                                                 final Supplier<CompletionStage<Boolean>> evaluation)
+    {
+        return decisionCache.isPresent() ? decisionCache.get().apply(deadboltHandler,
+                                                                     subject,
+                                                                     fingerprint,
+                                                                     evaluation)
+                                         : evaluation.get();
+    }
+
+    /**
+     * Checks a constraint backed by the dynamic resource handler.  The decision cache is only used if the handler marked
+     * the constraint as cacheable, in which case the subject is resolved to key the outcome.
+     *
+     * @param ctx             the HTTP context
+     * @param deadboltHandler the handler
+     * @param cacheable       true iff the decision cache is enabled and the constraint is cacheable
+     * @param fingerprint     supplies the fingerprint of the constraint
+     * @param evaluation      evaluates the constraint
+     * @param executor        the executor
+     * @return true iff the constraint is satisfied
+     */
+    private CompletionStage<Boolean> decideDynamic(final Http.Context ctx,
+                                                   final DeadboltHandler deadboltHandler,
+                                                   final boolean cacheable,
+                                                   final Supplier<String> fingerprint,
+                                                   final Supplier<CompletionStage<Boolean>> evaluation,
+                                                   final Executor executor)
+    {
+        return cacheable ? thenCompose(getSubject(ctx,
+                                                  deadboltHandler),
+                                       subject -> subject.isPresent() ? decideAsync(deadboltHandler,
+                                                                                    subject.get(),
+                                                                                    fingerprint,
+                                                                                    evaluation)
+                                                                      : evaluation.get(),
+                                       executor)
+                         : evaluation.get();
     }
 
     protected CompletionStage<Optional<? extends Subject>> getSubject(final Http.Context ctx,
                                                                       final DeadboltHandler deadboltHandler)
     {
-        final ExecutionContextExecutor executor = executor();
-        return subjectCache.apply(deadboltHandler,
-                                  ctx);
+        final Optional<EvaluationContext> evaluation = EvaluationContext.current(ctx);
+        return evaluation.isPresent() ? evaluation.get().subject(deadboltHandler,
+                                                                 () -> subjectCache.apply(deadboltHandler,
+                                                                                          ctx))
+                                      : subjectCache.apply(deadboltHandler,
+                                                           ctx);
     }
 
     /**
@@ -281,35 +761,118 @@ public class ConstraintLogic
      *
      * @param ctx             the HTTP context
      * @param deadboltHandler the Deadbolt handler
+     * @param compiledPattern the compiled pattern
      * @param invert          if true, invert the application of the constraint
      * @return the necessary result
      */
     private <T> CompletionStage<T> regex(final Http.Context ctx,
                                          final DeadboltHandler deadboltHandler,
                                          final Optional<String> content,
-                                         final String value,
+                                         final Optional<Pattern> compiledPattern,
                                          final boolean invert,
                                          final Function<Http.Context, CompletionStage<T>> pass,
                                          final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<T>> fail)
     {
         final ExecutionContextExecutor executor = executor();
-        return CompletableFuture.supplyAsync(() -> patternCache.apply(value),
-                                             executor)
-                                .thenCombineAsync(getSubject(ctx,
-                                                             deadboltHandler),
-                                                  (patternValue, subject) ->
-                                                          subject.isPresent() ? analyzer.checkRegexPattern(subject,
-                                                                                                           Optional.ofNullable(patternValue))
-                                                                              : invert, // this is a little clumsy - it means no subject + invert is still denied
-                                                  executor)
-
-                                .thenComposeAsync(hasPassed -> (invert ? !hasPassed : hasPassed) ? pass.apply(ctx)
-                                                                                                 : fail.apply(ctx,
-                                                                                                              deadboltHandler,
-                                                                                                              content),
-                                                  executor);
+        return thenCompose(getSubject(ctx,
+                                      deadboltHandler),
+                           subject ->
+                           {
+                               final boolean hasPassed = subject.isPresent() ? decide(deadboltHandler,
+                                                                                      subject.get(),
+                                                                                      () -> Fingerprints.fingerprint("regex",
+                                                                                                                     compiledPattern.map(Pattern::pattern)
+                                                                                                                                    .orElse(null)),
+                                                                                      () -> analyzer.checkRegexPattern(permissionIndex(ctx,
+                                                                                                                                       subject.get()),
+                                                                                                                       compiledPattern))
+                                                                             : invert; // this is a little clumsy - it means no subject + invert is still denied
+                               return (invert ? !hasPassed : hasPassed) ? pass.apply(ctx)
+                                                                        : fail.apply(ctx,
+                                                                                     deadboltHandler,
+                                                                                     content);
+                           },
+                           executor);
+    }
+
+
+    /**
+     * Apply the function to the result of the stage.  If the synchronous fast path is enabled and the stage has already
+     * completed normally, the function is applied on the calling thread; otherwise, it is applied on the executor.
+     *
+     * @param stage    the stage
+     * @param fn       the function
+     * @param executor the executor to use if the stage is not yet complete
+     * @return a stage holding the result of the function
+     */
+    protected <A, B> CompletionStage<B> thenApply(final CompletionStage<A> stage,
+                                                  final Function<? super A, ? extends B> fn,
+                                                  final Executor executor)
+    {
+        final CompletionStage<B> result;
+        if (isCompletedNormally(stage))
+        {
+            final CompletableFuture<B> future = new CompletableFuture<>();
+            try
+            {
+                future.complete(fn.apply(((CompletableFuture<A>) stage).join()));
+            }
+            catch (RuntimeException e)
+            {
+                future.completeExceptionally(e);
+            }
+            result = future;
+        }
+        else
+        {
+            result = stage.thenApplyAsync(fn,
+                                          executor);
+        }
+        return result;
     }
 
+    /**
+     * Compose the function with the result of the stage.  If the synchronous fast path is enabled and the stage has
+     * already completed normally, the function is applied on the calling thread; otherwise, it is applied on the executor.
+     *
+     * @param stage    the stage
+     * @param fn       the function
+     * @param executor the executor to use if the stage is not yet complete
+     * @return the stage returned by the function
+     */
+    protected <A, B> CompletionStage<B> thenCompose(final CompletionStage<A> stage,
+                                                    final Function<? super A, ? extends CompletionStage<B>> fn,
+                                                    final Executor executor)
+    {
+        CompletionStage<B> result;
+        if (isCompletedNormally(stage))
+        {
+            try
+            {
+                result = fn.apply(((CompletableFuture<A>) stage).join());
+            }
+            catch (RuntimeException e)
+            {
+                final CompletableFuture<B> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                result = future;
+            }
+        }
+        else
+        {
+            result = stage.thenComposeAsync(fn,
+                                            executor);
+        }
+        return result;
+    }
+
+    private boolean isCompletedNormally(final CompletionStage<?> stage)
+    {
+        return syncFastPath
+               && stage instanceof CompletableFuture
+               && ((CompletableFuture<?>) stage).isDone()
+               && !((CompletableFuture<?>) stage).isCompletedExceptionally();
+    }
 
     protected ExecutionContextExecutor executor()
     {
@@ -18,12 +18,14 @@ package be.objectify.deadbolt.java;
 import be.objectify.deadbolt.java.models.Permission;
 import be.objectify.deadbolt.java.models.Role;
 import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.utils.IdentityCache;
 
 import javax.inject.Singleton;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -35,6 +37,10 @@ import java.util.stream.Collectors;
 @Singleton
 public class DeadboltAnalyzer
 {
+    private final RoleSymbolTable roleSymbols = new RoleSymbolTable();
+
+    private final IdentityCache<Object, RoleGroups> compiledRoleGroups = new IdentityCache<>();
+
     /**
      * Checks if the subject has all the role names.  In other words, this gives AND support.
      *
@@ -50,6 +56,20 @@ public class DeadboltAnalyzer
                            roleNames);
     }
 
+    /**
+     * Checks if the indexed subject has all the role names.  In other words, this gives AND support.
+     *
+     * @param roleIndex the role index of the subject
+     * @param roleNames the role names.  Any role name starting with ! will be negated.
+     * @return true if the subject meets the restrictions (so access will be allowed), otherwise false
+     */
+    public boolean checkRole(final RoleIndex roleIndex,
+                             final String[] roleNames)
+    {
+        return hasAllRoles(roleIndex,
+                           roleNames);
+    }
+
 
     /**
      * Gets the role name of each role held.
@@ -85,7 +105,21 @@ public class DeadboltAnalyzer
     public boolean hasRole(final Optional<? extends Subject> subjectOption,
                            final String roleName)
     {
-        return getRoleNames(subjectOption).contains(roleName);
+        return hasRole(RoleIndex.of(subjectOption),
+                       roleName);
+    }
+
+    /**
+     * Check if the indexed subject has the given role.
+     *
+     * @param roleIndex the role index of the subject
+     * @param roleName  the name of the role
+     * @return true iff the subject has the role represented by the role name
+     */
+    public boolean hasRole(final RoleIndex roleIndex,
+                           final String roleName)
+    {
+        return roleIndex.contains(roleName);
     }
 
     /**
@@ -99,8 +133,21 @@ public class DeadboltAnalyzer
     public boolean hasAllRoles(final Optional<? extends Subject> subjectOption,
                                final String[] roleNames)
     {
-        final List<String> heldRoles = getRoleNames(subjectOption);
+        return hasAllRoles(RoleIndex.of(subjectOption),
+                           roleNames);
+    }
 
+    /**
+     * Check if the indexed {@link Subject} has all the roles given in the roleNames array.  Note that while a Subject must
+     * have all the roles, it may also have other roles.
+     *
+     * @param roleIndex the role index of the subject
+     * @param roleNames the names of the required roles
+     * @return true iff the subject has all the roles
+     */
+    public boolean hasAllRoles(final RoleIndex roleIndex,
+                               final String[] roleNames)
+    {
         boolean roleCheckResult = roleNames != null && roleNames.length > 0;
         for (int i = 0; roleCheckResult && i < roleNames.length; i++)
         {
@@ -111,7 +158,7 @@ public class DeadboltAnalyzer
                 invert = true;
                 roleName = roleName.substring(1);
             }
-            roleCheckResult = heldRoles.contains(roleName);
+            roleCheckResult = roleIndex.contains(roleName);
 
             if (invert)
             {
@@ -121,6 +168,67 @@ public class DeadboltAnalyzer
         return roleCheckResult;
     }
 
+    /**
+     * Compile the role groups against this analyzer's role symbol table.
+     *
+     * @param roleGroups the role groups.  Within an array, the roles are ANDed.  The arrays in the list are OR'd.
+     * @return the compiled role groups
+     */
+    public RoleGroups compileRoleGroups(final List<String[]> roleGroups)
+    {
+        return RoleGroups.compile(roleSymbols,
+                                  roleGroups);
+    }
+
+    /**
+     * Compile role groups that are declared by a constant source, such as an annotation.  The compiled groups are cached
+     * against the identity of the source, so they are only compiled the first time the source is seen.
+     *
+     * @param source     the object declaring the role groups
+     * @param roleGroups supplies the role groups if they have not yet been compiled
+     * @return the compiled role groups
+     */
+    public RoleGroups compileRoleGroups(final Object source,
+                                        final Supplier<List<String[]>> roleGroups)
+    {
+        return compiledRoleGroups.get(source,
+                                      key -> compileRoleGroups(roleGroups.get()));
+    }
+
+    /**
+     * Check if the indexed subject satisfies at least one of the compiled role groups.
+     *
+     * @param roleIndex  the role index of the subject
+     * @param roleGroups the compiled role groups
+     * @return true iff the subject meets the restrictions of at least one group
+     */
+    public boolean checkRoleGroups(final RoleIndex roleIndex,
+                                   final RoleGroups roleGroups)
+    {
+        return roleGroups.test(roleIndex.mask(roleSymbols,
+                                              roleGroups.width()));
+    }
+
+    /**
+     * Check if the indexed subject satisfies at least one of the role groups, without compiling them.  Use this for role
+     * groups that are only known at request time, so their role names are not interned in the symbol table.
+     *
+     * @param roleIndex  the role index of the subject
+     * @param roleGroups the role groups.  Within an array, the roles are ANDed.  The arrays in the list are OR'd.
+     * @return true iff the subject meets the restrictions of at least one group
+     */
+    public boolean checkRoleGroups(final RoleIndex roleIndex,
+                                   final List<String[]> roleGroups)
+    {
+        boolean roleOk = false;
+        for (int i = 0; !roleOk && roleGroups != null && i < roleGroups.size(); i++)
+        {
+            roleOk = hasAllRoles(roleIndex,
+                                 roleGroups.get(i));
+        }
+        return roleOk;
+    }
+
     /**
      * Check the pattern for a match against the {@link Permission}s of the user.
      *
@@ -149,6 +257,21 @@ public class DeadboltAnalyzer
         return roleOk[0];
     }
 
+    /**
+     * Check the pattern for a match against the indexed {@link Permission}s of the user.  Only permissions starting with
+     * the literal prefix of the pattern are tested.
+     *
+     * @param permissionIndex the permission index of the subject
+     * @param patternOption   an option for the pattern
+     * @return true iff the pattern matches at least one of the subject's permissions
+     */
+    public boolean checkRegexPattern(final PermissionIndex permissionIndex,
+                                     final Optional<Pattern> patternOption)
+    {
+        return patternOption.map(permissionIndex::matches)
+                            .orElse(false);
+    }
+
     /**
      * Check the pattern for equality against the {@link Permission}s of the user.
      *
@@ -176,4 +299,18 @@ public class DeadboltAnalyzer
 
         return roleOk[0];
     }
+
+    /**
+     * Check the pattern for equality against the indexed {@link Permission}s of the user.
+     *
+     * @param permissionIndex    the permission index of the subject
+     * @param patternValueOption an option for the pattern value
+     * @return true iff the pattern is equal to at least one of the subject's permissions
+     */
+    public boolean checkPatternEquality(final PermissionIndex permissionIndex,
+                                        final Optional<String> patternValueOption)
+    {
+        return patternValueOption.map(permissionIndex::contains)
+                                 .orElse(false);
+    }
 }
@@ -74,6 +74,20 @@ public interface DeadboltHandler
      */
     CompletionStage<Optional<DynamicResourceHandler>> getDynamicResourceHandler(Http.Context context);
 
+    /**
+     * Indicates if {@link #getDynamicResourceHandler(Http.Context)} always gives the same dynamic resource handler,
+     * whatever the request.  If it does, Deadbolt resolves the dynamic resource handler the first time it is needed and
+     * reuses it for every later dynamic and custom pattern check, which saves a step on the executor for each check.
+     * Only declare this for handlers that are themselves long-lived, e.g. singletons, as the resolved dynamic resource
+     * handler is kept for as long as the handler.  Defaults to false.
+     *
+     * @return true iff the dynamic resource handler does not depend on the request
+     */
+    default boolean isDynamicResourceHandlerStable()
+    {
+        return false;
+    }
+
     /**
      * Gets the canonical name of the handler.  Defaults to the class name.
      *
@@ -84,6 +98,20 @@ public interface DeadboltHandler
         return getClass().getName();
     }
 
+    /**
+     * Gets a key identifying the subject of this request across requests, e.g. a session id or a hash of an access
+     * token.  If a key is given, a cross-request {@link be.objectify.deadbolt.java.cache.SubjectCache} can reuse the
+     * subject resolved by an earlier request with the same key.  Defaults to no key, i.e. the subject is not cached
+     * across requests.
+     *
+     * @param context the HTTP context
+     * @return a key for the subject, or empty if the subject should not be cached across requests
+     */
+    default Optional<String> getSubjectCacheKey(Http.Context context)
+    {
+        return Optional.empty();
+    }
+
     /**
      * Get the permissions associated with a role.
      *
@@ -15,11 +15,15 @@
  */
 package be.objectify.deadbolt.java;
 
+import be.objectify.deadbolt.java.cache.BoundedPatternCache;
 import be.objectify.deadbolt.java.cache.CompositeCache;
 import be.objectify.deadbolt.java.cache.DefaultCompositeCache;
 import be.objectify.deadbolt.java.cache.DefaultPatternCache;
 import be.objectify.deadbolt.java.cache.DefaultSubjectCache;
 import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.cache.PatternCacheWarmer;
+import be.objectify.deadbolt.java.cache.SharedSubjectCache;
+import be.objectify.deadbolt.java.cache.SingleFlightSubjectCache;
 import be.objectify.deadbolt.java.cache.SubjectCache;
 import be.objectify.deadbolt.java.composite.ConstraintBuilders;
 import be.objectify.deadbolt.java.filters.FilterConstraints;
@@ -40,7 +44,7 @@ public class DeadboltModule extends Module
     public Seq<Binding<?>> bindings(final Environment environment,
                                     final Configuration configuration)
     {
-        return seq(subjectCache(),
+        return seq(subjectCache(configuration),
                    patternCache(),
                    analyzer(),
                    viewSupport(),
@@ -49,7 +53,8 @@ public class DeadboltModule extends Module
                    constraintLogic(),
                    compositeCache(),
                    constraintBuilders(),
-                   filterConstraints());
+                   filterConstraints(),
+                   patternCacheWarmer(configuration));
     }
 
     /**
@@ -103,13 +108,29 @@ public class DeadboltModule extends Module
     }
 
     /**
-     * Create a binding for {@link PatternCache}.
+     * Create a binding for {@link PatternCache}.  Patterns are held by a {@link BoundedPatternCache}; override this to
+     * bind {@link DefaultPatternCache} if patterns should be held in the application cache.
      *
      * @return the binding
      */
     public Binding<PatternCache> patternCache()
     {
-        return bind(PatternCache.class).to(DefaultPatternCache.class).in(Singleton.class);
+        return bind(PatternCache.class).to(BoundedPatternCache.class).in(Singleton.class);
+    }
+
+    /**
+     * Create a binding for {@link PatternCacheWarmer}.  If deadbolt.java.pattern-cache.warm-up is true, the binding is
+     * eager, so the pattern cache is warmed up when the application starts.
+     *
+     * @param configuration the application configuration
+     * @return the binding
+     */
+    public Binding<PatternCacheWarmer> patternCacheWarmer(final Configuration configuration)
+    {
+        final play.Configuration config = new play.Configuration(configuration);
+        return config.getBoolean(ConfigKeys.PATTERN_CACHE_WARM_UP_DEFAULT._1,
+                                 ConfigKeys.PATTERN_CACHE_WARM_UP_DEFAULT._2) ? bind(PatternCacheWarmer.class).toSelf().eagerly()
+                                                                              : bind(PatternCacheWarmer.class).toSelf().in(Singleton.class);
     }
 
     /**
@@ -132,6 +153,36 @@ public class DeadboltModule extends Module
         return bind(SubjectCache.class).to(DefaultSubjectCache.class).in(Singleton.class);
     }
 
+    /**
+     * Create a binding for {@link SubjectCache}.  If deadbolt.java.subject-cache.single-flight is true, concurrent
+     * lookups are coalesced by {@link SingleFlightSubjectCache}.  Otherwise, if deadbolt.java.subject-cache.shared is
+     * true, subjects are cached across requests by {@link SharedSubjectCache}.  Otherwise, the binding is given by
+     * {@link #subjectCache()}.
+     *
+     * @param configuration the application configuration
+     * @return the binding
+     */
+    public Binding<SubjectCache> subjectCache(final Configuration configuration)
+    {
+        final play.Configuration config = new play.Configuration(configuration);
+        final Binding<SubjectCache> binding;
+        if (config.getBoolean(ConfigKeys.SUBJECT_CACHE_SINGLE_FLIGHT_DEFAULT._1,
+                              ConfigKeys.SUBJECT_CACHE_SINGLE_FLIGHT_DEFAULT._2))
+        {
+            binding = bind(SubjectCache.class).to(SingleFlightSubjectCache.class).in(Singleton.class);
+        }
+        else if (config.getBoolean(ConfigKeys.SUBJECT_CACHE_SHARED_DEFAULT._1,
+                                   ConfigKeys.SUBJECT_CACHE_SHARED_DEFAULT._2))
+        {
+            binding = bind(SubjectCache.class).to(SharedSubjectCache.class).in(Singleton.class);
+        }
+        else
+        {
+            binding = subjectCache();
+        }
+        return binding;
+    }
+
     /**
      * Create a binding for {@link ConstraintLogic}.
      *
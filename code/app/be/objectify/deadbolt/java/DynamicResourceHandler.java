@@ -17,7 +17,10 @@ package be.objectify.deadbolt.java;
 
 import play.mvc.Http;
 
+import java.util.BitSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -71,6 +74,40 @@ public interface DynamicResourceHandler
                                        DeadboltHandler deadboltHandler,
                                        Http.Context ctx);
 
+    /**
+     * Check the access of the named resource for many pieces of meta information at once, e.g. for the rows of a listing.
+     * Override this to answer all of them with one query; by default, {@link #isAllowed(String, Optional, DeadboltHandler, Http.Context)}
+     * is called for each one in turn, and each call starts once the previous one has completed.
+     *
+     * @param name            the resource name
+     * @param metas           additional information on each resource
+     * @param deadboltHandler the current {@link DeadboltHandler}
+     * @param ctx             the context of the current request
+     * @return the decisions.  Bit i is set if access to the resource described by metas.get(i) is allowed.
+     */
+    default CompletionStage<BitSet> isAllowedAll(final String name,
+                                                 final List<Optional<String>> metas,
+                                                 final DeadboltHandler deadboltHandler,
+                                                 final Http.Context ctx)
+    {
+        CompletionStage<BitSet> decisions = CompletableFuture.completedFuture(new BitSet(metas.size()));
+        for (int i = 0; i < metas.size(); i++)
+        {
+            final int index = i;
+            final Optional<String> meta = metas.get(i);
+            decisions = decisions.thenCompose(allowed -> isAllowed(name,
+                                                                   meta,
+                                                                   deadboltHandler,
+                                                                   ctx).thenApply(passed ->
+                                                                                  {
+                                                                                      allowed.set(index,
+                                                                                                  passed);
+                                                                                      return allowed;
+                                                                                  }));
+        }
+        return decisions;
+    }
+
     /**
      * Invoked when a custom pattern needs checking..
      *
@@ -84,4 +121,33 @@ public interface DynamicResourceHandler
                                              Optional<String> meta,
                                              DeadboltHandler deadboltHandler,
                                              Http.Context ctx);
+
+    /**
+     * Check if the outcome of {@link #isAllowed(String, Optional, DeadboltHandler, Http.Context)} for the named
+     * resource depends only on the subject, and so can be kept in the decision cache (deadbolt.java.decision-cache).
+     *
+     * @param name the resource name
+     * @param meta additional information on the resource
+     * @return true if the outcome can be cached.  Defaults to false.
+     */
+    default boolean isCacheable(String name,
+                                Optional<String> meta)
+    {
+        return false;
+    }
+
+    /**
+     * Check if the outcome of {@link #checkPermission(String, Optional, DeadboltHandler, Http.Context)} for the
+     * permission value depends only on the subject, and so can be kept in the decision cache
+     * (deadbolt.java.decision-cache).
+     *
+     * @param permissionValue the permission value
+     * @param meta            additional information on the resource
+     * @return true if the outcome can be cached.  Defaults to false.
+     */
+    default boolean isPermissionCacheable(String permissionValue,
+                                          Optional<String> meta)
+    {
+        return false;
+    }
 }
\ No newline at end of file
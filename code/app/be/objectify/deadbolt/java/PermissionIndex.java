@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.models.Permission;
+import be.objectify.deadbolt.java.models.Subject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable snapshot of the permission values held by a {@link Subject}.  Equality checks are a hash lookup.  Regex
+ * checks only test the permissions that start with the literal prefix of the pattern, found by a binary search of a
+ * sorted copy of the values; the sorted copy is built the first time a regex check is made.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class PermissionIndex
+{
+    /**
+     * The index of a missing subject, which holds no permissions.
+     */
+    public static final PermissionIndex EMPTY = new PermissionIndex(null,
+                                                                    Collections.emptySet());
+
+    private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final Subject subject;
+
+    private final Set<String> values;
+
+    private volatile String[] sortedValues;
+
+    private PermissionIndex(final Subject subject,
+                            final Set<String> values)
+    {
+        this.subject = subject;
+        this.values = values;
+    }
+
+    /**
+     * Index the permissions of the subject.  Null permissions and values are ignored.
+     *
+     * @param subjectOption an option for the subject
+     * @return the index.  Never null.
+     */
+    public static PermissionIndex of(final Optional<? extends Subject> subjectOption)
+    {
+        return subjectOption.map(PermissionIndex::of)
+                            .orElse(EMPTY);
+    }
+
+    /**
+     * Index the permissions of the subject.  Null permissions and values are ignored.
+     *
+     * @param subject the subject
+     * @return the index.  Never null.
+     */
+    public static PermissionIndex of(final Subject subject)
+    {
+        final List<? extends Permission> permissions = subject == null ? null
+                                                                       : subject.getPermissions();
+        final PermissionIndex index;
+        if (permissions == null || permissions.isEmpty())
+        {
+            index = new PermissionIndex(subject,
+                                        Collections.emptySet());
+        }
+        else
+        {
+            final Set<String> values = new HashSet<>(permissions.size() * 2);
+            for (Permission permission : permissions)
+            {
+                if (permission != null && permission.getValue() != null)
+                {
+                    values.add(permission.getValue());
+                }
+            }
+            index = new PermissionIndex(subject,
+                                        values);
+        }
+        return index;
+    }
+
+    /**
+     * Check if the subject holds a permission with exactly this value.
+     *
+     * @param value the permission value
+     * @return true iff the subject holds the permission
+     */
+    public boolean contains(final String value)
+    {
+        return values.contains(value);
+    }
+
+    /**
+     * Check if at least one of the subject's permissions matches the pattern.
+     *
+     * @param pattern the pattern
+     * @return true iff the pattern matches at least one permission
+     */
+    public boolean matches(final Pattern pattern)
+    {
+        final String[] sorted = sortedValues();
+        final String prefix = literalPrefix(pattern);
+        int i = prefix.isEmpty() ? 0
+                                 : insertionPoint(sorted,
+                                                  prefix);
+        boolean matched = false;
+        for (; !matched && i < sorted.length && sorted[i].startsWith(prefix); i++)
+        {
+            matched = pattern.matcher(sorted[i]).matches();
+        }
+        return matched;
+    }
+
+    /**
+     * Check if this index was built from the given subject instance.
+     *
+     * @param subject the subject
+     * @return true iff the index represents that exact subject instance
+     */
+    public boolean isFor(final Subject subject)
+    {
+        return this.subject == subject;
+    }
+
+    /**
+     * The number of distinct permission values held by the subject.
+     *
+     * @return the number of permission values
+     */
+    public int size()
+    {
+        return values.size();
+    }
+
+    /**
+     * Gets the literal text that every string matched by the pattern must start with.  This is conservative - if the
+     * pattern has flags, or contains an alternation anywhere, the prefix is empty.
+     *
+     * @param pattern the pattern
+     * @return the literal prefix, which may be empty.  Never null.
+     */
+    static String literalPrefix(final Pattern pattern)
+    {
+        final String regex = pattern.pattern();
+        String prefix = "";
+        if (pattern.flags() == 0 && regex.indexOf('|') < 0)
+        {
+            int end = 0;
+            while (end < regex.length() && REGEX_META_CHARACTERS.indexOf(regex.charAt(end)) < 0)
+            {
+                end++;
+            }
+            // a quantifier that allows zero occurrences makes the preceding character optional
+            if (end > 0 && end < regex.length() && "?*{".indexOf(regex.charAt(end)) >= 0)
+            {
+                end--;
+            }
+            prefix = regex.substring(0,
+                                     end);
+        }
+        return prefix;
+    }
+
+    private String[] sortedValues()
+    {
+        String[] sorted = sortedValues;
+        if (sorted == null)
+        {
+            sorted = values.toArray(new String[values.size()]);
+            Arrays.sort(sorted);
+            sortedValues = sorted;
+        }
+        return sorted;
+    }
+
+    private static int insertionPoint(final String[] sorted,
+                                      final String key)
+    {
+        final int index = Arrays.binarySearch(sorted,
+                                              key);
+        return index >= 0 ? index
+                          : -(index + 1);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.utils.Fingerprints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Role groups compiled against a {@link RoleSymbolTable}.  Within a group, roles are ANDed; between groups, the
+ * relationship is OR.  Each group is held as a pair of bitmasks - the roles that are required, and the roles (prefixed
+ * with ! in the source) that are forbidden - so testing a subject is a few long operations per group.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class RoleGroups
+{
+    private final long[][] required;
+
+    private final long[][] forbidden;
+
+    private final boolean[] valid;
+
+    private final int width;
+
+    private final List<String[]> source;
+
+    private volatile String fingerprint;
+
+    private RoleGroups(final long[][] required,
+                       final long[][] forbidden,
+                       final boolean[] valid,
+                       final int width,
+                       final List<String[]> source)
+    {
+        this.required = required;
+        this.forbidden = forbidden;
+        this.valid = valid;
+        this.width = width;
+        this.source = source;
+    }
+
+    /**
+     * Compile the role groups, interning every role name in the symbol table.  A null or empty group can never be
+     * satisfied.
+     *
+     * @param symbols    the symbol table
+     * @param roleGroups the role groups.  Any role name starting with ! will be negated.
+     * @return the compiled groups
+     */
+    public static RoleGroups compile(final RoleSymbolTable symbols,
+                                     final List<String[]> roleGroups)
+    {
+        final int groupCount = roleGroups == null ? 0
+                                                  : roleGroups.size();
+        final List<String[]> source = new ArrayList<>(groupCount);
+        final int[][] requiredIds = new int[groupCount][];
+        final int[][] forbiddenIds = new int[groupCount][];
+        final boolean[] valid = new boolean[groupCount];
+        int width = 0;
+        for (int i = 0; i < groupCount; i++)
+        {
+            final String[] group = roleGroups.get(i);
+            valid[i] = group != null && group.length > 0;
+            final int length = group == null ? 0
+                                             : group.length;
+            requiredIds[i] = new int[length];
+            forbiddenIds[i] = new int[length];
+            int requiredCount = 0;
+            int forbiddenCount = 0;
+            for (int j = 0; j < length; j++)
+            {
+                final String roleName = group[j];
+                final int id;
+                if (roleName.startsWith("!"))
+                {
+                    id = symbols.intern(roleName.substring(1));
+                    forbiddenIds[i][forbiddenCount++] = id;
+                }
+                else
+                {
+                    id = symbols.intern(roleName);
+                    requiredIds[i][requiredCount++] = id;
+                }
+                width = Math.max(width,
+                                 id + 1);
+            }
+            if (valid[i])
+            {
+                source.add(group.clone());
+            }
+            requiredIds[i] = Arrays.copyOf(requiredIds[i],
+                                           requiredCount);
+            forbiddenIds[i] = Arrays.copyOf(forbiddenIds[i],
+                                            forbiddenCount);
+        }
+
+        final int words = words(width);
+        final long[][] required = new long[groupCount][];
+        final long[][] forbidden = new long[groupCount][];
+        for (int i = 0; i < groupCount; i++)
+        {
+            required[i] = mask(requiredIds[i],
+                               words);
+            forbidden[i] = mask(forbiddenIds[i],
+                                words);
+        }
+        return new RoleGroups(required,
+                              forbidden,
+                              valid,
+                              width,
+                              source);
+    }
+
+    /**
+     * A canonical form of uncompiled role groups, for use as a decision cache key.  Groups that list the same roles in a
+     * different order, or the same groups in a different order, have the same fingerprint; groups that can never be
+     * satisfied are left out.
+     *
+     * @param roleGroups the role groups
+     * @return the fingerprint
+     */
+    public static String fingerprint(final List<String[]> roleGroups)
+    {
+        final TreeSet<String> groupFingerprints = new TreeSet<>();
+        if (roleGroups != null)
+        {
+            for (String[] group : roleGroups)
+            {
+                if (group != null && group.length > 0)
+                {
+                    final TreeSet<String> roleNames = new TreeSet<>(Arrays.asList(group));
+                    groupFingerprints.add(Fingerprints.fingerprint("group",
+                                                                   roleNames.toArray(new String[roleNames.size()])));
+                }
+            }
+        }
+        return Fingerprints.fingerprint("restrict",
+                                        groupFingerprints.toArray(new String[groupFingerprints.size()]));
+    }
+
+    /**
+     * Test the subject's role mask against the groups.
+     *
+     * @param subjectMask the subject's role bitmask, covering at least {@link #width()} bits
+     * @return true iff at least one group is satisfied
+     */
+    public boolean test(final long[] subjectMask)
+    {
+        boolean roleOk = false;
+        for (int i = 0; !roleOk && i < valid.length; i++)
+        {
+            roleOk = valid[i] && test(subjectMask,
+                                      required[i],
+                                      forbidden[i]);
+        }
+        return roleOk;
+    }
+
+    /**
+     * The number of bits a subject mask must cover to be tested against these groups.
+     *
+     * @return the mask width
+     */
+    public int width()
+    {
+        return width;
+    }
+
+    /**
+     * A canonical form of the groups, for use as a decision cache key.  Groups that list the same roles in a different
+     * order, or the same groups in a different order, have the same fingerprint; groups that can never be satisfied are
+     * left out.  It is built the first time it is asked for.
+     *
+     * @return the fingerprint
+     */
+    public String fingerprint()
+    {
+        String current = fingerprint;
+        if (current == null)
+        {
+            current = fingerprint(source);
+            fingerprint = current;
+        }
+        return current;
+    }
+
+    /**
+     * The number of groups.
+     *
+     * @return the number of groups
+     */
+    public int size()
+    {
+        return valid.length;
+    }
+
+    /**
+     * Build a bitmask with the given bits set.
+     *
+     * @param ids   the bit positions
+     * @param words the number of longs in the mask
+     * @return the mask
+     */
+    static long[] mask(final int[] ids,
+                       final int words)
+    {
+        final long[] mask = new long[words];
+        for (int id : ids)
+        {
+            mask[id >>> 6] |= 1L << id;
+        }
+        return mask;
+    }
+
+    /**
+     * The number of longs needed to hold the given number of bits.
+     *
+     * @param bits the number of bits
+     * @return the number of longs
+     */
+    static int words(final int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean test(final long[] subjectMask,
+                                final long[] required,
+                                final long[] forbidden)
+    {
+        boolean ok = true;
+        for (int w = 0; ok && w < required.length; w++)
+        {
+            final long held = w < subjectMask.length ? subjectMask[w]
+                                                     : 0L;
+            ok = (held & required[w]) == required[w] && (held & forbidden[w]) == 0L;
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.models.Role;
+import be.objectify.deadbolt.java.models.Subject;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the role names held by a {@link Subject}.  Build it once per subject and reuse it for
+ * every role check in the request, so each test is a hash lookup instead of a scan of {@link Subject#getRoles()}.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class RoleIndex
+{
+    /**
+     * The index of a missing subject, which holds no roles.
+     */
+    public static final RoleIndex EMPTY = new RoleIndex(null,
+                                                        Collections.emptySet());
+
+    private final Subject subject;
+
+    private final Set<String> roleNames;
+
+    private volatile RoleMask roleMask;
+
+    private RoleIndex(final Subject subject,
+                      final Set<String> roleNames)
+    {
+        this.subject = subject;
+        this.roleNames = roleNames;
+    }
+
+    /**
+     * Index the roles of the subject.  Null roles are ignored.
+     *
+     * @param subjectOption an option for the subject
+     * @return the index.  Never null.
+     */
+    public static RoleIndex of(final Optional<? extends Subject> subjectOption)
+    {
+        return subjectOption.map(RoleIndex::of)
+                            .orElse(EMPTY);
+    }
+
+    /**
+     * Index the roles of the subject.  Null roles are ignored.
+     *
+     * @param subject the subject
+     * @return the index.  Never null.
+     */
+    public static RoleIndex of(final Subject subject)
+    {
+        final List<? extends Role> roles = subject == null ? null
+                                                           : subject.getRoles();
+        final RoleIndex index;
+        if (roles == null || roles.isEmpty())
+        {
+            index = new RoleIndex(subject,
+                                  Collections.emptySet());
+        }
+        else
+        {
+            final Set<String> names = new HashSet<>(roles.size() * 2);
+            for (Role role : roles)
+            {
+                if (role != null)
+                {
+                    names.add(role.getName());
+                }
+            }
+            index = new RoleIndex(subject,
+                                  names);
+        }
+        return index;
+    }
+
+    /**
+     * Check if the subject holds the named role.
+     *
+     * @param roleName the role name
+     * @return true iff the subject holds the role
+     */
+    public boolean contains(final String roleName)
+    {
+        return roleNames.contains(roleName);
+    }
+
+    /**
+     * Check if this index was built from the given subject instance.
+     *
+     * @param subject the subject
+     * @return true iff the index represents that exact subject instance
+     */
+    public boolean isFor(final Subject subject)
+    {
+        return this.subject == subject;
+    }
+
+    /**
+     * Gets the bitmask of the subject's roles against the symbol table.  Roles that have not been interned are not
+     * represented, as no constraint refers to them.  The mask is cached, and rebuilt only if it is narrower than required
+     * or was built against a different symbol table.
+     *
+     * @param symbols  the symbol table
+     * @param minWidth the minimum number of bits the mask must cover
+     * @return the role bitmask
+     */
+    public long[] mask(final RoleSymbolTable symbols,
+                       final int minWidth)
+    {
+        RoleMask current = roleMask;
+        if (current == null || current.symbols != symbols || current.width < minWidth)
+        {
+            final int width = symbols.size();
+            final long[] bits = new long[RoleGroups.words(width)];
+            for (String roleName : roleNames)
+            {
+                final int id = symbols.lookup(roleName);
+                if (id >= 0 && id < width)
+                {
+                    bits[id >>> 6] |= 1L << id;
+                }
+            }
+            current = new RoleMask(symbols,
+                                   width,
+                                   bits);
+            roleMask = current;
+        }
+        return current.bits;
+    }
+
+    /**
+     * The role names held by the subject.
+     *
+     * @return an unmodifiable view of the role names
+     */
+    public Set<String> roleNames()
+    {
+        return Collections.unmodifiableSet(roleNames);
+    }
+
+    private static final class RoleMask
+    {
+        private final RoleSymbolTable symbols;
+        private final int width;
+        private final long[] bits;
+
+        private RoleMask(final RoleSymbolTable symbols,
+                         final int width,
+                         final long[] bits)
+        {
+            this.symbols = symbols;
+            this.width = width;
+            this.bits = bits;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.models.Permission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The permission patterns of a role, compiled into a single alternation so each of a subject's permissions is tested
+ * once instead of once per pattern.  Patterns that cannot be safely combined - those containing back references, or
+ * whose combination does not compile - are kept as separate patterns.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class RolePermissionMatcher
+{
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+    private final List<String> permissionValues;
+
+    private final List<Pattern> patterns;
+
+    private RolePermissionMatcher(final List<String> permissionValues,
+                                  final List<Pattern> patterns)
+    {
+        this.permissionValues = permissionValues;
+        this.patterns = patterns;
+    }
+
+    /**
+     * Compile the permission values of a role.  Each value is compiled individually through the pattern cache, so an
+     * invalid value fails in the same way as before.
+     *
+     * @param permissionValues the permission values of the role
+     * @param patternCache     the pattern cache
+     * @return the matcher
+     */
+    public static RolePermissionMatcher compile(final List<String> permissionValues,
+                                                final PatternCache patternCache)
+    {
+        final List<Pattern> patterns = new ArrayList<>(permissionValues.size());
+        boolean combinable = true;
+        for (String permissionValue : permissionValues)
+        {
+            patterns.add(patternCache.apply(permissionValue));
+            combinable &= !BACK_REFERENCE.matcher(permissionValue).find();
+        }
+
+        List<Pattern> compiled = patterns;
+        if (combinable && patterns.size() > 1)
+        {
+            try
+            {
+                compiled = Collections.singletonList(Pattern.compile("(?:" + String.join(")|(?:",
+                                                                                         permissionValues) + ')'));
+            }
+            catch (PatternSyntaxException e)
+            {
+                // fall back to testing each pattern individually
+            }
+        }
+        return new RolePermissionMatcher(permissionValues,
+                                         compiled);
+    }
+
+    /**
+     * Extract the non-null values of the permissions.
+     *
+     * @param permissions the permissions.  May be null.
+     * @return the permission values
+     */
+    public static List<String> values(final List<? extends Permission> permissions)
+    {
+        final List<String> values = new ArrayList<>(permissions == null ? 0
+                                                                        : permissions.size());
+        if (permissions != null)
+        {
+            for (Permission permission : permissions)
+            {
+                if (permission != null && permission.getValue() != null)
+                {
+                    values.add(permission.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Check if this matcher was compiled from the given permission values.
+     *
+     * @param permissionValues the permission values
+     * @return true iff the values are the same, in the same order, as those this matcher was compiled from
+     */
+    public boolean isFor(final List<String> permissionValues)
+    {
+        return this.permissionValues.equals(permissionValues);
+    }
+
+    /**
+     * Check if any of the role's patterns matches at least one of the subject's permissions.
+     *
+     * @param permissionIndex the permission index of the subject
+     * @return true iff there is a match
+     */
+    public boolean test(final PermissionIndex permissionIndex)
+    {
+        boolean matched = false;
+        for (int i = 0; !matched && i < patterns.size(); i++)
+        {
+            matched = permissionIndex.matches(patterns.get(i));
+        }
+        return matched;
+    }
+
+    /**
+     * Check if the role's patterns were combined into a single pattern.
+     *
+     * @return true iff the patterns were combined
+     */
+    public boolean isCombined()
+    {
+        return patterns.size() == 1 && permissionValues.size() > 1;
+    }
+}
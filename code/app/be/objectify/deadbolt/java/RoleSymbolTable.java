@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the role names used in restrict constraints, assigning each distinct name a stable bit position.  Only role
+ * names that appear in a constraint are interned; roles held by a subject but never required or forbidden are ignored
+ * when building the subject's bitmask.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class RoleSymbolTable
+{
+    private final Map<String, Integer> symbols = new ConcurrentHashMap<>();
+
+    private volatile int size = 0;
+
+    /**
+     * Gets the bit position of the role name, assigning a new one if the name has not been seen before.
+     *
+     * @param roleName the role name
+     * @return the bit position of the role name
+     */
+    public int intern(final String roleName)
+    {
+        final Integer existing = symbols.get(roleName);
+        return existing != null ? existing
+                                : register(roleName);
+    }
+
+    /**
+     * Gets the bit position of the role name without interning it.
+     *
+     * @param roleName the role name
+     * @return the bit position, or -1 if the name is not known
+     */
+    public int lookup(final String roleName)
+    {
+        final Integer existing = roleName == null ? null
+                                                  : symbols.get(roleName);
+        return existing != null ? existing
+                                : -1;
+    }
+
+    /**
+     * The number of interned role names.  All bit positions are less than this value.
+     *
+     * @return the number of interned role names
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private synchronized int register(final String roleName)
+    {
+        Integer symbol = symbols.get(roleName);
+        if (symbol == null)
+        {
+            symbol = size;
+            symbols.put(roleName,
+                        symbol);
+            size = symbol + 1;
+        }
+        return symbol;
+    }
+}
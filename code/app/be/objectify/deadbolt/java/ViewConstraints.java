@@ -0,0 +1,318 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.cache.EvaluationContext;
+import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.utils.Fingerprints;
+import play.mvc.Http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Collects the constraints a template will check, so a controller can decide them before it renders the template.
+ * The decisions are stored in the HTTP context, and the tags of the template use them instead of blocking a thread
+ * while the template renders.  Declare each constraint with the same parameters and handler as the tag that checks it;
+ * a tag whose constraint was not resolved falls back to blocking until it is decided.
+ * <pre>
+ * public CompletionStage&lt;Result&gt; index()
+ * {
+ *     return viewSupport.viewConstraints()
+ *                       .restrict(Collections.singletonList(new String[]{"admin"}))
+ *                       .subjectPresent()
+ *                       .resolve(ctx())
+ *                       .thenApply(resolved -&gt; ok(index.render()));
+ * }
+ * </pre>
+ * The constraints are decided together within one {@link EvaluationContext}, so the subject and the dynamic resource
+ * handler are resolved once for all of them.  Instances are not thread-safe, and are meant to be used by the action
+ * that creates them.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class ViewConstraints
+{
+    private static final String KEY = "deadbolt.java.view-decisions";
+
+    private final ViewSupport viewSupport;
+
+    private final DeadboltHandler handler;
+
+    private final Map<String, Function<Http.Context, CompletionStage<Boolean>>> constraints = new LinkedHashMap<>();
+
+    ViewConstraints(final ViewSupport viewSupport,
+                    final DeadboltHandler handler)
+    {
+        this.viewSupport = viewSupport;
+        this.handler = handler;
+    }
+
+    /**
+     * Add the constraint of a restrict tag.
+     *
+     * @param roles a list of String arrays.  Within an array, the roles are ANDed.  The arrays in the list are OR'd.
+     * @return this object
+     */
+    public ViewConstraints restrict(final List<String[]> roles)
+    {
+        constraints.put(restrictKey(handler,
+                                    roles),
+                        ctx -> viewSupport.restrict(ctx,
+                                                    handler,
+                                                    Optional.empty(),
+                                                    roles));
+        return this;
+    }
+
+    /**
+     * Add the constraint of a dynamic tag.
+     *
+     * @param name the name of the resource
+     * @param meta meta information on the resource
+     * @return this object
+     */
+    public ViewConstraints dynamic(final String name,
+                                   final Optional<String> meta)
+    {
+        constraints.put(dynamicKey(handler,
+                                   name,
+                                   meta),
+                        ctx -> viewSupport.dynamic(ctx,
+                                                   handler,
+                                                   Optional.empty(),
+                                                   name,
+                                                   meta));
+        return this;
+    }
+
+    /**
+     * Add the constraint of a pattern tag.
+     *
+     * @param value       the pattern value
+     * @param patternType the type of the pattern
+     * @param meta        meta information on the pattern
+     * @param invert      true if the result of the pattern check should be inverted
+     * @return this object
+     */
+    public ViewConstraints pattern(final String value,
+                                   final PatternType patternType,
+                                   final Optional<String> meta,
+                                   final boolean invert)
+    {
+        constraints.put(patternKey(handler,
+                                   value,
+                                   patternType,
+                                   meta,
+                                   invert),
+                        ctx -> viewSupport.pattern(ctx,
+                                                   handler,
+                                                   Optional.empty(),
+                                                   value,
+                                                   patternType,
+                                                   meta,
+                                                   invert));
+        return this;
+    }
+
+    /**
+     * Add the constraint of a subjectPresent tag.
+     *
+     * @return this object
+     */
+    public ViewConstraints subjectPresent()
+    {
+        constraints.put(subjectPresentKey(handler),
+                        ctx -> viewSupport.subjectPresent(ctx,
+                                                          handler,
+                                                          Optional.empty()));
+        return this;
+    }
+
+    /**
+     * Add the constraint of a subjectNotPresent tag.
+     *
+     * @return this object
+     */
+    public ViewConstraints subjectNotPresent()
+    {
+        constraints.put(subjectNotPresentKey(handler),
+                        ctx -> viewSupport.subjectNotPresent(ctx,
+                                                             handler,
+                                                             Optional.empty()));
+        return this;
+    }
+
+    /**
+     * Add the constraint of a roleBasedPermissions tag.
+     *
+     * @param roleName the role name that is the key for the permission set
+     * @return this object
+     */
+    public ViewConstraints roleBasedPermissions(final String roleName)
+    {
+        constraints.put(roleBasedPermissionsKey(handler,
+                                                roleName),
+                        ctx -> viewSupport.roleBasedPermissions(ctx,
+                                                                handler,
+                                                                Optional.empty(),
+                                                                roleName));
+        return this;
+    }
+
+    /**
+     * Decide every constraint and store the decisions in the HTTP context.  Decisions stored by earlier calls for the
+     * same context are kept.
+     *
+     * @param ctx the HTTP context the template will be rendered with
+     * @return a stage that completes once every decision is stored, or fails if any constraint cannot be decided
+     */
+    public CompletionStage<Void> resolve(final Http.Context ctx)
+    {
+        final Map<String, Boolean> decisions = decisions(ctx);
+        return EvaluationContext.within(ctx,
+                                        () ->
+                                        {
+                                            final List<CompletableFuture<Void>> stored = new ArrayList<>(constraints.size());
+                                            constraints.forEach((key, constraint) -> stored.add(constraint.apply(ctx)
+                                                                                                          .thenAccept(allowed -> decisions.put(key,
+                                                                                                                                               allowed))
+                                                                                                          .toCompletableFuture()));
+                                            return CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[stored.size()]));
+                                        });
+    }
+
+    /**
+     * The decision resolved for a constraint before rendering started.
+     *
+     * @param ctx the HTTP context
+     * @param key supplies the key of the constraint.  Only called if decisions were resolved for the request.
+     * @return the decision, or empty if the constraint was not resolved
+     */
+    static Optional<Boolean> resolved(final Http.Context ctx,
+                                      final Supplier<String> key)
+    {
+        Optional<Boolean> allowed = Optional.empty();
+        if (ctx != null && ctx.args != null)
+        {
+            @SuppressWarnings("unchecked")
+            final Map<String, Boolean> decisions = (Map<String, Boolean>) ctx.args.get(KEY);
+            if (decisions != null)
+            {
+                allowed = Optional.ofNullable(decisions.get(key.get()));
+            }
+        }
+        return allowed;
+    }
+
+    static String restrictKey(final DeadboltHandler handler,
+                              final List<String[]> roles)
+    {
+        final int groupCount = roles == null ? 0
+                                             : roles.size();
+        final String[] groups = new String[groupCount];
+        for (int i = 0; i < groupCount; i++)
+        {
+            final String[] group = roles.get(i);
+            groups[i] = group == null ? null
+                                      : Fingerprints.fingerprint("group",
+                                                                 group);
+        }
+        return key("restrict",
+                   handler,
+                   groups);
+    }
+
+    static String dynamicKey(final DeadboltHandler handler,
+                             final String name,
+                             final Optional<String> meta)
+    {
+        return key("dynamic",
+                   handler,
+                   name,
+                   meta.orElse(null));
+    }
+
+    static String patternKey(final DeadboltHandler handler,
+                             final String value,
+                             final PatternType patternType,
+                             final Optional<String> meta,
+                             final boolean invert)
+    {
+        return key("pattern",
+                   handler,
+                   value,
+                   patternType.name(),
+                   meta.orElse(null),
+                   Boolean.toString(invert));
+    }
+
+    static String subjectPresentKey(final DeadboltHandler handler)
+    {
+        return key("subjectPresent",
+                   handler);
+    }
+
+    static String subjectNotPresentKey(final DeadboltHandler handler)
+    {
+        return key("subjectNotPresent",
+                   handler);
+    }
+
+    static String roleBasedPermissionsKey(final DeadboltHandler handler,
+                                          final String roleName)
+    {
+        return key("rbp",
+                   handler,
+                   roleName);
+    }
+
+    private static String key(final String kind,
+                              final DeadboltHandler handler,
+                              final String... parts)
+    {
+        final String[] scoped = new String[parts.length + 1];
+        scoped[0] = handler.handlerName();
+        System.arraycopy(parts,
+                         0,
+                         scoped,
+                         1,
+                         parts.length);
+        return Fingerprints.fingerprint(kind,
+                                        scoped);
+    }
+
+    private static Map<String, Boolean> decisions(final Http.Context ctx)
+    {
+        @SuppressWarnings("unchecked")
+        Map<String, Boolean> decisions = (Map<String, Boolean>) ctx.args.get(KEY);
+        if (decisions == null)
+        {
+            decisions = new ConcurrentHashMap<>();
+            ctx.args.put(KEY,
+                         decisions);
+        }
+        return decisions;
+    }
+}
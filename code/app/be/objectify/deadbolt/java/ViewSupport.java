@@ -24,12 +24,15 @@ import play.mvc.Http;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -80,6 +83,29 @@ public class ViewSupport
         };
     }
 
+    /**
+     * Start collecting the constraints a template will check, so they can be decided before the template is rendered.
+     * The constraints are checked with the default handler.
+     *
+     * @return an empty set of view constraints
+     */
+    public ViewConstraints viewConstraints()
+    {
+        return viewConstraints(null);
+    }
+
+    /**
+     * Start collecting the constraints a template will check, so they can be decided before the template is rendered.
+     *
+     * @param handler the handler the template's tags use.  If null, the default handler is used.
+     * @return an empty set of view constraints
+     */
+    public ViewConstraints viewConstraints(final DeadboltHandler handler)
+    {
+        return new ViewConstraints(this,
+                                   handler(handler));
+    }
+
     /**
      * Used for restrict tags in the template.
      *
@@ -91,26 +117,14 @@ public class ViewSupport
                                 final Optional<String> content,
                                 final long timeoutInMillis) throws Throwable
     {
-        boolean allowed;
-        try
-        {
-            allowed = constraintLogic.restrict(Http.Context.current(),
-                                               handler(handler),
-                                               content,
-                                               () -> roles,
-                                               ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
-                                               (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE))
-                                     .toCompletableFuture()
-                                     .get(timeoutInMillis,
-                                          TimeUnit.MILLISECONDS);
-
-        }
-        catch (TimeoutException e)
-        {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
-        }
-        return allowed;
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.restrictKey(deadboltHandler,
+                                                        roles),
+                      ctx -> restrict(ctx,
+                                      deadboltHandler,
+                                      content,
+                                      roles),
+                      timeoutInMillis);
     }
 
     /**
@@ -126,24 +140,53 @@ public class ViewSupport
                                final Optional<String> content,
                                final long timeoutInMillis) throws Throwable
     {
-        boolean allowed;
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.dynamicKey(deadboltHandler,
+                                                       name,
+                                                       meta),
+                      ctx -> dynamic(ctx,
+                                     deadboltHandler,
+                                     content,
+                                     name,
+                                     meta),
+                      timeoutInMillis);
+    }
+
+    /**
+     * Used to check a dynamic constraint for many resources at once, e.g. for the rows of a listing.
+     *
+     * @param name            the name of the resource
+     * @param metas           meta information on each resource
+     * @param handler         the handler to check the resources with, or null to use the default handler
+     * @param timeoutInMillis how long to wait for the decisions
+     * @return the decisions.  Bit i is set if the resource described by metas.get(i) can be accessed.  If the decisions
+     * are not made in time, every bit is set if the timeout handler allows access and no bit is set otherwise.
+     */
+    public BitSet viewDynamicAll(final String name,
+                                 final List<Optional<String>> metas,
+                                 final DeadboltHandler handler,
+                                 final long timeoutInMillis) throws Throwable
+    {
+        BitSet allowed;
         try
         {
-            allowed = constraintLogic.dynamic(Http.Context.current(),
-                                              handler(handler),
-                                              content,
-                                              name,
-                                              meta,
-                                              ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
-                                              (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE))
+            allowed = constraintLogic.dynamicAll(Http.Context.current(),
+                                                 handler(handler),
+                                                 name,
+                                                 metas)
                                      .toCompletableFuture()
                                      .get(timeoutInMillis,
                                           TimeUnit.MILLISECONDS);
         }
         catch (TimeoutException e)
         {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
+            allowed = new BitSet(metas.size());
+            if (timeoutHandler.apply(timeoutInMillis,
+                                     e))
+            {
+                allowed.set(0,
+                            metas.size());
+            }
         }
         return allowed;
     }
@@ -157,25 +200,12 @@ public class ViewSupport
                                       final Optional<String> content,
                                       final long timeoutInMillis) throws Throwable
     {
-        boolean allowed;
-        try
-        {
-            allowed = constraintLogic.subjectPresent(Http.Context.current(),
-                                                     handler == null ? handlerCache.get()
-                                                                     : handler,
-                                                     content,
-                                                     (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.TRUE),
-                                                     (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE))
-                                     .toCompletableFuture()
-                                     .get(timeoutInMillis,
-                                          TimeUnit.MILLISECONDS);
-        }
-        catch (TimeoutException e)
-        {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
-        }
-        return allowed;
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.subjectPresentKey(deadboltHandler),
+                      ctx -> subjectPresent(ctx,
+                                            deadboltHandler,
+                                            content),
+                      timeoutInMillis);
     }
 
     /**
@@ -187,24 +217,12 @@ public class ViewSupport
                                          final Optional<String> content,
                                          final long timeoutInMillis) throws Throwable
     {
-        boolean allowed;
-        try
-        {
-            allowed = constraintLogic.subjectPresent(Http.Context.current(),
-                                                     handler(handler),
-                                                     content,
-                                                     (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE),
-                                                     (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.TRUE))
-                                     .toCompletableFuture()
-                                     .get(timeoutInMillis,
-                                          TimeUnit.MILLISECONDS);
-        }
-        catch (TimeoutException e)
-        {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
-        }
-        return allowed;
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.subjectNotPresentKey(deadboltHandler),
+                      ctx -> subjectNotPresent(ctx,
+                                               deadboltHandler,
+                                               content),
+                      timeoutInMillis);
     }
 
     public boolean viewPattern(final String value,
@@ -215,29 +233,20 @@ public class ViewSupport
                                final Optional<String> content,
                                final long timeoutInMillis) throws Exception
     {
-        boolean allowed;
-        try
-        {
-            allowed = constraintLogic.pattern(Http.Context.current(),
-                                              handler(handler),
-                                              content,
-                                              value,
-                                              patternType,
-                                              meta,
-                                              invert,
-                                              ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
-                                              (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE))
-                                     .toCompletableFuture()
-                                     .get(timeoutInMillis,
-                                          TimeUnit.MILLISECONDS);
-        }
-        catch (TimeoutException e)
-        {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
-        }
-
-        return allowed;
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.patternKey(deadboltHandler,
+                                                       value,
+                                                       patternType,
+                                                       meta,
+                                                       invert),
+                      ctx -> pattern(ctx,
+                                     deadboltHandler,
+                                     content,
+                                     value,
+                                     patternType,
+                                     meta,
+                                     invert),
+                      timeoutInMillis);
     }
 
     /**
@@ -251,24 +260,128 @@ public class ViewSupport
                                             final Optional<String> content,
                                             final long timeoutInMillis) throws Throwable
     {
+        final DeadboltHandler deadboltHandler = handler(handler);
+        return decide(() -> ViewConstraints.roleBasedPermissionsKey(deadboltHandler,
+                                                                    roleName),
+                      ctx -> roleBasedPermissions(ctx,
+                                                  deadboltHandler,
+                                                  content,
+                                                  roleName),
+                      timeoutInMillis);
+    }
+
+    CompletionStage<Boolean> restrict(final Http.Context ctx,
+                                      final DeadboltHandler handler,
+                                      final Optional<String> content,
+                                      final List<String[]> roles)
+    {
+        return constraintLogic.restrict(ctx,
+                                        handler,
+                                        content,
+                                        () -> roles,
+                                        c -> CompletableFuture.completedFuture(Boolean.TRUE),
+                                        (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
+    }
+
+    CompletionStage<Boolean> dynamic(final Http.Context ctx,
+                                     final DeadboltHandler handler,
+                                     final Optional<String> content,
+                                     final String name,
+                                     final Optional<String> meta)
+    {
+        return constraintLogic.dynamic(ctx,
+                                       handler,
+                                       content,
+                                       name,
+                                       meta,
+                                       c -> CompletableFuture.completedFuture(Boolean.TRUE),
+                                       (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
+    }
+
+    CompletionStage<Boolean> subjectPresent(final Http.Context ctx,
+                                            final DeadboltHandler handler,
+                                            final Optional<String> content)
+    {
+        return constraintLogic.subjectPresent(ctx,
+                                              handler,
+                                              content,
+                                              (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.TRUE),
+                                              (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
+    }
+
+    CompletionStage<Boolean> subjectNotPresent(final Http.Context ctx,
+                                               final DeadboltHandler handler,
+                                               final Optional<String> content)
+    {
+        return constraintLogic.subjectPresent(ctx,
+                                              handler,
+                                              content,
+                                              (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE),
+                                              (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.TRUE));
+    }
+
+    CompletionStage<Boolean> pattern(final Http.Context ctx,
+                                     final DeadboltHandler handler,
+                                     final Optional<String> content,
+                                     final String value,
+                                     final PatternType patternType,
+                                     final Optional<String> meta,
+                                     final boolean invert)
+    {
+        return constraintLogic.pattern(ctx,
+                                       handler,
+                                       content,
+                                       value,
+                                       patternType,
+                                       meta,
+                                       invert,
+                                       c -> CompletableFuture.completedFuture(Boolean.TRUE),
+                                       (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
+    }
+
+    CompletionStage<Boolean> roleBasedPermissions(final Http.Context ctx,
+                                                  final DeadboltHandler handler,
+                                                  final Optional<String> content,
+                                                  final String roleName)
+    {
+        return constraintLogic.roleBasedPermissions(ctx,
+                                                    handler,
+                                                    content,
+                                                    roleName,
+                                                    c -> CompletableFuture.completedFuture(Boolean.TRUE),
+                                                    (c, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
+    }
+
+    /**
+     * Use the decision resolved for the constraint before rendering started, if there is one.  Otherwise, evaluate the
+     * constraint and block until it is decided or the timeout expires.  The key is only built if decisions were resolved.
+     */
+    private boolean decide(final Supplier<String> key,
+                           final Function<Http.Context, CompletionStage<Boolean>> evaluation,
+                           final long timeoutInMillis) throws Exception
+    {
+        final Http.Context ctx = Http.Context.current();
+        final Optional<Boolean> resolved = ViewConstraints.resolved(ctx,
+                                                                    key);
         boolean allowed;
-        try
+        if (resolved.isPresent())
         {
-            allowed = constraintLogic.roleBasedPermissions(Http.Context.current(),
-                                                           handler(handler),
-                                                           content,
-                                                           roleName,
-                                                           ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
-                                                           (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE))
-                                     .toCompletableFuture()
-                                     .get(timeoutInMillis,
-                                          TimeUnit.MILLISECONDS);
-
+            allowed = resolved.get();
         }
-        catch (TimeoutException e)
+        else
         {
-            allowed = timeoutHandler.apply(timeoutInMillis,
-                                           e);
+            try
+            {
+                allowed = evaluation.apply(ctx)
+                                    .toCompletableFuture()
+                                    .get(timeoutInMillis,
+                                         TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                allowed = timeoutHandler.apply(timeoutInMillis,
+                                               e);
+            }
         }
         return allowed;
     }
@@ -278,4 +391,4 @@ public class ViewSupport
         return handler == null ? handlerCache.get()
                                : handler;
     }
-}
\ No newline at end of file
+}
@@ -64,6 +64,8 @@ public abstract class AbstractDeadboltAction<T> extends Action<T>
     public final boolean blocking;
     public final long blockingTimeout;
 
+    private ActionMetadata metadata;
+
     protected AbstractDeadboltAction(final HandlerCache handlerCache,
                                      final Configuration config,
                                      final ExecutionContextProvider ecProvider)
@@ -103,16 +105,16 @@ public abstract class AbstractDeadboltAction<T> extends Action<T>
     {
         CompletionStage<Result> result;
 
-        Class annClass = configuration.getClass();
+        final ActionMetadata metadata = metadata();
         try
         {
             if (isDeferred(ctx))
             {
                 result = getDeferredAction(ctx).call(ctx);
             }
-            else if (!ctx.args.containsKey(IGNORE_DEFERRED_FLAG)
-                    && annClass.isAnnotationPresent(Deferrable.class)
-                    && (Boolean) annClass.getMethod("deferred").invoke(configuration))
+            else if (metadata.deferrable
+                    && metadata.deferred
+                    && !ctx.args.containsKey(IGNORE_DEFERRED_FLAG))
             {
                 defer(ctx,
                       this);
@@ -132,6 +134,21 @@ public abstract class AbstractDeadboltAction<T> extends Action<T>
         }
     }
 
+    /**
+     * Gets the metadata of this action's annotation.  The metadata is read once per annotation instance and shared by
+     * every action created for it.
+     *
+     * @return the metadata
+     */
+    protected ActionMetadata metadata()
+    {
+        if (metadata == null)
+        {
+            metadata = ActionMetadata.of(configuration);
+        }
+        return metadata;
+    }
+
     /**
      * Execute the action.
      *
@@ -53,11 +53,11 @@ public abstract class AbstractSubjectAction<T> extends AbstractDeadboltAction<T>
     public CompletionStage<Result> execute(final Http.Context content) throws Exception
     {
         final CompletionStage<Result> result;
-        final Config config = config();
+        final ActionMetadata metadata = metadata();
         if (isActionUnauthorised(content))
         {
-            result = onAuthFailure(getDeadboltHandler(config.handlerKey),
-                                   config.content,
+            result = onAuthFailure(getDeadboltHandler(metadata.handlerKey),
+                                   metadata.content,
                                    content);
         }
         else if (isActionAuthorised(content))
@@ -66,15 +66,15 @@ public abstract class AbstractSubjectAction<T> extends AbstractDeadboltAction<T>
         }
         else
         {
-            final DeadboltHandler deadboltHandler = getDeadboltHandler(config.handlerKey);
+            final DeadboltHandler deadboltHandler = getDeadboltHandler(metadata.handlerKey);
             final ExecutionContextExecutor executor = executor();
-            result = preAuth(config.forceBeforeAuthCheck,
+            result = preAuth(metadata.forceBeforeAuthCheck,
                              content,
                              deadboltHandler)
                     .thenComposeAsync(maybePreAuth -> maybePreAuth.map(CompletableFuture::completedFuture)
                                                                   .orElseGet(() -> constraintLogic.subjectPresent(content,
                                                                                                                   deadboltHandler,
-                                                                                                                  config.content,
+                                                                                                                  metadata.content,
                                                                                                                   this::present,
                                                                                                                   this::notPresent)
                                                                                                   .toCompletableFuture()),
@@ -83,8 +83,6 @@ public abstract class AbstractSubjectAction<T> extends AbstractDeadboltAction<T>
         return maybeBlock(result);
     }
 
-    abstract Config config();
-
     abstract CompletionStage<Result> present(Http.Context context,
                                              DeadboltHandler handler,
                                              Optional<String> content);
@@ -92,20 +90,4 @@ public abstract class AbstractSubjectAction<T> extends AbstractDeadboltAction<T>
     abstract CompletionStage<Result> notPresent(Http.Context context,
                                                 DeadboltHandler handler,
                                                 Optional<String> content);
-
-    class Config
-    {
-        public final boolean forceBeforeAuthCheck;
-        public final String handlerKey;
-        public final Optional<String> content;
-
-        Config(final boolean forceBeforeAuthCheck,
-               final String handlerKey,
-               final String content)
-        {
-            this.forceBeforeAuthCheck = forceBeforeAuthCheck;
-            this.handlerKey = handlerKey;
-            this.content = Optional.ofNullable(content);
-        }
-    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.actions;
+
+import be.objectify.deadbolt.java.cache.BoundedCache;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * The common attributes of a Deadbolt annotation, read once per annotation instance.  Play creates a new action for
+ * every request but passes it the same annotation instance each time, so the reflection needed to find out if an
+ * annotation is deferred - and the Optionals wrapping its content and meta - are not repeated on every request.
+ * <p>
+ * Attributes that an annotation does not declare take their default values: false for flags, null for the handler key,
+ * and empty for content and meta.
+ * <p>
+ * The metadata of at most {@link #MAX_SIZE} annotations is held, so annotations of classes discarded by a reload in
+ * development mode are eventually evicted rather than held forever.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class ActionMetadata
+{
+    /**
+     * The metadata of a configuration that is not an annotation.
+     */
+    public static final ActionMetadata NONE = new ActionMetadata(false,
+                                                                 false,
+                                                                 null,
+                                                                 Optional.empty(),
+                                                                 Optional.empty(),
+                                                                 false);
+
+    /**
+     * The number of annotations whose metadata is held.  An application normally has far fewer Deadbolt annotations.
+     */
+    public static final int MAX_SIZE = 4096;
+
+    private static final BoundedCache<AnnotationKey, ActionMetadata> CACHE = new BoundedCache<>(MAX_SIZE,
+                                                                                                BoundedCache.NO_EXPIRY,
+                                                                                                System::nanoTime);
+
+    /**
+     * True iff the class of the annotation instance is marked with {@link Deferrable}, which is the check Deadbolt has
+     * always made.  Annotations read by reflection are instances of proxy classes, which are never marked, so this is
+     * false for them and constraints are enforced straight away whatever the value of deferred().
+     */
+    public final boolean deferrable;
+
+    /**
+     * The value of deferred().
+     */
+    public final boolean deferred;
+
+    /**
+     * The value of handlerKey().
+     */
+    public final String handlerKey;
+
+    /**
+     * The value of content().
+     */
+    public final Optional<String> content;
+
+    /**
+     * The value of meta().
+     */
+    public final Optional<String> meta;
+
+    /**
+     * The value of forceBeforeAuthCheck().
+     */
+    public final boolean forceBeforeAuthCheck;
+
+    private ActionMetadata(final boolean deferrable,
+                           final boolean deferred,
+                           final String handlerKey,
+                           final Optional<String> content,
+                           final Optional<String> meta,
+                           final boolean forceBeforeAuthCheck)
+    {
+        this.deferrable = deferrable;
+        this.deferred = deferred;
+        this.handlerKey = handlerKey;
+        this.content = content;
+        this.meta = meta;
+        this.forceBeforeAuthCheck = forceBeforeAuthCheck;
+    }
+
+    /**
+     * Gets the metadata of an action's configuration.
+     *
+     * @param configuration the configuration of the action, normally an annotation.  May be null.
+     * @return the metadata, or {@link #NONE} if the configuration is not an annotation
+     */
+    public static ActionMetadata of(final Object configuration)
+    {
+        ActionMetadata metadata = NONE;
+        if (configuration instanceof Annotation)
+        {
+            final AnnotationKey key = new AnnotationKey((Annotation) configuration);
+            metadata = CACHE.get(key);
+            if (metadata == null)
+            {
+                final ActionMetadata read = read(key.annotation);
+                metadata = CACHE.putIfAbsent(key,
+                                             read);
+                if (metadata == null)
+                {
+                    metadata = read;
+                }
+            }
+        }
+        return metadata;
+    }
+
+    private static ActionMetadata read(final Annotation annotation)
+    {
+        return new ActionMetadata(annotation.getClass().isAnnotationPresent(Deferrable.class),
+                                  Boolean.TRUE.equals(attribute(annotation,
+                                                                "deferred",
+                                                                boolean.class)),
+                                  (String) attribute(annotation,
+                                                     "handlerKey",
+                                                     String.class),
+                                  Optional.ofNullable((String) attribute(annotation,
+                                                                         "content",
+                                                                         String.class)),
+                                  Optional.ofNullable((String) attribute(annotation,
+                                                                         "meta",
+                                                                         String.class)),
+                                  Boolean.TRUE.equals(attribute(annotation,
+                                                                "forceBeforeAuthCheck",
+                                                                boolean.class)));
+    }
+
+    /**
+     * Reads an attribute of the annotation.
+     *
+     * @param annotation the annotation
+     * @param name       the name of the attribute
+     * @param type       the expected type of the attribute
+     * @return the value of the attribute, or null if the annotation has no attribute of that name and type
+     */
+    private static Object attribute(final Annotation annotation,
+                                    final String name,
+                                    final Class<?> type)
+    {
+        try
+        {
+            final Method method = annotation.annotationType().getMethod(name);
+            return method.getReturnType() == type ? method.invoke(annotation)
+                                                  : null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+        catch (IllegalAccessException | InvocationTargetException e)
+        {
+            throw new IllegalStateException(String.format("Could not read [%s] from [%s]",
+                                                          name,
+                                                          annotation),
+                                            e);
+        }
+    }
+
+    /**
+     * Keys annotations by identity, as Play passes the same instance to every action created for a route.  This also
+     * avoids hashing the attributes of the annotation on every request.
+     */
+    private static final class AnnotationKey
+    {
+        private final Annotation annotation;
+
+        private AnnotationKey(final Annotation annotation)
+        {
+            this.annotation = annotation;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            return this == o || (o instanceof AnnotationKey && annotation == ((AnnotationKey) o).annotation);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(annotation);
+        }
+    }
+}
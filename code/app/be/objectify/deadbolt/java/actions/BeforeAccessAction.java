@@ -57,7 +57,7 @@ public class BeforeAccessAction extends AbstractDeadboltAction<BeforeAccess>
         }
         else
         {
-            final DeadboltHandler deadboltHandler = getDeadboltHandler(configuration.handlerKey());
+            final DeadboltHandler deadboltHandler = getDeadboltHandler(metadata().handlerKey);
             final ExecutionContextExecutor executor = executor();
             result = preAuth(true,
                              ctx,
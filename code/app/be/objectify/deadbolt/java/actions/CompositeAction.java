@@ -26,7 +26,6 @@ import play.mvc.Result;
 import scala.concurrent.ExecutionContextExecutor;
 
 import javax.inject.Inject;
-import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -62,13 +61,13 @@ public class CompositeAction extends AbstractRestrictiveAction<Composite>
                                                           .thenComposeAsync(allowed -> allowed ? authorizeAndExecute(ctx)
                                                                                                : unauthorizeAndFail(ctx,
                                                                                                                     handler,
-                                                                                                                    Optional.ofNullable(configuration.content())),
+                                                                                                                    metadata().content),
                                                                             executor))
                              .orElseGet(() ->
                                         {
                                             markActionAsUnauthorised(ctx);
                                             return onAuthFailure(handler,
-                                                                 Optional.ofNullable(configuration.content()),
+                                                                 metadata().content,
                                                                  ctx);
                                         });
     }
@@ -87,6 +86,6 @@ public class CompositeAction extends AbstractRestrictiveAction<Composite>
     @Override
     public String getHandlerKey()
     {
-        return configuration.handlerKey();
+        return metadata().handlerKey;
     }
 }
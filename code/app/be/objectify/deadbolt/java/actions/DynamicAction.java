@@ -69,7 +69,7 @@ public class DynamicAction extends AbstractRestrictiveAction<Dynamic>
     {
         return constraintLogic.dynamic(ctx,
                                        deadboltHandler,
-                                       Optional.ofNullable(configuration.content()),
+                                       metadata().content,
                                        getValue(),
                                        getMeta(),
                                        this::authorizeAndExecute,
@@ -78,7 +78,7 @@ public class DynamicAction extends AbstractRestrictiveAction<Dynamic>
 
     public Optional<String> getMeta()
     {
-        return Optional.ofNullable(configuration.meta());
+        return metadata().meta;
     }
 
     public String getValue()
@@ -89,6 +89,6 @@ public class DynamicAction extends AbstractRestrictiveAction<Dynamic>
     @Override
     public String getHandlerKey()
     {
-        return configuration.handlerKey();
+        return metadata().handlerKey;
     }
 }
@@ -66,9 +66,12 @@ public class PatternAction extends AbstractRestrictiveAction<Pattern>
     {
         return constraintLogic.pattern(ctx,
                                        deadboltHandler,
-                                       Optional.ofNullable(configuration.content()),
+                                       metadata().content,
                                        getValue(),
                                        configuration.patternType(),
+                                       constraintLogic.compilePattern(configuration,
+                                                                      this::getValue,
+                                                                      configuration.patternType()),
                                        getMeta(),
                                        configuration.invert(),
                                        this::authorizeAndExecute,
@@ -82,12 +85,12 @@ public class PatternAction extends AbstractRestrictiveAction<Pattern>
 
     public Optional<String> getMeta()
     {
-        return Optional.ofNullable(configuration.meta());
+        return metadata().meta;
     }
 
     @Override
     public String getHandlerKey()
     {
-        return configuration.handlerKey();
+        return metadata().handlerKey;
     }
 }
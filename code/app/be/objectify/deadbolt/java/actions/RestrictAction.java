@@ -27,7 +27,6 @@ import play.mvc.Result;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -71,8 +70,9 @@ public class RestrictAction extends AbstractRestrictiveAction<Restrict>
     {
         return constraintLogic.restrict(ctx,
                                         deadboltHandler,
-                                        Optional.ofNullable(configuration.content()),
-                                        this::getRoleGroups,
+                                        metadata().content,
+                                        constraintLogic.compileRoleGroups(configuration,
+                                                                          this::getRoleGroups),
                                         this::authorizeAndExecute,
                                         this::unauthorizeAndFail);
     }
@@ -90,6 +90,6 @@ public class RestrictAction extends AbstractRestrictiveAction<Restrict>
     @Override
     public String getHandlerKey()
     {
-        return configuration.handlerKey();
+        return metadata().handlerKey;
     }
 }
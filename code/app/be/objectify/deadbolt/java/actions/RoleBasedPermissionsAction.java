@@ -25,7 +25,6 @@ import play.mvc.Http;
 import play.mvc.Result;
 
 import javax.inject.Inject;
-import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -70,7 +69,7 @@ public class RoleBasedPermissionsAction extends AbstractRestrictiveAction<RoleBa
     {
         return constraintLogic.roleBasedPermissions(ctx,
                                                     deadboltHandler,
-                                                    Optional.ofNullable(configuration.content()),
+                                                    metadata().content,
                                                     configuration.value(),
                                                     this::authorizeAndExecute,
                                                     this::unauthorizeAndFail);
@@ -79,6 +78,6 @@ public class RoleBasedPermissionsAction extends AbstractRestrictiveAction<RoleBa
     @Override
     public String getHandlerKey()
     {
-        return configuration.handlerKey();
+        return metadata().handlerKey;
     }
 }
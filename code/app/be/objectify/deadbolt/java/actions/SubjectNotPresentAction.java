@@ -48,17 +48,6 @@ public class SubjectNotPresentAction extends AbstractSubjectAction<SubjectNotPre
               constraintLogic);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    Config config()
-    {
-        return new Config(configuration.forceBeforeAuthCheck(),
-                          configuration.handlerKey(),
-                          configuration.content());
-    }
-
     /**
      * {@inheritDoc}
      */
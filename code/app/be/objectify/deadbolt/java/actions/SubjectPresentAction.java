@@ -47,14 +47,6 @@ public class SubjectPresentAction extends AbstractSubjectAction<SubjectPresent>
               constraintLogic);
     }
 
-    @Override
-    Config config()
-    {
-        return new Config(configuration.forceBeforeAuthCheck(),
-                          configuration.handlerKey(),
-                          configuration.content());
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded map with optional expiry, shared by the caches that keep values across requests.  Reads and writes take no
+ * locks, so requests for different keys never wait for each other.
+ * <p>
+ * Once more than maxSize entries are held, expired entries are removed and, if that is not enough, the least recently
+ * used entries are evicted until a tenth of the space is free again.  Eviction is done by one thread at a time, and
+ * its cost is spread over the insertions that fill the freed space.  Recency is approximate: it is taken from the clock
+ * in steps of about a millisecond, and only written when it has moved on, so reads of a popular entry do not contend
+ * with each other.  Entries used within the same step, or while an eviction is under way, may be evicted in any order.
+ * <p>
+ * Every invalidation starts a new generation.  A value computed from data read before an invalidation is stored with
+ * {@link #put(Object, Object, long, long)} using the generation read at the time, and is dropped if the cache has been
+ * invalidated since, so it cannot bring back what was invalidated.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class BoundedCache<K, V>
+{
+    /**
+     * The time to live of entries that do not expire.
+     */
+    public static final long NO_EXPIRY = 0L;
+
+    // the recency of an entry is the clock shifted right by this, i.e. in steps of 2^20ns, or about a millisecond
+    private static final int RECENCY_SHIFT = 20;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<K, Node<V>> entries = new ConcurrentHashMap<>();
+
+    // incremented by every invalidation, so a value computed before it is not stored after it
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize  the number of entries above which entries are evicted
+     * @param ttlNanos the time to live of an entry, measured from when its value was requested, or {@link #NO_EXPIRY}
+     * @param clock    gives the current time in nanoseconds
+     */
+    public BoundedCache(final int maxSize,
+                        final long ttlNanos,
+                        final LongSupplier clock)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (ttlNanos < 0)
+        {
+            throw new IllegalArgumentException("ttlNanos must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the value held for a key, removing the entry if it has expired.
+     *
+     * @param key the key
+     * @return the value, or null if there is no live entry for the key
+     */
+    public V get(final K key)
+    {
+        V value = null;
+        final Node<V> node = entries.get(key);
+        if (node != null)
+        {
+            final long now = clock.getAsLong();
+            if (ttlNanos == NO_EXPIRY || now - node.expiresAt < 0)
+            {
+                final long recency = recency(now);
+                if (node.lastUsed != recency)
+                {
+                    node.lastUsed = recency;
+                }
+                value = node.value;
+            }
+            else
+            {
+                entries.remove(key,
+                               node);
+            }
+        }
+        if (value == null)
+        {
+            misses.increment();
+        }
+        else
+        {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * The current generation.  Read it before computing a value to store with
+     * {@link #put(Object, Object, long, long)}.
+     *
+     * @return the current generation
+     */
+    public long generation()
+    {
+        return generation.get();
+    }
+
+    /**
+     * The current time, as given by the clock of the cache.  Read it before computing a value to store with
+     * {@link #put(Object, Object, long, long)}, so a slow computation does not extend the lifetime of the value.
+     *
+     * @return the current time in nanoseconds
+     */
+    public long now()
+    {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Store a value, unless the cache has been invalidated since the value was requested.  The generation is checked
+     * again after the value is stored, so an invalidation that runs in between is either seen here or removes the entry
+     * itself.  In that case, the entry the value replaced is lost as well, which only costs a reload.
+     *
+     * @param key                   the key
+     * @param value                 the value
+     * @param requestedAt           when the value was requested, as given by {@link #now()}
+     * @param requestedInGeneration the generation when the value was requested, as given by {@link #generation()}
+     * @return true iff the value was stored
+     */
+    public boolean put(final K key,
+                       final V value,
+                       final long requestedAt,
+                       final long requestedInGeneration)
+    {
+        boolean stored = false;
+        if (generation.get() == requestedInGeneration)
+        {
+            final Node<V> node = new Node<>(value,
+                                            requestedAt + ttlNanos,
+                                            recency(clock.getAsLong()));
+            entries.put(key,
+                        node);
+            if (generation.get() != requestedInGeneration)
+            {
+                entries.remove(key,
+                               node);
+            }
+            else
+            {
+                stored = true;
+                evictIfFull();
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Store a value that does not depend on data that can be invalidated, unless a live value is already held for the
+     * key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the value already held for the key, or null if the given value was stored
+     */
+    public V putIfAbsent(final K key,
+                         final V value)
+    {
+        V existing = null;
+        final long now = clock.getAsLong();
+        final Node<V> node = new Node<>(value,
+                                        now + ttlNanos,
+                                        recency(now));
+        final Node<V> current = entries.putIfAbsent(key,
+                                                    node);
+        if (current == null)
+        {
+            evictIfFull();
+        }
+        else if (ttlNanos == NO_EXPIRY || now - current.expiresAt < 0)
+        {
+            existing = current.value;
+        }
+        else if (entries.replace(key,
+                                 current,
+                                 node))
+        {
+            evictIfFull();
+        }
+        else
+        {
+            existing = putIfAbsent(key,
+                                   value);
+        }
+        return existing;
+    }
+
+    /**
+     * Remove the entry for a key.
+     *
+     * @param key the key
+     */
+    public void invalidate(final K key)
+    {
+        generation.incrementAndGet();
+        entries.remove(key);
+    }
+
+    /**
+     * Remove every entry that matches a predicate.
+     *
+     * @param predicate tests the key and value of each entry
+     */
+    public void invalidateIf(final BiPredicate<? super K, ? super V> predicate)
+    {
+        generation.incrementAndGet();
+        entries.entrySet().removeIf(entry -> predicate.test(entry.getKey(),
+                                                            entry.getValue().value));
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll()
+    {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * The number of entries, including any that have expired but not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long hitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * The number of lookups that found no live entry.
+     *
+     * @return the number of misses
+     */
+    public long missCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * The number of entries evicted to keep the cache within its bound.  Expired entries are not counted.
+     *
+     * @return the number of evictions
+     */
+    public long evictionCount()
+    {
+        return evictions.sum();
+    }
+
+    private static long recency(final long now)
+    {
+        return now >> RECENCY_SHIFT;
+    }
+
+    private void evictIfFull()
+    {
+        if (entries.size() > maxSize && evicting.compareAndSet(false,
+                                                               true))
+        {
+            try
+            {
+                if (ttlNanos != NO_EXPIRY)
+                {
+                    final long now = clock.getAsLong();
+                    entries.values().removeIf(node -> now - node.expiresAt >= 0);
+                }
+                final int target = maxSize - maxSize / 10;
+                final int excess = entries.size() - target;
+                if (excess > 0)
+                {
+                    // the recency of each entry is read once, as it may change while the candidates are sorted
+                    final List<Candidate<K, V>> candidates = new ArrayList<>(entries.size());
+                    for (Map.Entry<K, Node<V>> entry : entries.entrySet())
+                    {
+                        candidates.add(new Candidate<>(entry.getKey(),
+                                                       entry.getValue()));
+                    }
+                    candidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+                    for (int i = 0; i < candidates.size() && entries.size() > target; i++)
+                    {
+                        final Candidate<K, V> candidate = candidates.get(i);
+                        if (entries.remove(candidate.key,
+                                           candidate.node))
+                        {
+                            evictions.increment();
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private static final class Node<V>
+    {
+        private final V value;
+        private final long expiresAt;
+        private volatile long lastUsed;
+
+        private Node(final V value,
+                     final long expiresAt,
+                     final long lastUsed)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class Candidate<K, V>
+    {
+        private final K key;
+        private final Node<V> node;
+        private final long lastUsed;
+
+        private Candidate(final K key,
+                          final Node<V> node)
+        {
+            this.key = key;
+            this.node = node;
+            this.lastUsed = node.lastUsed;
+        }
+    }
+}
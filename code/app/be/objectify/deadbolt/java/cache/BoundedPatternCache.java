@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern cache held in a dedicated {@link BoundedCache}, rather than in the application cache, so lookups do not pay
+ * for the cache manager and patterns do not compete with application data for space.  Lookups take no locks; two
+ * requests that miss on the same value at the same time may both compile it, and the first to finish is kept.
+ * <p>
+ * Once more than deadbolt.java.pattern-cache.max-size patterns are held, the least recently used patterns are evicted
+ * until a tenth of the space is free again.  Patterns declared by annotations and filter constraints are also held by
+ * the constraints that use them, so eviction only costs a recompilation for values given at request time, e.g. in
+ * views.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class BoundedPatternCache implements PatternCache
+{
+    private final BoundedCache<String, Pattern> patterns;
+
+    @Inject
+    public BoundedPatternCache(final Configuration configuration)
+    {
+        this(configuration.getInt(ConfigKeys.PATTERN_CACHE_MAX_SIZE_DEFAULT._1,
+                                  ConfigKeys.PATTERN_CACHE_MAX_SIZE_DEFAULT._2));
+    }
+
+    public BoundedPatternCache(final int maxSize)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.PATTERN_CACHE_MAX_SIZE + " must be greater than 0");
+        }
+        this.patterns = new BoundedCache<>(maxSize,
+                                           BoundedCache.NO_EXPIRY,
+                                           System::nanoTime);
+    }
+
+    @Override
+    public Pattern apply(final String patternValue)
+    {
+        Pattern pattern = patterns.get(patternValue);
+        if (pattern == null)
+        {
+            final Pattern compiled = Pattern.compile(patternValue);
+            pattern = patterns.putIfAbsent(patternValue,
+                                           compiled);
+            if (pattern == null)
+            {
+                pattern = compiled;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * The number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long hitCount()
+    {
+        return patterns.hitCount();
+    }
+
+    /**
+     * The number of lookups that compiled the pattern.
+     *
+     * @return the number of misses
+     */
+    public long missCount()
+    {
+        return patterns.missCount();
+    }
+
+    /**
+     * The number of patterns evicted to keep the cache within its bound.
+     *
+     * @return the number of evictions
+     */
+    public long evictionCount()
+    {
+        return patterns.evictionCount();
+    }
+
+    /**
+     * The number of patterns held.
+     *
+     * @return the number of patterns
+     */
+    public int size()
+    {
+        return patterns.size();
+    }
+}
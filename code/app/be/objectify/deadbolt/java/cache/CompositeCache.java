@@ -17,6 +17,7 @@ package be.objectify.deadbolt.java.cache;
 
 import be.objectify.deadbolt.java.composite.Constraint;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -27,4 +28,17 @@ public interface CompositeCache extends Function<String, Optional<Constraint>>
 {
     void register(String name,
                   Constraint constraint);
+
+    /**
+     * Replace the registered constraints with the given constraints.  By default, this registers each constraint in turn,
+     * so it is not atomic - a lookup made during the replacement may see a mix of old and new constraints - and
+     * constraints that are not in the map are kept.  {@link DefaultCompositeCache} overrides this to replace the whole
+     * set in a single step.
+     *
+     * @param constraints the constraints, keyed by name
+     */
+    default void replaceAll(final Map<String, Constraint> constraints)
+    {
+        constraints.forEach(this::register);
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DynamicResourceHandler;
+import be.objectify.deadbolt.java.models.Subject;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches the outcome of constraints across requests, keyed by the identifier of the subject, a fingerprint of the
+ * constraint and the name of the handler.  Only constraints whose outcome depends on nothing but the subject should be
+ * cached - restrict, pattern equality and regex, and role-based permissions.  Dynamic and custom pattern constraints
+ * are only cached when the {@link DynamicResourceHandler} marks them as cacheable.  Subjects without an identifier are
+ * never cached.
+ * <p>
+ * Entries expire deadbolt.java.decision-cache.ttl milliseconds after they were stored.  Once more than
+ * deadbolt.java.decision-cache.max-size entries are held, expired entries are removed and, if that is not enough,
+ * the least recently used entries are evicted until a tenth of the space is free again.  When the roles or permissions
+ * of a subject change, call {@link #invalidate(String)} or {@link #invalidateAll()} rather than waiting for the entries
+ * to expire.
+ * <p>
+ * Enable this cache by setting deadbolt.java.decision-cache.enabled to true.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class DecisionCache
+{
+    private final BoundedCache<Key, Boolean> entries;
+
+    @Inject
+    public DecisionCache(final Configuration configuration)
+    {
+        this(configuration.getLong(ConfigKeys.DECISION_CACHE_TTL_DEFAULT._1,
+                                   ConfigKeys.DECISION_CACHE_TTL_DEFAULT._2),
+             configuration.getInt(ConfigKeys.DECISION_CACHE_MAX_SIZE_DEFAULT._1,
+                                  ConfigKeys.DECISION_CACHE_MAX_SIZE_DEFAULT._2),
+             System::nanoTime);
+    }
+
+    DecisionCache(final long ttlMillis,
+                  final int maxSize,
+                  final LongSupplier clock)
+    {
+        if (ttlMillis <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.DECISION_CACHE_TTL + " must be greater than 0");
+        }
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.DECISION_CACHE_MAX_SIZE + " must be greater than 0");
+        }
+        this.entries = new BoundedCache<>(maxSize,
+                                          TimeUnit.MILLISECONDS.toNanos(ttlMillis),
+                                          clock);
+    }
+
+    /**
+     * Get the cached outcome of a constraint, or evaluate it and cache the outcome.
+     *
+     * @param deadboltHandler the handler the constraint is evaluated with
+     * @param subject         the subject
+     * @param fingerprint     supplies the fingerprint of the constraint.  Only called if the subject has an identifier.
+     * @param evaluation      evaluates the constraint if there is no cached outcome
+     * @return true iff the constraint is satisfied
+     */
+    public boolean test(final DeadboltHandler deadboltHandler,
+                        final Subject subject,
+                        final Supplier<String> fingerprint,
+                        final BooleanSupplier evaluation)
+    {
+        final boolean allowed;
+        final String identifier = subject.getIdentifier();
+        if (identifier == null)
+        {
+            allowed = evaluation.getAsBoolean();
+        }
+        else
+        {
+            final Key key = new Key(deadboltHandler,
+                                    identifier,
+                                    fingerprint.get());
+            final long generation = entries.generation();
+            final Boolean cached = entries.get(key);
+            if (cached != null)
+            {
+                allowed = cached;
+            }
+            else
+            {
+                final long evaluatedAt = entries.now();
+                allowed = evaluation.getAsBoolean();
+                entries.put(key,
+                            allowed,
+                            evaluatedAt,
+                            generation);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Get the cached outcome of a constraint, or evaluate it and cache the outcome once it is known.  A failed
+     * evaluation is not cached.
+     *
+     * @param deadboltHandler the handler the constraint is evaluated with
+     * @param subject         the subject
+     * @param fingerprint     supplies the fingerprint of the constraint.  Only called if the subject has an identifier.
+     * @param evaluation      evaluates the constraint if there is no cached outcome
+     * @return true iff the constraint is satisfied
+     */
+    public CompletionStage<Boolean> apply(final DeadboltHandler deadboltHandler,
+                                          final Subject subject,
+                                          final Supplier<String> fingerprint,
+                                          final Supplier<CompletionStage<Boolean>> evaluation)
+    {
+        final CompletionStage<Boolean> result;
+        final String identifier = subject.getIdentifier();
+        if (identifier == null)
+        {
+            result = evaluation.get();
+        }
+        else
+        {
+            final Key key = new Key(deadboltHandler,
+                                    identifier,
+                                    fingerprint.get());
+            final long generation = entries.generation();
+            final Boolean cached = entries.get(key);
+            if (cached != null)
+            {
+                result = CompletableFuture.completedFuture(cached);
+            }
+            else
+            {
+                final long evaluatedAt = entries.now();
+                result = evaluation.get().thenApply(allowed ->
+                                                    {
+                                                        entries.put(key,
+                                                                    allowed,
+                                                                    evaluatedAt,
+                                                                    generation);
+                                                        return allowed;
+                                                    });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove every entry for the subject with the given identifier, e.g. after the roles of that subject have changed.
+     *
+     * @param identifier the identifier of the subject, as given by {@link Subject#getIdentifier()}
+     */
+    public void invalidate(final String identifier)
+    {
+        entries.invalidateIf((key, allowed) -> key.identifier.equals(identifier));
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+    }
+
+    /**
+     * The number of entries, including any that have expired but not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The number of checks answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long hitCount()
+    {
+        return entries.hitCount();
+    }
+
+    /**
+     * The number of checks for subjects with an identifier that had to be evaluated.
+     *
+     * @return the number of misses
+     */
+    public long missCount()
+    {
+        return entries.missCount();
+    }
+
+    private static final class Key
+    {
+        private final String handlerName;
+        private final String identifier;
+        private final String fingerprint;
+
+        private Key(final DeadboltHandler handler,
+                    final String identifier,
+                    final String fingerprint)
+        {
+            this.handlerName = handler.handlerName();
+            this.identifier = identifier;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass())
+            {
+                return false;
+            }
+            final Key key = (Key) o;
+            return handlerName.equals(key.handlerName) && identifier.equals(key.identifier) && fingerprint.equals(key.fingerprint);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * handlerName.hashCode() + identifier.hashCode()) + fingerprint.hashCode();
+        }
+    }
+}
@@ -17,35 +17,80 @@ package be.objectify.deadbolt.java.cache;
 
 import be.objectify.deadbolt.java.composite.Constraint;
 import be.objectify.deadbolt.java.composite.ExceptionThrowingConstraint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Holds the named constraints in an immutable snapshot.  Lookups read the current snapshot without locking or
+ * allocating - each constraint is stored already wrapped in an Optional.  An unknown name is logged the first time it
+ * is looked up and gets a constraint, kept for later lookups, that fails with the name when it is tested.  Changes copy
+ * the snapshot and publish the copy, so constraints can be registered from several threads and replaced while requests
+ * are being checked.
+ *
  * @author Steve Chaloner (steve@objectify.be)
  */
 @Singleton
 public class DefaultCompositeCache implements CompositeCache
 {
-    private static final String NAMESPACE = "composite.constraint.";
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultCompositeCache.class);
+
+    private final Object lock = new Object();
 
-    private final Map<String, Constraint> constraints = new HashMap<>();
+    private volatile Map<String, Optional<Constraint>> constraints = Collections.emptyMap();
+
+    // the names that have been looked up but are not registered; cleared whenever the registered constraints change
+    private final ConcurrentMap<String, Optional<Constraint>> unregistered = new ConcurrentHashMap<>();
 
     @Override
     public Optional<Constraint> apply(final String name)
     {
-        final Constraint constraint = constraints.get(NAMESPACE + name);
-        return Optional.of(constraint != null ? constraint
-                                              : new ExceptionThrowingConstraint(name));
+        Optional<Constraint> constraint = constraints.get(name);
+        if (constraint == null)
+        {
+            constraint = unregistered.computeIfAbsent(name,
+                                                      missing ->
+                                                      {
+                                                          LOGGER.error("A composite constraint with name [{}] is specified but is not registered",
+                                                                       missing);
+                                                          return Optional.of(new ExceptionThrowingConstraint(missing));
+                                                      });
+        }
+        return constraint;
     }
 
     @Override
     public void register(final String name,
                          final Constraint constraint)
     {
-        constraints.put(NAMESPACE + name,
-                        constraint);
+        final Optional<Constraint> registered = Optional.of(constraint);
+        synchronized (lock)
+        {
+            final Map<String, Optional<Constraint>> copy = new HashMap<>(constraints);
+            copy.put(name,
+                     registered);
+            constraints = Collections.unmodifiableMap(copy);
+            unregistered.clear();
+        }
+    }
+
+    @Override
+    public void replaceAll(final Map<String, Constraint> constraints)
+    {
+        final Map<String, Optional<Constraint>> replacement = new HashMap<>(constraints.size() * 4 / 3 + 1);
+        constraints.forEach((name, constraint) -> replacement.put(name,
+                                                                  Optional.of(constraint)));
+        synchronized (lock)
+        {
+            this.constraints = Collections.unmodifiableMap(replacement);
+            unregistered.clear();
+        }
     }
 }
@@ -28,16 +28,25 @@ import scala.concurrent.ExecutionContextExecutor;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 /**
+ * If deadbolt.java.cache-user is true, caches the subject in the request context so the handler is asked for it at most
+ * once per request.  A request with no subject is cached as well, by recording in the context the names of the handlers
+ * that found no subject, so anonymous requests do not ask the handler again for every constraint and view tag.  The
+ * record is cleared whenever a subject is cached.
+ *
  * @author Steve Chaloner (steve@objectify.be)
  */
 @Singleton
 public class DefaultSubjectCache implements SubjectCache
 {
+    private static final String NO_SUBJECT = "deadbolt.java.cache-user.no-subject";
+
     private final boolean cacheUserPerRequestEnabled;
     private final DeadboltExecutionContextProvider executionContextProvider;
 
@@ -54,32 +63,96 @@ public class DefaultSubjectCache implements SubjectCache
     public CompletionStage<Optional<? extends Subject>> apply(final DeadboltHandler deadboltHandler,
                                                               final Http.Context context)
     {
-        final CompletionStage<Optional<? extends Subject>> promise;
+        final Optional<CompletionStage<Optional<? extends Subject>>> cached = cached(deadboltHandler,
+                                                                                      context);
+        return cached.isPresent() ? cached.get()
+                                  : remember(deadboltHandler,
+                                             context,
+                                             deadboltHandler.getSubject(context));
+    }
+
+    /**
+     * Gets the outcome of the subject lookup already made for the request, if per-request caching is enabled.
+     *
+     * @param deadboltHandler the handler
+     * @param context         the HTTP context
+     * @return the cached outcome, or empty if the handler has to be asked
+     */
+    Optional<CompletionStage<Optional<? extends Subject>>> cached(final DeadboltHandler deadboltHandler,
+                                                                  final Http.Context context)
+    {
+        Optional<CompletionStage<Optional<? extends Subject>>> cached = Optional.empty();
         if (cacheUserPerRequestEnabled)
         {
-            final Optional<? extends Subject> cachedUser = Optional.ofNullable((Subject) context.args.get(ConfigKeys.CACHE_DEADBOLT_USER_DEFAULT._1));
-            if (cachedUser.isPresent())
+            final Subject cachedUser = (Subject) context.args.get(ConfigKeys.CACHE_DEADBOLT_USER_DEFAULT._1);
+            @SuppressWarnings("unchecked")
+            final Set<String> noSubject = (Set<String>) context.args.get(NO_SUBJECT);
+            if (cachedUser != null)
             {
-                promise = CompletableFuture.completedFuture(cachedUser);
+                cached = Optional.of(CompletableFuture.completedFuture(Optional.of(cachedUser)));
             }
-            else
+            else if (noSubject != null && noSubject.contains(deadboltHandler.handlerName()))
             {
-                final ExecutionContext executionContext = executionContextProvider.get();
-                final ExecutionContextExecutor executor = HttpExecution.fromThread(executionContext);
-                promise = deadboltHandler.getSubject(context)
-                                         .thenApplyAsync(subjectOption ->
-                                                         {
-                                                             subjectOption.ifPresent(subject -> context.args.put(ConfigKeys.CACHE_DEADBOLT_USER_DEFAULT._1,
-                                                                                                                 subject));
-                                                             return subjectOption;
-                                                         }, executor);
+                cached = Optional.of(CompletableFuture.completedFuture(Optional.empty()));
             }
         }
+        return cached;
+    }
+
+    /**
+     * Store the outcome of a subject lookup in the request once it completes, if per-request caching is enabled.
+     *
+     * @param deadboltHandler the handler that made the lookup
+     * @param context         the HTTP context
+     * @param lookup          the lookup
+     * @return the outcome of the lookup
+     */
+    CompletionStage<Optional<? extends Subject>> remember(final DeadboltHandler deadboltHandler,
+                                                          final Http.Context context,
+                                                          final CompletionStage<Optional<? extends Subject>> lookup)
+    {
+        final CompletionStage<Optional<? extends Subject>> promise;
+        if (cacheUserPerRequestEnabled)
+        {
+            final ExecutionContext executionContext = executionContextProvider.get();
+            final ExecutionContextExecutor executor = HttpExecution.fromThread(executionContext);
+            promise = lookup.thenApplyAsync(subjectOption ->
+                                            {
+                                                if (subjectOption.isPresent())
+                                                {
+                                                    context.args.put(ConfigKeys.CACHE_DEADBOLT_USER_DEFAULT._1,
+                                                                     subjectOption.get());
+                                                    context.args.remove(NO_SUBJECT);
+                                                }
+                                                else
+                                                {
+                                                    markNoSubject(context,
+                                                                  deadboltHandler.handlerName());
+                                                }
+                                                return subjectOption;
+                                            }, executor);
+        }
         else
         {
-            promise = deadboltHandler.getSubject(context);
+            promise = lookup;
         }
-
         return promise;
     }
+
+    /**
+     * Record that the named handler found no subject for the request.
+     */
+    private static void markNoSubject(final Http.Context context,
+                                      final String handlerName)
+    {
+        @SuppressWarnings("unchecked")
+        Set<String> handlerNames = (Set<String>) context.args.get(NO_SUBJECT);
+        if (handlerNames == null)
+        {
+            handlerNames = new HashSet<>(2);
+            context.args.put(NO_SUBJECT,
+                             handlerNames);
+        }
+        handlerNames.add(handlerName);
+    }
 }
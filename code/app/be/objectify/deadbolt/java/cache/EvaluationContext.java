@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DynamicResourceHandler;
+import be.objectify.deadbolt.java.RolePermissionMatcher;
+import be.objectify.deadbolt.java.models.Subject;
+import play.mvc.Http;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds what the constraints of one evaluation of a composite constraint have resolved - the subject, the dynamic
+ * resource handler and the permissions of roles - so each is resolved at most once per handler for the whole
+ * evaluation, whatever the value of deadbolt.java.cache-user.  The context is attached to the HTTP context for as long
+ * as the evaluation runs, so it reaches every constraint of the composite through the HTTP context they are tested
+ * with.
+ * <p>
+ * The values are held as the stages that resolve them, so constraints tested at the same time by a parallel composite
+ * share a resolution that is still under way.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class EvaluationContext
+{
+    private static final String KEY = "deadbolt.java.evaluation-context";
+
+    private final ConcurrentMap<DeadboltHandler, CompletionStage<Optional<? extends Subject>>> subjects = new ConcurrentHashMap<>(2);
+
+    private final ConcurrentMap<DeadboltHandler, CompletionStage<Optional<DynamicResourceHandler>>> dynamicResourceHandlers = new ConcurrentHashMap<>(2);
+
+    private final ConcurrentMap<DeadboltHandler, ConcurrentMap<String, CompletionStage<RolePermissionMatcher>>> rolePermissionMatchers = new ConcurrentHashMap<>(2);
+
+    private EvaluationContext()
+    {
+        // created by within
+    }
+
+    /**
+     * Run an evaluation within an evaluation context.  If the HTTP context already has one, e.g. because this is a
+     * composite nested in another, the evaluation joins it; otherwise, a new context is attached to the HTTP context and
+     * removed once the evaluation completes.
+     *
+     * @param ctx        the HTTP context
+     * @param evaluation the evaluation
+     * @param <T>        the type of the result
+     * @return the result of the evaluation
+     */
+    public static <T> CompletionStage<T> within(final Http.Context ctx,
+                                                final Supplier<CompletionStage<T>> evaluation)
+    {
+        final CompletionStage<T> result;
+        if (ctx == null || ctx.args == null || ctx.args.containsKey(KEY))
+        {
+            result = evaluation.get();
+        }
+        else
+        {
+            final EvaluationContext context = new EvaluationContext();
+            ctx.args.put(KEY,
+                         context);
+            try
+            {
+                result = evaluation.get();
+            }
+            catch (RuntimeException e)
+            {
+                ctx.args.remove(KEY,
+                                context);
+                throw e;
+            }
+            result.whenComplete((value, throwable) -> ctx.args.remove(KEY,
+                                                                      context));
+        }
+        return result;
+    }
+
+    /**
+     * Get the evaluation context attached to the HTTP context, if an evaluation is under way.
+     *
+     * @param ctx the HTTP context
+     * @return the evaluation context
+     */
+    public static Optional<EvaluationContext> current(final Http.Context ctx)
+    {
+        return ctx == null || ctx.args == null ? Optional.empty()
+                                               : Optional.ofNullable((EvaluationContext) ctx.args.get(KEY));
+    }
+
+    /**
+     * Get the subject of the handler, resolving it the first time it is needed in this evaluation.
+     *
+     * @param deadboltHandler the handler
+     * @param resolver        resolves the subject
+     * @return the subject
+     */
+    public CompletionStage<Optional<? extends Subject>> subject(final DeadboltHandler deadboltHandler,
+                                                                final Supplier<CompletionStage<Optional<? extends Subject>>> resolver)
+    {
+        return subjects.computeIfAbsent(deadboltHandler,
+                                        handler -> resolver.get());
+    }
+
+    /**
+     * Get the dynamic resource handler of the handler, resolving it the first time it is needed in this evaluation.
+     *
+     * @param deadboltHandler the handler
+     * @param resolver        resolves the dynamic resource handler
+     * @return the dynamic resource handler
+     */
+    public CompletionStage<Optional<DynamicResourceHandler>> dynamicResourceHandler(final DeadboltHandler deadboltHandler,
+                                                                                    final Supplier<CompletionStage<Optional<DynamicResourceHandler>>> resolver)
+    {
+        return dynamicResourceHandlers.computeIfAbsent(deadboltHandler,
+                                                       handler -> resolver.get());
+    }
+
+    /**
+     * Get the permission matcher of a role, resolving it the first time it is needed in this evaluation.
+     *
+     * @param deadboltHandler the handler
+     * @param roleName        the name of the role.  A null name is resolved every time.
+     * @param resolver        resolves the matcher
+     * @return the matcher
+     */
+    public CompletionStage<RolePermissionMatcher> rolePermissionMatcher(final DeadboltHandler deadboltHandler,
+                                                                        final String roleName,
+                                                                        final Supplier<CompletionStage<RolePermissionMatcher>> resolver)
+    {
+        return roleName == null ? resolver.get()
+                                : rolePermissionMatchers.computeIfAbsent(deadboltHandler,
+                                                                         handler -> new ConcurrentHashMap<>(4))
+                                                        .computeIfAbsent(roleName,
+                                                                         role -> resolver.get());
+    }
+}
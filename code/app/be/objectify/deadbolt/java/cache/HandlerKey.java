@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+
+import java.util.Objects;
+
+/**
+ * Identifies something a handler resolves across requests, such as a subject by the key given by
+ * {@link DeadboltHandler#getSubjectCacheKey(play.mvc.Http.Context)} or the permissions of a role by the role name.
+ * Keys are scoped by handler, as different handlers may resolve different values for the same name.  A handler with
+ * no name is treated as one more handler.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class HandlerKey
+{
+    private final String handlerName;
+    private final String name;
+
+    public HandlerKey(final DeadboltHandler handler,
+                      final String name)
+    {
+        this.handlerName = handler.handlerName();
+        this.name = name;
+    }
+
+    public String name()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+        final HandlerKey key = (HandlerKey) o;
+        return Objects.equals(handlerName,
+                              key.handlerName) && name.equals(key.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * Objects.hashCode(handlerName) + name.hashCode();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.filters.AuthorizedRoutes;
+import be.objectify.deadbolt.java.models.PatternType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.Environment;
+import play.api.routing.Router;
+import play.inject.Injector;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the regular expressions of the application's constraints at startup, so the first request to use each one
+ * does not pay for the compilation.  The expressions are found in
+ * <ul>
+ * <li>{@link be.objectify.deadbolt.java.actions.Pattern} annotations on the controllers and actions of the router</li>
+ * <li>pattern comments in the routes file, as used by {@link be.objectify.deadbolt.java.filters.DeadboltRouteCommentFilter}</li>
+ * <li>the routes of the application's {@link AuthorizedRoutes}, if one is bound</li>
+ * </ul>
+ * Composite constraints compile their patterns when they are built, so constraints registered with the
+ * {@link CompositeCache} at startup need no extra work.  A source that cannot be read is logged and skipped.
+ * <p>
+ * Disable the warm-up by setting deadbolt.java.pattern-cache.warm-up to false.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class PatternCacheWarmer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatternCacheWarmer.class);
+
+    // the start of a regex pattern comment, as understood by DeadboltRouteCommentFilter
+    private static final Pattern REGEX_COMMENT = Pattern.compile("deadbolt\\:pattern\\:value\\[(?<value>.+?)\\]\\:type\\[REGEX\\]");
+
+    // controllers.Foo.bar(...) for static routes, controllers.Foo@bar(...) for injected routes
+    private static final Pattern INVOCATION = Pattern.compile("(?<controller>[\\w.$]+)[.@](?<method>[\\w$]+)\\(");
+
+    private final ConstraintLogic constraintLogic;
+
+    private final PatternCache patternCache;
+
+    @Inject
+    public PatternCacheWarmer(final Environment environment,
+                              final Provider<Router> router,
+                              final Injector injector,
+                              final ConstraintLogic constraintLogic,
+                              final PatternCache patternCache)
+    {
+        this(constraintLogic,
+             patternCache);
+        int warmed = 0;
+        try
+        {
+            warmed += warmAnnotations(environment.classLoader(),
+                                      router.get().asJava().documentation());
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.warn("Could not read the pattern annotations of the routes",
+                        e);
+        }
+        try (InputStream routes = environment.resourceAsStream("routes"))
+        {
+            warmed += warmRouteComments(routes);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOGGER.warn("Could not read the pattern comments of the routes file",
+                        e);
+        }
+        int authorizedRoutes = 0;
+        try
+        {
+            authorizedRoutes = warmAuthorizedRoutes(injector.instanceOf(AuthorizedRoutes.class));
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.debug("No authorized routes to warm up",
+                         e);
+        }
+        LOGGER.info("Pre-compiled [{}] patterns from annotations and route comments, and built [{}] authorized routes",
+                    warmed,
+                    authorizedRoutes);
+    }
+
+    PatternCacheWarmer(final ConstraintLogic constraintLogic,
+                       final PatternCache patternCache)
+    {
+        this.constraintLogic = constraintLogic;
+        this.patternCache = patternCache;
+    }
+
+    /**
+     * Compile the regex patterns declared on the controllers and actions of the routes.  The patterns are compiled
+     * against the annotations, as they are when the actions run.
+     *
+     * @param classLoader the class loader of the application
+     * @param routes      the documentation of the routes
+     * @return the number of patterns compiled
+     */
+    int warmAnnotations(final ClassLoader classLoader,
+                        final List<play.routing.Router.RouteDocumentation> routes)
+    {
+        int warmed = 0;
+        for (play.routing.Router.RouteDocumentation route : routes)
+        {
+            final Matcher matcher = INVOCATION.matcher(route.getControllerMethodInvocation());
+            if (matcher.find())
+            {
+                try
+                {
+                    final Class<?> controller = Class.forName(matcher.group("controller"),
+                                                              false,
+                                                              classLoader);
+                    warmed += warm(controller.getAnnotation(be.objectify.deadbolt.java.actions.Pattern.class));
+                    for (Method method : controller.getMethods())
+                    {
+                        if (method.getName().equals(matcher.group("method")))
+                        {
+                            warmed += warm(method.getAnnotation(be.objectify.deadbolt.java.actions.Pattern.class));
+                        }
+                    }
+                }
+                catch (ClassNotFoundException | LinkageError e)
+                {
+                    LOGGER.debug("Could not load the controller of [{}]",
+                                 route.getControllerMethodInvocation(),
+                                 e);
+                }
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Compile the regex patterns given in the comments of a routes file.
+     *
+     * @param routes the routes file.  May be null.
+     * @return the number of patterns compiled
+     * @throws IOException if the routes file cannot be read
+     */
+    int warmRouteComments(final InputStream routes) throws IOException
+    {
+        int warmed = 0;
+        if (routes != null)
+        {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(routes,
+                                                                                   StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final String trimmed = line.trim();
+                if (trimmed.startsWith("#"))
+                {
+                    final Matcher matcher = REGEX_COMMENT.matcher(trimmed);
+                    while (matcher.find())
+                    {
+                        patternCache.apply(matcher.group("value"));
+                        warmed++;
+                    }
+                }
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Build the authorized routes.  Pattern constraints compile their patterns when they are created, so building the
+     * routes is enough to compile them.
+     *
+     * @param authorizedRoutes the authorized routes
+     * @return the number of routes
+     */
+    int warmAuthorizedRoutes(final AuthorizedRoutes authorizedRoutes)
+    {
+        return authorizedRoutes.routes().size();
+    }
+
+    private int warm(final be.objectify.deadbolt.java.actions.Pattern pattern)
+    {
+        int warmed = 0;
+        if (pattern != null && pattern.patternType() == PatternType.REGEX)
+        {
+            constraintLogic.compilePattern(pattern,
+                                           pattern::value,
+                                           PatternType.REGEX);
+            warmed = 1;
+        }
+        return warmed;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.RolePermissionMatcher;
+import be.objectify.deadbolt.java.models.Permission;
+import play.Configuration;
+import scala.concurrent.ExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the permissions of roles across requests, as given by {@link DeadboltHandler#getPermissionsForRole(String)}.
+ * Entries are keyed by handler name and role name, so any handler can be used without changes.  Each entry also holds
+ * the compiled {@link RolePermissionMatcher} for the permissions, so the patterns are not recompiled on each check.
+ * <p>
+ * Entries expire deadbolt.java.role-permission-cache.ttl milliseconds after they were loaded.  Once an entry is older
+ * than deadbolt.java.role-permission-cache.refresh-after milliseconds, the next request for it starts a reload in the
+ * background and is answered with the current entry, so a role that is in regular use is not blocked on the handler.
+ * A failed reload leaves the current entry in place until it expires.  Once more than
+ * deadbolt.java.role-permission-cache.max-size entries are held, the least recently used entries are evicted, as
+ * described by {@link BoundedCache}.  When the permissions of a role change, call
+ * {@link #invalidate(String)} or {@link #invalidateAll()} rather than waiting for the entries to be reloaded.
+ * <p>
+ * Enable this cache by setting deadbolt.java.role-permission-cache.enabled to true.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class RolePermissionCache
+{
+    private final PatternCache patternCache;
+    private final Executor executor;
+    private final long refreshAfterNanos;
+
+    private final BoundedCache<HandlerKey, Entry> entries;
+
+    @Inject
+    public RolePermissionCache(final Configuration configuration,
+                               final PatternCache patternCache,
+                               final ExecutionContextProvider ecProvider)
+    {
+        this(patternCache,
+             executor(ecProvider.get().get()),
+             configuration.getLong(ConfigKeys.ROLE_PERMISSION_CACHE_TTL_DEFAULT._1,
+                                   ConfigKeys.ROLE_PERMISSION_CACHE_TTL_DEFAULT._2),
+             configuration.getLong(ConfigKeys.ROLE_PERMISSION_CACHE_REFRESH_AFTER_DEFAULT._1,
+                                   ConfigKeys.ROLE_PERMISSION_CACHE_REFRESH_AFTER_DEFAULT._2),
+             configuration.getInt(ConfigKeys.ROLE_PERMISSION_CACHE_MAX_SIZE_DEFAULT._1,
+                                  ConfigKeys.ROLE_PERMISSION_CACHE_MAX_SIZE_DEFAULT._2),
+             System::nanoTime);
+    }
+
+    RolePermissionCache(final PatternCache patternCache,
+                        final Executor executor,
+                        final long ttlMillis,
+                        final long refreshAfterMillis,
+                        final int maxSize,
+                        final LongSupplier clock)
+    {
+        if (ttlMillis <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.ROLE_PERMISSION_CACHE_TTL + " must be greater than 0");
+        }
+        if (refreshAfterMillis <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.ROLE_PERMISSION_CACHE_REFRESH_AFTER + " must be greater than 0");
+        }
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.ROLE_PERMISSION_CACHE_MAX_SIZE + " must be greater than 0");
+        }
+        this.patternCache = patternCache;
+        this.executor = executor;
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(refreshAfterMillis);
+        this.entries = new BoundedCache<>(maxSize,
+                                          TimeUnit.MILLISECONDS.toNanos(ttlMillis),
+                                          clock);
+    }
+
+    /**
+     * Get the permissions of a role.
+     *
+     * @param deadboltHandler the handler that gives the permissions of the role
+     * @param roleName        the role name
+     * @return the permissions of the role
+     */
+    public CompletionStage<List<? extends Permission>> getPermissionsForRole(final DeadboltHandler deadboltHandler,
+                                                                             final String roleName)
+    {
+        return entry(deadboltHandler,
+                     roleName).thenApply(entry -> entry.permissions);
+    }
+
+    /**
+     * Get the compiled matcher for the permissions of a role.
+     *
+     * @param deadboltHandler the handler that gives the permissions of the role
+     * @param roleName        the role name
+     * @return the matcher for the permissions of the role
+     */
+    public CompletionStage<RolePermissionMatcher> getMatcher(final DeadboltHandler deadboltHandler,
+                                                             final String roleName)
+    {
+        return entry(deadboltHandler,
+                     roleName).thenApply(entry -> entry.matcher);
+    }
+
+    /**
+     * Remove the entries for a role, for all handlers.
+     *
+     * @param roleName the role name
+     */
+    public void invalidate(final String roleName)
+    {
+        entries.invalidateIf((key, entry) -> Objects.equals(roleName,
+                                                            key.name()));
+    }
+
+    /**
+     * Remove the entry for a role given by a handler.
+     *
+     * @param deadboltHandler the handler
+     * @param roleName        the role name
+     */
+    public void invalidate(final DeadboltHandler deadboltHandler,
+                           final String roleName)
+    {
+        entries.invalidate(new HandlerKey(deadboltHandler,
+                                          roleName));
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+    }
+
+    /**
+     * The number of entries, including any that have expired but not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    private CompletionStage<Entry> entry(final DeadboltHandler deadboltHandler,
+                                         final String roleName)
+    {
+        final CompletionStage<Entry> result;
+        if (roleName == null)
+        {
+            result = load(deadboltHandler,
+                          null,
+                          null,
+                          0L);
+        }
+        else
+        {
+            final HandlerKey key = new HandlerKey(deadboltHandler,
+                                                  roleName);
+            final long generation = entries.generation();
+            final Entry entry = entries.get(key);
+            if (entry == null)
+            {
+                result = load(deadboltHandler,
+                              roleName,
+                              key,
+                              generation);
+            }
+            else
+            {
+                if (entries.now() - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false,
+                                                                                           true))
+                {
+                    refresh(deadboltHandler,
+                            key,
+                            entry,
+                            generation);
+                }
+                result = CompletableFuture.completedFuture(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reload an entry in the background.  The entry is left in place, and served, until the reload completes.
+     */
+    private void refresh(final DeadboltHandler deadboltHandler,
+                         final HandlerKey key,
+                         final Entry entry,
+                         final long generation)
+    {
+        try
+        {
+            executor.execute(() -> load(deadboltHandler,
+                                        key.name(),
+                                        key,
+                                        generation).whenComplete((loaded, throwable) -> entry.refreshing.set(false)));
+        }
+        catch (RuntimeException e)
+        {
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Load the permissions of a role from the handler and compile them.  The result is stored if a key is given, unless
+     * the cache has been invalidated since the load was requested.
+     */
+    private CompletionStage<Entry> load(final DeadboltHandler deadboltHandler,
+                                        final String roleName,
+                                        final HandlerKey key,
+                                        final long requestedInGeneration)
+    {
+        final long loadedAt = entries.now();
+        CompletionStage<List<? extends Permission>> permissions;
+        try
+        {
+            permissions = deadboltHandler.getPermissionsForRole(roleName);
+        }
+        catch (RuntimeException e)
+        {
+            final CompletableFuture<List<? extends Permission>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            permissions = failed;
+        }
+        return permissions.thenApply(loaded ->
+                                     {
+                                         final Entry entry = new Entry(loaded,
+                                                                       RolePermissionMatcher.compile(RolePermissionMatcher.values(loaded),
+                                                                                                     patternCache),
+                                                                       loadedAt + refreshAfterNanos);
+                                         if (key != null)
+                                         {
+                                             entries.put(key,
+                                                         entry,
+                                                         loadedAt,
+                                                         requestedInGeneration);
+                                         }
+                                         return entry;
+                                     });
+    }
+
+    private static Executor executor(final ExecutionContext executionContext)
+    {
+        return executionContext::execute;
+    }
+
+    private static final class Entry
+    {
+        private final List<? extends Permission> permissions;
+        private final RolePermissionMatcher matcher;
+        private final long refreshAt;
+
+        // set while a reload of the entry is under way
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final List<? extends Permission> permissions,
+                      final RolePermissionMatcher matcher,
+                      final long refreshAt)
+        {
+            this.permissions = permissions;
+            this.matcher = matcher;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.models.Subject;
+import play.Configuration;
+import play.mvc.Http;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A subject cache that keeps subjects across requests, keyed by {@link DeadboltHandler#getSubjectCacheKey(Http.Context)}.
+ * Requests for which the handler gives no key, and requests whose key has no live entry, are passed to a
+ * {@link DefaultSubjectCache}, so per-request caching still applies.
+ * <p>
+ * Only present subjects are kept, so a request that finds no subject is always retried on the next request - a user
+ * who logs in is seen straight away.  Entries expire after deadbolt.java.subject-cache.ttl milliseconds, and once more
+ * than deadbolt.java.subject-cache.max-size entries are held the least recently used entries are evicted, as described
+ * by {@link BoundedCache}.  When a subject's roles or permissions change, call {@link #invalidate(String)} or
+ * {@link #invalidateAll()} rather than waiting for the entries to expire.
+ * <p>
+ * Enable this cache by setting deadbolt.java.subject-cache.shared to true.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class SharedSubjectCache implements SubjectCache
+{
+    private final SubjectCache requestCache;
+
+    private final BoundedCache<HandlerKey, Subject> entries;
+
+    @Inject
+    public SharedSubjectCache(final Configuration configuration,
+                              final ExecutionContextProvider ecProvider)
+    {
+        this(new DefaultSubjectCache(configuration,
+                                     ecProvider),
+             configuration.getLong(ConfigKeys.SUBJECT_CACHE_TTL_DEFAULT._1,
+                                   ConfigKeys.SUBJECT_CACHE_TTL_DEFAULT._2),
+             configuration.getInt(ConfigKeys.SUBJECT_CACHE_MAX_SIZE_DEFAULT._1,
+                                  ConfigKeys.SUBJECT_CACHE_MAX_SIZE_DEFAULT._2),
+             System::nanoTime);
+    }
+
+    SharedSubjectCache(final SubjectCache requestCache,
+                       final long ttlMillis,
+                       final int maxSize,
+                       final LongSupplier clock)
+    {
+        if (ttlMillis <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.SUBJECT_CACHE_TTL + " must be greater than 0");
+        }
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException(ConfigKeys.SUBJECT_CACHE_MAX_SIZE + " must be greater than 0");
+        }
+        this.requestCache = requestCache;
+        this.entries = new BoundedCache<>(maxSize,
+                                          TimeUnit.MILLISECONDS.toNanos(ttlMillis),
+                                          clock);
+    }
+
+    @Override
+    public CompletionStage<Optional<? extends Subject>> apply(final DeadboltHandler deadboltHandler,
+                                                              final Http.Context context)
+    {
+        final Optional<String> cacheKey = deadboltHandler.getSubjectCacheKey(context);
+        final CompletionStage<Optional<? extends Subject>> result;
+        if (cacheKey.isPresent())
+        {
+            final HandlerKey key = new HandlerKey(deadboltHandler,
+                                                  cacheKey.get());
+            final long generation = entries.generation();
+            final Subject subject = entries.get(key);
+            if (subject != null)
+            {
+                result = CompletableFuture.completedFuture(Optional.of(subject));
+            }
+            else
+            {
+                final long requestedAt = entries.now();
+                result = requestCache.apply(deadboltHandler,
+                                            context)
+                                     .thenApply(maybeSubject ->
+                                                {
+                                                    maybeSubject.ifPresent(loaded -> entries.put(key,
+                                                                                                 loaded,
+                                                                                                 requestedAt,
+                                                                                                 generation));
+                                                    return maybeSubject;
+                                                });
+            }
+        }
+        else
+        {
+            result = requestCache.apply(deadboltHandler,
+                                        context);
+        }
+        return result;
+    }
+
+    /**
+     * Remove every entry holding a subject with the given identifier, e.g. after the roles of that subject have changed.
+     *
+     * @param identifier the identifier of the subject, as given by {@link Subject#getIdentifier()}
+     */
+    public void invalidate(final String identifier)
+    {
+        entries.invalidateIf((key, subject) -> Objects.equals(identifier,
+                                                              subject.getIdentifier()));
+    }
+
+    /**
+     * Remove the entry for a cache key, e.g. when a session ends.
+     *
+     * @param handler  the handler that gave the key
+     * @param cacheKey the key given by {@link DeadboltHandler#getSubjectCacheKey(Http.Context)}
+     */
+    public void invalidateKey(final DeadboltHandler handler,
+                              final String cacheKey)
+    {
+        entries.invalidate(new HandlerKey(handler,
+                                          cacheKey));
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+    }
+
+    /**
+     * The number of entries, including any that have expired but not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.models.Subject;
+import play.Configuration;
+import play.mvc.Http;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent subject lookups for the same principal, so that a burst of parallel requests from one user -
+ * e.g. the XHRs fired by a page straight after login - results in a single call to the handler.  The principal is
+ * identified by {@link DeadboltHandler#getSubjectCacheKey(Http.Context)}; requests without a key are not coalesced.
+ * <p>
+ * A request whose subject is already cached in its own context (deadbolt.java.cache-user) is answered from there and
+ * never waits on another request's lookup.  A request that joins another's lookup has the subject cached in its own
+ * context as well, so its later constraints and view tags do not look it up again.
+ * <p>
+ * Only lookups that are in flight at the same time are shared.  Once a lookup completes, the next request for that
+ * principal starts a new one, so combine this with {@link SharedSubjectCache} (deadbolt.java.subject-cache.shared) to
+ * also reuse completed lookups.
+ * <p>
+ * Enable this cache by setting deadbolt.java.subject-cache.single-flight to true.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@Singleton
+public class SingleFlightSubjectCache implements SubjectCache
+{
+    private final SubjectCache delegate;
+
+    private final DefaultSubjectCache requestCache;
+
+    private final ConcurrentMap<HandlerKey, CompletableFuture<Optional<? extends Subject>>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    @Inject
+    public SingleFlightSubjectCache(final Configuration configuration,
+                                    final Provider<SharedSubjectCache> sharedSubjectCache,
+                                    final Provider<DefaultSubjectCache> defaultSubjectCache)
+    {
+        this(configuration.getBoolean(ConfigKeys.SUBJECT_CACHE_SHARED_DEFAULT._1,
+                                      ConfigKeys.SUBJECT_CACHE_SHARED_DEFAULT._2) ? sharedSubjectCache.get()
+                                                                                  : defaultSubjectCache.get(),
+             defaultSubjectCache.get());
+    }
+
+    /**
+     * @param delegate     makes the lookups that are shared
+     * @param requestCache the per-request cache that is checked before a lookup is shared, and that each request joining
+     *                     a lookup stores the subject in
+     */
+    public SingleFlightSubjectCache(final SubjectCache delegate,
+                                    final DefaultSubjectCache requestCache)
+    {
+        this.delegate = delegate;
+        this.requestCache = requestCache;
+    }
+
+    @Override
+    public CompletionStage<Optional<? extends Subject>> apply(final DeadboltHandler deadboltHandler,
+                                                              final Http.Context context)
+    {
+        final Optional<CompletionStage<Optional<? extends Subject>>> cached = requestCache.cached(deadboltHandler,
+                                                                                                  context);
+        final Optional<String> cacheKey = cached.isPresent() ? Optional.empty()
+                                                             : deadboltHandler.getSubjectCacheKey(context);
+        final CompletionStage<Optional<? extends Subject>> result;
+        if (cached.isPresent())
+        {
+            result = cached.get();
+        }
+        else if (cacheKey.isPresent())
+        {
+            lookups.increment();
+            final HandlerKey key = new HandlerKey(deadboltHandler,
+                                                  cacheKey.get());
+            final CompletableFuture<Optional<? extends Subject>> lookup = new CompletableFuture<>();
+            final CompletableFuture<Optional<? extends Subject>> existing = inFlight.putIfAbsent(key,
+                                                                                                 lookup);
+            if (existing == null)
+            {
+                CompletionStage<Optional<? extends Subject>> subject;
+                try
+                {
+                    subject = delegate.apply(deadboltHandler,
+                                             context);
+                }
+                catch (RuntimeException e)
+                {
+                    final CompletableFuture<Optional<? extends Subject>> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    subject = failed;
+                }
+                // the lookup is removed before it completes, so anything chained to it starts a new lookup
+                subject.whenComplete((maybeSubject, throwable) ->
+                                     {
+                                         inFlight.remove(key,
+                                                         lookup);
+                                         if (throwable == null)
+                                         {
+                                             lookup.complete(maybeSubject);
+                                         }
+                                         else
+                                         {
+                                             lookup.completeExceptionally(throwable);
+                                         }
+                                     });
+                result = lookup;
+            }
+            else
+            {
+                coalesced.increment();
+                result = requestCache.remember(deadboltHandler,
+                                               context,
+                                               existing);
+            }
+        }
+        else
+        {
+            result = delegate.apply(deadboltHandler,
+                                    context);
+        }
+        return result;
+    }
+
+    /**
+     * The number of lookups made for requests with a principal key, whether or not they were coalesced.
+     *
+     * @return the number of keyed lookups
+     */
+    public long lookupCount()
+    {
+        return lookups.sum();
+    }
+
+    /**
+     * The number of lookups that shared a lookup already in flight instead of calling the handler.
+     *
+     * @return the number of coalesced lookups
+     */
+    public long coalescedCount()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     * The number of lookups currently in flight.
+     *
+     * @return the number of lookups in flight
+     */
+    public int inFlightCount()
+    {
+        return inFlight.size();
+    }
+}
@@ -16,34 +16,198 @@
 package be.objectify.deadbolt.java.composite;
 
 import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.cache.EvaluationContext;
 import play.mvc.Http;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A list of constraints combined by {@link Operator}.  Those constraints may themselves be trees.
+ * <p>
+ * When the tree is built, it is compiled into a flat plan of its leaves, including the leaves of any nested trees, in
+ * the order they are evaluated.  Each step of the plan holds the step to go to when its constraint passes and the step
+ * to go to when it fails, so short-circuiting is a jump and testing the tree does not build any intermediate
+ * constraints.  Steps whose result is already available are taken on the calling thread; a step that has to wait for
+ * its result resumes the plan on the executor.
+ * <p>
+ * The constraints of the tree are tested within one {@link EvaluationContext}, so the subject, dynamic resource handler
+ * and role permissions they need are resolved once for the whole tree rather than once per constraint.
+ * <p>
+ * A tree created with {@link #parallel(Operator, int, Constraint...)} instead tests its children concurrently, which
+ * suits children that wait on remote services.  A tree created with {@link #adaptive(Operator, int, Constraint...)}
+ * reorders its children based on how they have behaved so far.  Neither is flattened into an enclosing tree.
  *
  * @author Steve Chaloner (steve@objectify.be)
  */
 public class ConstraintTree implements Constraint
 {
+    private static final int PASS = -1;
+
+    private static final int FAIL = -2;
+
+    private static final CompletionStage<Boolean> PASSED = CompletableFuture.completedFuture(true);
+
+    private static final CompletionStage<Boolean> FAILED = CompletableFuture.completedFuture(false);
+
     private final Operator operator;
 
-    private final List<Constraint> constraints = new LinkedList<>();
+    // 0 if the children are tested one after another
+    private final int maxConcurrency;
+
+    private final Constraint[] constraints;
+
+    // only used by adaptive trees, indexed by the position of the child in the constraints array
+    private final Accumulator[] accumulators;
+
+    private final int reorderInterval;
+
+    private final AtomicLong tests = new AtomicLong();
+
+    private final AtomicBoolean reordering = new AtomicBoolean();
+
+    private final AtomicLong reorders = new AtomicLong();
+
+    // replaced by adaptive trees when they reorder their children; an evaluation uses the plan it started with
+    private volatile Plan plan;
 
     public ConstraintTree(final Operator operator,
                           final Constraint... constraints)
+    {
+        this(operator,
+             0,
+             0,
+             constraints);
+    }
+
+    private ConstraintTree(final Operator operator,
+                           final int maxConcurrency,
+                           final int reorderInterval,
+                           final Constraint... constraints)
     {
         this.operator = operator;
-        Arrays.stream(constraints)
-              .filter(c -> c != null)
-              .collect(Collectors.toCollection(() -> this.constraints));
+        this.maxConcurrency = maxConcurrency;
+        this.reorderInterval = reorderInterval;
+        this.constraints = Arrays.stream(constraints)
+                                 .filter(Objects::nonNull)
+                                 .toArray(Constraint[]::new);
+
+        if (reorderInterval > 0)
+        {
+            this.accumulators = new Accumulator[this.constraints.length];
+            final int[] order = new int[this.constraints.length];
+            for (int i = 0; i < order.length; i++)
+            {
+                accumulators[i] = new Accumulator();
+                order[i] = i;
+            }
+            this.plan = childPlan(order);
+        }
+        else
+        {
+            this.accumulators = null;
+            if (maxConcurrency == 0)
+            {
+                final List<Constraint> leaves = new ArrayList<>();
+                collectLeaves(this,
+                              leaves);
+                final int[] onPass = new int[leaves.size()];
+                final int[] onFail = new int[leaves.size()];
+                final int entry = compile(onPass,
+                                          onFail,
+                                          this,
+                                          0,
+                                          PASS,
+                                          FAIL);
+                this.plan = new Plan(leaves.toArray(new Constraint[leaves.size()]),
+                                     onPass,
+                                     onFail,
+                                     null,
+                                     entry);
+            }
+            else
+            {
+                this.plan = new Plan(new Constraint[0],
+                                     new int[0],
+                                     new int[0],
+                                     null,
+                                     this.constraints.length == 0 ? FAIL
+                                                                  : 0);
+            }
+        }
+    }
+
+    /**
+     * Create a tree whose children are tested concurrently.  An OR passes as soon as any child passes, and an AND fails
+     * as soon as any child fails; children that have not been started are then skipped, and the results of those still
+     * running are ignored.  They are not cancelled, as a child may return a future that is shared with other checks.  If a
+     * child fails with an exception before the outcome is known, the tree fails with that exception.  At most
+     * maxConcurrency children are tested at the same time, so one tree cannot flood the executor - the others are
+     * started, in order, as earlier ones complete.
+     * <p>
+     * As the children run on different threads, each is tested with its own copy of the HTTP context, whose args start as
+     * a copy of the args when the test began.  Whatever a child puts in its args is seen neither by the other children
+     * nor by the caller; state that must be shared, such as the subject, is shared through the {@link EvaluationContext}.
+     *
+     * @param operator       the operator
+     * @param maxConcurrency the maximum number of children to test at the same time
+     * @param constraints    the children
+     * @return the tree
+     */
+    public static ConstraintTree parallel(final Operator operator,
+                                          final int maxConcurrency,
+                                          final Constraint... constraints)
+    {
+        if (maxConcurrency <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrency must be greater than 0");
+        }
+        return new ConstraintTree(operator,
+                                  maxConcurrency,
+                                  0,
+                                  constraints);
+    }
+
+    /**
+     * Create a tree that records how long each child takes and how often it passes, and every reorderInterval tests
+     * reorders its children so the child most likely to decide the outcome for the least time is tested first - the child
+     * that fails most cheaply for an AND, and the child that passes most cheaply for an OR.  Children that have not yet
+     * been tested are tried first, so every child is measured.  Only use this when the children can be tested in any
+     * order, i.e. they have no side effects and none relies on another having been tested first.
+     * <p>
+     * The new order is published as a whole, so a test that is under way when the children are reordered finishes with
+     * the order it started with.  The statistics and the current order are available from {@link #statistics()}.
+     *
+     * @param operator        the operator
+     * @param reorderInterval the number of tests between reorderings
+     * @param constraints     the children
+     * @return the tree
+     */
+    public static ConstraintTree adaptive(final Operator operator,
+                                          final int reorderInterval,
+                                          final Constraint... constraints)
+    {
+        if (reorderInterval <= 0)
+        {
+            throw new IllegalArgumentException("reorderInterval must be greater than 0");
+        }
+        return new ConstraintTree(operator,
+                                  0,
+                                  reorderInterval,
+                                  constraints);
     }
 
     @Override
@@ -51,23 +215,689 @@ public class ConstraintTree implements Constraint
                                          final DeadboltHandler handler,
                                          final Executor executor)
     {
+        return EvaluationContext.within(context,
+                                        () -> evaluate(context,
+                                                       handler,
+                                                       executor));
+    }
+
+    private CompletionStage<Boolean> evaluate(final Http.Context context,
+                                              final DeadboltHandler handler,
+                                              final Executor executor)
+    {
+        if (accumulators != null && tests.incrementAndGet() % reorderInterval == 0)
+        {
+            reorder();
+        }
+        final Plan current = plan;
         final CompletionStage<Boolean> result;
-        if (constraints.isEmpty())
+        if (current.entry < 0)
         {
-            result = CompletableFuture.completedFuture(false);
+            result = terminal(current.entry);
+        }
+        else if (maxConcurrency > 0)
+        {
+            result = new ParallelEvaluation(context,
+                                            handler,
+                                            executor).start();
         }
         else
         {
-            Constraint current = constraints.get(0);
-            for (int i = 1; i < constraints.size(); i++)
+            result = run(current,
+                         current.entry,
+                         invoke(current,
+                                current.entry,
+                                context,
+                                handler,
+                                executor),
+                         context,
+                         handler,
+                         executor);
+        }
+        return result;
+    }
+
+    /**
+     * The statistics of the children of an adaptive tree, in the order the children are currently tested.
+     *
+     * @return the statistics, or an empty list if this is not an adaptive tree
+     */
+    public List<ChildStatistics> statistics()
+    {
+        final List<ChildStatistics> statistics;
+        if (accumulators == null)
+        {
+            statistics = Collections.emptyList();
+        }
+        else
+        {
+            final Plan current = plan;
+            final List<ChildStatistics> snapshot = new ArrayList<>(current.origins.length);
+            for (int origin : current.origins)
+            {
+                final Accumulator accumulator = accumulators[origin];
+                snapshot.add(new ChildStatistics(constraints[origin],
+                                                 origin,
+                                                 accumulator.tested.sum(),
+                                                 accumulator.passed.sum(),
+                                                 (long) accumulator.meanNanos(),
+                                                 accumulator.passRate()));
+            }
+            statistics = Collections.unmodifiableList(snapshot);
+        }
+        return statistics;
+    }
+
+    /**
+     * The number of times the children of an adaptive tree have been reordered.
+     *
+     * @return the number of reorderings
+     */
+    public long reorderCount()
+    {
+        return reorders.get();
+    }
+
+    /**
+     * Walk the plan from a step whose constraint has been tested.  The walk continues on this thread for as long as
+     * results are already available, and otherwise resumes once the pending result arrives.
+     */
+    private CompletionStage<Boolean> run(final Plan plan,
+                                         final int step,
+                                         final CompletionStage<Boolean> stage,
+                                         final Http.Context context,
+                                         final DeadboltHandler handler,
+                                         final Executor executor)
+    {
+        CompletionStage<Boolean> result = null;
+        int current = step;
+        CompletionStage<Boolean> pending = stage;
+        while (result == null)
+        {
+            if (isCompletedNormally(pending))
+            {
+                final int next = ((CompletableFuture<Boolean>) pending).join() ? plan.onPass[current]
+                                                                               : plan.onFail[current];
+                if (next < 0)
+                {
+                    result = terminal(next);
+                }
+                else
+                {
+                    current = next;
+                    pending = testStep(plan,
+                                       next,
+                                       context,
+                                       handler,
+                                       executor);
+                }
+            }
+            else
             {
-                current = operator.apply(current,
-                                         constraints.get(i));
+                final int waitingOn = current;
+                result = pending.thenComposeAsync(passed ->
+                                                  {
+                                                      final int next = passed ? plan.onPass[waitingOn]
+                                                                              : plan.onFail[waitingOn];
+                                                      return next < 0 ? terminal(next)
+                                                                      : run(plan,
+                                                                            next,
+                                                                            testStep(plan,
+                                                                                     next,
+                                                                                     context,
+                                                                                     handler,
+                                                                                     executor),
+                                                                            context,
+                                                                            handler,
+                                                                            executor);
+                                                  },
+                                                  executor);
             }
-            result = current.test(context,
-                                  handler,
-                                  executor);
         }
         return result;
     }
+
+    /**
+     * Test the constraint of a step after the first, reporting a constraint that throws through the returned stage as a
+     * nested and/or chain would.
+     */
+    private CompletionStage<Boolean> testStep(final Plan plan,
+                                              final int step,
+                                              final Http.Context context,
+                                              final DeadboltHandler handler,
+                                              final Executor executor)
+    {
+        CompletionStage<Boolean> stage;
+        try
+        {
+            stage = invoke(plan,
+                           step,
+                           context,
+                           handler,
+                           executor);
+        }
+        catch (RuntimeException e)
+        {
+            final CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            stage = failed;
+        }
+        return stage;
+    }
+
+    /**
+     * Test the constraint of a step, recording its outcome and duration if this is an adaptive tree.
+     */
+    private CompletionStage<Boolean> invoke(final Plan plan,
+                                            final int step,
+                                            final Http.Context context,
+                                            final DeadboltHandler handler,
+                                            final Executor executor)
+    {
+        final CompletionStage<Boolean> stage;
+        if (accumulators == null)
+        {
+            stage = plan.steps[step].test(context,
+                                          handler,
+                                          executor);
+        }
+        else
+        {
+            final Accumulator accumulator = accumulators[plan.origins[step]];
+            final long startedAt = System.nanoTime();
+            stage = plan.steps[step].test(context,
+                                          handler,
+                                          executor);
+            if (isCompletedNormally(stage))
+            {
+                accumulator.record(((CompletableFuture<Boolean>) stage).join(),
+                                   System.nanoTime() - startedAt);
+            }
+            else
+            {
+                stage.thenAccept(passed -> accumulator.record(passed,
+                                                              System.nanoTime() - startedAt));
+            }
+        }
+        return stage;
+    }
+
+    /**
+     * Order the children by the expected time to decide the outcome of the tree - the mean time a child takes, divided by
+     * the proportion of tests in which the child decided the outcome.  Both are moving averages weighted towards the
+     * latest tests, so the order follows children whose behaviour changes.  A child that has never decided the outcome
+     * still has a finite cost, and a child that has not been tested has a cost of zero.  The sort is stable, so children
+     * that cost the same keep their order.
+     */
+    private void reorder()
+    {
+        if (reordering.compareAndSet(false,
+                                     true))
+        {
+            try
+            {
+                final Plan current = plan;
+                final double[] costs = new double[constraints.length];
+                for (int i = 0; i < constraints.length; i++)
+                {
+                    costs[i] = accumulators[i].expectedCost(operator == Operator.OR);
+                }
+                final Integer[] order = Arrays.stream(current.origins)
+                                              .boxed()
+                                              .toArray(Integer[]::new);
+                Arrays.sort(order,
+                            Comparator.comparingDouble(origin -> costs[origin]));
+                final int[] reordered = Arrays.stream(order)
+                                              .mapToInt(Integer::intValue)
+                                              .toArray();
+                if (!Arrays.equals(reordered,
+                                   current.origins))
+                {
+                    plan = childPlan(reordered);
+                    reorders.incrementAndGet();
+                }
+            }
+            finally
+            {
+                reordering.set(false);
+            }
+        }
+    }
+
+    /**
+     * Build a plan that tests the children of this tree, without flattening them, in the given order.
+     */
+    private Plan childPlan(final int[] order)
+    {
+        final Constraint[] steps = new Constraint[order.length];
+        final int[] onPass = new int[order.length];
+        final int[] onFail = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            steps[i] = constraints[order[i]];
+            final int next = i + 1 < order.length ? i + 1
+                                                  : operator == Operator.AND ? PASS
+                                                                             : FAIL;
+            onPass[i] = operator == Operator.AND ? next
+                                                 : PASS;
+            onFail[i] = operator == Operator.AND ? FAIL
+                                                 : next;
+        }
+        return new Plan(steps,
+                        onPass,
+                        onFail,
+                        order,
+                        order.length == 0 ? FAIL
+                                          : 0);
+    }
+
+    private static CompletionStage<Boolean> terminal(final int step)
+    {
+        return step == PASS ? PASSED
+                            : FAILED;
+    }
+
+    private static boolean isCompletedNormally(final CompletionStage<Boolean> stage)
+    {
+        return stage instanceof CompletableFuture
+               && ((CompletableFuture<Boolean>) stage).isDone()
+               && !((CompletableFuture<Boolean>) stage).isCompletedExceptionally();
+    }
+
+    // subclasses may override test, so only plain trees are inlined into their parent
+    private static boolean isFlattened(final Constraint constraint)
+    {
+        return constraint != null
+               && constraint.getClass() == ConstraintTree.class
+               && ((ConstraintTree) constraint).maxConcurrency == 0
+               && ((ConstraintTree) constraint).accumulators == null;
+    }
+
+    private static void collectLeaves(final ConstraintTree tree,
+                                      final List<Constraint> leaves)
+    {
+        for (Constraint constraint : tree.constraints)
+        {
+            if (isFlattened(constraint))
+            {
+                collectLeaves((ConstraintTree) constraint,
+                              leaves);
+            }
+            else
+            {
+                leaves.add(constraint);
+            }
+        }
+    }
+
+    private static int countLeaves(final ConstraintTree tree)
+    {
+        int count = 0;
+        for (Constraint constraint : tree.constraints)
+        {
+            count += isFlattened(constraint) ? countLeaves((ConstraintTree) constraint)
+                                             : 1;
+        }
+        return count;
+    }
+
+    /**
+     * Compile a tree into the plan, placing its leaves from the given step onwards.  The children are compiled from last
+     * to first, so each child knows where to go next: in an AND, a child that passes goes to the next child and one that
+     * fails goes to the failure target of the tree; in an OR, the other way around.  An empty tree fails, as it always
+     * has, so it compiles to its failure target.
+     *
+     * @param onPass the pass jumps of the plan being compiled
+     * @param onFail the fail jumps of the plan being compiled
+     * @param tree   the tree to compile
+     * @param start  the step of the first leaf of the tree
+     * @param ifPass the step to go to if the tree passes
+     * @param ifFail the step to go to if the tree fails
+     * @return the step at which evaluation of the tree starts
+     */
+    private static int compile(final int[] onPass,
+                               final int[] onFail,
+                               final ConstraintTree tree,
+                               final int start,
+                               final int ifPass,
+                               final int ifFail)
+    {
+        final int[] starts = new int[tree.constraints.length];
+        int position = start;
+        for (int i = 0; i < tree.constraints.length; i++)
+        {
+            starts[i] = position;
+            position += isFlattened(tree.constraints[i]) ? countLeaves((ConstraintTree) tree.constraints[i])
+                                                         : 1;
+        }
+
+        int next = tree.operator == Operator.AND ? ifPass
+                                                 : ifFail;
+        for (int i = tree.constraints.length - 1; i >= 0; i--)
+        {
+            final int childPass = tree.operator == Operator.AND ? next
+                                                                : ifPass;
+            final int childFail = tree.operator == Operator.AND ? ifFail
+                                                                : next;
+            final Constraint constraint = tree.constraints[i];
+            if (isFlattened(constraint))
+            {
+                next = compile(onPass,
+                               onFail,
+                               (ConstraintTree) constraint,
+                               starts[i],
+                               childPass,
+                               childFail);
+            }
+            else
+            {
+                onPass[starts[i]] = childPass;
+                onFail[starts[i]] = childFail;
+                next = starts[i];
+            }
+        }
+        return tree.constraints.length == 0 ? ifFail
+                                            : next;
+    }
+
+    /**
+     * The statistics of one child of an adaptive tree.
+     */
+    public static final class ChildStatistics
+    {
+        private final Constraint constraint;
+        private final int position;
+        private final long tested;
+        private final long passed;
+        private final long meanNanos;
+        private final double passRate;
+
+        private ChildStatistics(final Constraint constraint,
+                                final int position,
+                                final long tested,
+                                final long passed,
+                                final long meanNanos,
+                                final double passRate)
+        {
+            this.constraint = constraint;
+            this.position = position;
+            this.tested = tested;
+            this.passed = passed;
+            this.meanNanos = meanNanos;
+            this.passRate = passRate;
+        }
+
+        /**
+         * @return the child
+         */
+        public Constraint constraint()
+        {
+            return constraint;
+        }
+
+        /**
+         * @return the position of the child when the tree was created
+         */
+        public int position()
+        {
+            return position;
+        }
+
+        /**
+         * @return the number of times the child has completed a test
+         */
+        public long tested()
+        {
+            return tested;
+        }
+
+        /**
+         * @return the number of times the child has passed
+         */
+        public long passed()
+        {
+            return passed;
+        }
+
+        /**
+         * @return the mean time the child took to complete a test, weighted towards the latest tests, in nanoseconds, or
+         * 0 if it has not been tested
+         */
+        public long meanNanos()
+        {
+            return meanNanos;
+        }
+
+        /**
+         * @return the proportion of tests the child passed, weighted towards the latest tests
+         */
+        public double passRate()
+        {
+            return passRate;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ChildStatistics{" +
+                   "position=" + position +
+                   ", tested=" + tested +
+                   ", passed=" + passed +
+                   ", meanNanos=" + meanNanos +
+                   ", passRate=" + passRate +
+                   '}';
+        }
+    }
+
+    /**
+     * The compiled steps of a tree.
+     */
+    private static final class Plan
+    {
+        private final Constraint[] steps;
+        private final int[] onPass;
+        private final int[] onFail;
+        // for adaptive trees, the position in the constraints array of the child at each step
+        private final int[] origins;
+        private final int entry;
+
+        private Plan(final Constraint[] steps,
+                     final int[] onPass,
+                     final int[] onFail,
+                     final int[] origins,
+                     final int entry)
+        {
+            this.steps = steps;
+            this.onPass = onPass;
+            this.onFail = onFail;
+            this.origins = origins;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The outcomes of one child of an adaptive tree.  The counts are totals, but the mean time and the pass rate that the
+     * children are ordered by are exponentially weighted moving averages, so a child whose behaviour changes is moved
+     * within a few dozen tests, however many tests it has had before.
+     */
+    private static final class Accumulator
+    {
+        // the weight of the latest test in the moving averages
+        private static final double WEIGHT = 0.05;
+
+        // keeps the cost of a child that has not decided the outcome for a long time finite
+        private static final double MIN_RATE = 1e-6;
+
+        private final LongAdder tested = new LongAdder();
+        private final LongAdder passed = new LongAdder();
+
+        // the moving averages, held as the bits of a double.  The mean time is NaN until the first test, and the pass rate
+        // starts at one half, so the first few tests do not decide the order on their own.
+        private final AtomicLong meanNanos = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        private final AtomicLong passRate = new AtomicLong(Double.doubleToRawLongBits(0.5));
+
+        private void record(final boolean result,
+                            final long elapsed)
+        {
+            tested.increment();
+            if (result)
+            {
+                passed.increment();
+            }
+            update(meanNanos,
+                   elapsed);
+            update(passRate,
+                   result ? 1.0
+                          : 0.0);
+        }
+
+        private double meanNanos()
+        {
+            final double mean = Double.longBitsToDouble(meanNanos.get());
+            return Double.isNaN(mean) ? 0
+                                      : mean;
+        }
+
+        private double passRate()
+        {
+            return Double.longBitsToDouble(passRate.get());
+        }
+
+        private double expectedCost(final boolean decidesOnPass)
+        {
+            final double cost;
+            if (tested.sum() == 0)
+            {
+                cost = 0;
+            }
+            else
+            {
+                final double decided = decidesOnPass ? passRate()
+                                                     : 1.0 - passRate();
+                cost = meanNanos() / Math.max(decided,
+                                              MIN_RATE);
+            }
+            return cost;
+        }
+
+        private static void update(final AtomicLong average,
+                                   final double sample)
+        {
+            long current;
+            long updated;
+            do
+            {
+                current = average.get();
+                final double value = Double.longBitsToDouble(current);
+                updated = Double.doubleToRawLongBits(Double.isNaN(value) ? sample
+                                                                         : value + WEIGHT * (sample - value));
+            }
+            while (!average.compareAndSet(current,
+                                          updated));
+        }
+    }
+
+    /**
+     * The state of one test of a parallel tree.
+     */
+    private final class ParallelEvaluation
+    {
+        private final Http.Context context;
+        private final DeadboltHandler handler;
+        private final Executor executor;
+
+        // the args when the test began, copied for each child so the children never share a mutable map
+        private final Map<String, Object> args;
+
+        // the outcome that ends the test early - true for OR, false for AND
+        private final boolean decisive = operator == Operator.OR;
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final AtomicInteger remaining = new AtomicInteger(constraints.length);
+
+        private ParallelEvaluation(final Http.Context context,
+                                   final DeadboltHandler handler,
+                                   final Executor executor)
+        {
+            this.context = context;
+            this.handler = handler;
+            this.executor = executor;
+            this.args = context == null || context.args == null ? null
+                                                                : new HashMap<>(context.args);
+        }
+
+        private CompletionStage<Boolean> start()
+        {
+            for (int i = 0; i < Math.min(maxConcurrency, constraints.length); i++)
+            {
+                startNext();
+            }
+            return result;
+        }
+
+        private void startNext()
+        {
+            final int index = next.getAndIncrement();
+            if (index < constraints.length && !result.isDone())
+            {
+                CompletionStage<Boolean> stage;
+                try
+                {
+                    stage = constraints[index].test(childContext(),
+                                                    handler,
+                                                    executor);
+                }
+                catch (RuntimeException e)
+                {
+                    final CompletableFuture<Boolean> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    stage = failed;
+                }
+                stage.whenCompleteAsync(this::completed,
+                                        executor);
+            }
+        }
+
+        /**
+         * A copy of the HTTP context for one child, sharing the request, session and flash but with its own args.
+         */
+        private Http.Context childContext()
+        {
+            final Http.Context childContext;
+            if (args == null)
+            {
+                childContext = context;
+            }
+            else
+            {
+                childContext = context.withRequest(context.request());
+                childContext.args = new HashMap<>(args);
+            }
+            return childContext;
+        }
+
+        private void completed(final Boolean passed,
+                               final Throwable throwable)
+        {
+            if (throwable != null)
+            {
+                result.completeExceptionally(throwable);
+            }
+            else if (passed == decisive)
+            {
+                result.complete(decisive);
+            }
+            else if (remaining.decrementAndGet() == 0)
+            {
+                result.complete(!decisive);
+            }
+            else
+            {
+                startNext();
+            }
+        }
+    }
 }
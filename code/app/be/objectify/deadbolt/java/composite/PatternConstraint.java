@@ -24,6 +24,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
 /**
  * @author Steve Chaloner (steve@objectify.be)
@@ -32,6 +33,7 @@ public class PatternConstraint implements Constraint
 {
     private final String value;
     private final PatternType patternType;
+    private final Optional<Pattern> compiledPattern;
     private final Optional<String> meta;
     private final boolean invert;
     private final Optional<String> content;
@@ -46,6 +48,8 @@ public class PatternConstraint implements Constraint
     {
         this.value = value;
         this.patternType = patternType;
+        this.compiledPattern = constraintLogic.compilePattern(value,
+                                                              patternType);
         this.meta = meta;
         this.invert = invert;
         this.content = content;
@@ -62,6 +66,7 @@ public class PatternConstraint implements Constraint
                                        content,
                                        value,
                                        patternType,
+                                       compiledPattern,
                                        meta,
                                        invert,
                                        ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
@@ -17,9 +17,9 @@ package be.objectify.deadbolt.java.composite;
 
 import be.objectify.deadbolt.java.ConstraintLogic;
 import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.RoleGroups;
 import play.mvc.Http;
 
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -32,7 +32,7 @@ import java.util.stream.Collectors;
  */
 public class RestrictConstraint implements Constraint
 {
-    private final List<String[]> roleGroups = new LinkedList<>();
+    private final RoleGroups roleGroups;
     private final ConstraintLogic constraintLogic;
     private final Optional<String> content;
 
@@ -41,9 +41,9 @@ public class RestrictConstraint implements Constraint
                               final ConstraintLogic constraintLogic)
     {
         this.content = content;
-        roleGroups.stream()
-                  .filter(group -> group != null)
-                  .collect(Collectors.toCollection(() -> this.roleGroups));
+        this.roleGroups = constraintLogic.compileRoleGroups(roleGroups.stream()
+                                                                      .filter(group -> group != null)
+                                                                      .collect(Collectors.toList()));
         this.constraintLogic = constraintLogic;
     }
 
@@ -55,7 +55,7 @@ public class RestrictConstraint implements Constraint
         return constraintLogic.restrict(context,
                                         handler,
                                         content,
-                                        () -> roleGroups,
+                                        roleGroups,
                                         ctx -> CompletableFuture.completedFuture(Boolean.TRUE),
                                         (ctx, dh, cnt) -> CompletableFuture.completedFuture(Boolean.FALSE));
     }
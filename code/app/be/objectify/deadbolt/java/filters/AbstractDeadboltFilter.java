@@ -29,7 +29,24 @@ public abstract class AbstractDeadboltFilter extends Filter
         super(mat);
     }
 
+    /**
+     * Create a context for the request being filtered.  The context wraps the request header that Play has already
+     * parsed, so headers, cookies, the session and the request id are those of the request itself rather than a copy.
+     * The body has not been parsed when filters run, so it is not available from the context.
+     * <p>
+     * A request header that does not expose an underlying Play request header is copied.
+     *
+     * @param requestHeader the request header
+     * @return a context for the request
+     */
     Http.Context context(final Http.RequestHeader requestHeader)
+    {
+        final play.api.mvc.RequestHeader underlyingHeader = requestHeader._underlyingHeader();
+        return underlyingHeader == null ? copy(requestHeader)
+                                        : new Http.Context(new Http.RequestImpl(underlyingHeader));
+    }
+
+    private Http.Context copy(final Http.RequestHeader requestHeader)
     {
         final Http.RequestBuilder requestBuilder = new Http.RequestBuilder().headers(requestHeader.headers())
                                                                             .host(requestHeader.host())
@@ -16,13 +16,19 @@
 package be.objectify.deadbolt.java.filters;
 
 import javax.inject.Provider;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiFunction;
 
 /**
  * Matches an invoked route to a constraint.  If a constraint is present for that route, it
  * determines if the corresponding action should be invoked.
+ * <p>
+ * {@link #routes()} is read once, on the first lookup, and indexed by path and then by method.  As with a scan of the
+ * list, the first route matching both the method and path wins; a route using {@link Methods#ANY} matches every method
+ * that is not claimed by an earlier route for the same path.
  *
  * @author Steve Chaloner (steve@objectify.be)
  * @since 2.5.1
@@ -31,6 +37,8 @@ public abstract class AuthorizedRoutes implements BiFunction<String, String, Opt
 {
     public final FilterConstraints filterConstraints;
 
+    private volatile Map<String, PathRoutes> index;
+
     public AuthorizedRoutes(final Provider<FilterConstraints> filterConstraints)
     {
         this.filterConstraints = filterConstraints.get();
@@ -40,12 +48,65 @@ public abstract class AuthorizedRoutes implements BiFunction<String, String, Opt
     public Optional<AuthorizedRoute> apply(final String method,
                                            final String path)
     {
-        return routes().stream()
-                       .filter(authRoute -> authRoute.method()
-                                                     .map(routeMethod -> routeMethod.equals(method) && authRoute.path().equals(path))
-                                                     .orElseGet(() -> authRoute.path().equals(path)))
-                       .findFirst();
+        Map<String, PathRoutes> index = this.index;
+        if (index == null)
+        {
+            index = index(routes());
+            this.index = index;
+        }
+        final PathRoutes pathRoutes = index.get(path);
+        return pathRoutes == null ? Optional.empty()
+                                  : pathRoutes.get(method);
     }
 
     public abstract List<AuthorizedRoute> routes();
+
+    /**
+     * Index the routes by path and method.  Each route is wrapped in an Optional here, so lookups do not allocate.
+     *
+     * @param routes the routes, in order of precedence
+     * @return the routes indexed by path
+     */
+    private static Map<String, PathRoutes> index(final List<AuthorizedRoute> routes)
+    {
+        final Map<String, PathRoutes> index = new HashMap<>();
+        for (final AuthorizedRoute route : routes)
+        {
+            index.computeIfAbsent(route.path(),
+                                  path -> new PathRoutes())
+                 .add(route);
+        }
+        return index;
+    }
+
+    /**
+     * The routes defined for a single path.
+     */
+    private static final class PathRoutes
+    {
+        private final Map<String, Optional<AuthorizedRoute>> byMethod = new HashMap<>();
+        private Optional<AuthorizedRoute> anyMethod = Optional.empty();
+
+        void add(final AuthorizedRoute route)
+        {
+            if (route.method().isPresent())
+            {
+                // an earlier ANY route already matches this method
+                byMethod.putIfAbsent(route.method().get(),
+                                     anyMethod.isPresent() ? anyMethod
+                                                           : Optional.of(route));
+            }
+            else if (!anyMethod.isPresent())
+            {
+                anyMethod = Optional.of(route);
+            }
+        }
+
+        Optional<AuthorizedRoute> get(final String method)
+        {
+            final Optional<AuthorizedRoute> route = byMethod.get(method);
+            return route == null ? anyMethod
+                                 : route;
+        }
+    }
 }
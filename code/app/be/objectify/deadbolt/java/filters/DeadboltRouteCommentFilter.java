@@ -28,8 +28,10 @@ import play.routing.Router;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -89,6 +91,9 @@ import java.util.regex.Pattern;
  * <p>
  * Restrict is a tricky one, because the possible combinations of roles leads to a nightmare to parse.  Instead, define your role constraints within the
  * composite cache and use the named constraint instead.  deadbolt:restrict is actually a synonym for deadbolt:composite.
+ * <p>
+ * Route comments are static, so each distinct comment is parsed the first time it is seen and the resulting constraint and handler are
+ * reused for every subsequent request on that route.
  *
  * @author Steve Chaloner (steve@objectify.be)
  * @since 2.5.1
@@ -112,6 +117,8 @@ public class DeadboltRouteCommentFilter extends AbstractDeadboltFilter
 
     private final F.Tuple<FilterFunction, DeadboltHandler> unknownDeadboltComment;
 
+    private final Map<String, F.Tuple<FilterFunction, DeadboltHandler>> compiledComments = new ConcurrentHashMap<>();
+
     @Inject
     public DeadboltRouteCommentFilter(final Materializer mat,
                                       final HandlerCache handlerCache,
@@ -145,14 +152,12 @@ public class DeadboltRouteCommentFilter extends AbstractDeadboltFilter
         final CompletionStage<Result> result;
         if (comment != null && comment.startsWith("deadbolt:"))
         {
-            // this is horrible
-            final F.Tuple<FilterFunction, DeadboltHandler> tuple = subjectPresent(comment).orElseGet(() -> subjectNotPresent(comment)
-                    .orElseGet(() -> dynamic(comment)
-                            .orElseGet(() -> composite(comment)
-                                    .orElseGet(() -> restrict(comment)
-                                            .orElseGet(() -> pattern(comment)
-                                                    .orElseGet(() -> roleBasedPermissionsComment(comment)
-                                                            .orElse(unknownDeadboltComment)))))));
+            F.Tuple<FilterFunction, DeadboltHandler> tuple = compiledComments.get(comment);
+            if (tuple == null)
+            {
+                tuple = compiledComments.computeIfAbsent(comment,
+                                                         this::compile);
+            }
             result = tuple._1.apply(context(requestHeader),
                                     requestHeader,
                                     tuple._2,
@@ -165,6 +170,23 @@ public class DeadboltRouteCommentFilter extends AbstractDeadboltFilter
         return result;
     }
 
+    /**
+     * Parse a route comment into the constraint it defines and the handler to apply it with.
+     *
+     * @param comment the route comment
+     * @return the constraint and handler, or a constraint that denies access if the comment is not recognised
+     */
+    private F.Tuple<FilterFunction, DeadboltHandler> compile(final String comment)
+    {
+        return subjectPresent(comment).orElseGet(() -> subjectNotPresent(comment)
+                .orElseGet(() -> dynamic(comment)
+                        .orElseGet(() -> composite(comment)
+                                .orElseGet(() -> restrict(comment)
+                                        .orElseGet(() -> pattern(comment)
+                                                .orElseGet(() -> roleBasedPermissionsComment(comment)
+                                                        .orElse(unknownDeadboltComment)))))));
+    }
+
     private Optional<F.Tuple<FilterFunction, DeadboltHandler>> subjectPresent(final String comment)
     {
         final Matcher matcher = subjectPresentComment.matcher(comment);
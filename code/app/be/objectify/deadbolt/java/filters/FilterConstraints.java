@@ -19,6 +19,7 @@ import be.objectify.deadbolt.java.ConstraintLogic;
 import be.objectify.deadbolt.java.DeadboltExecutionContextProvider;
 import be.objectify.deadbolt.java.DeadboltHandler;
 import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.RoleGroups;
 import be.objectify.deadbolt.java.cache.CompositeCache;
 import be.objectify.deadbolt.java.composite.Constraint;
 import be.objectify.deadbolt.java.models.PatternType;
@@ -36,7 +37,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * @author Steve Chaloner (steve@objectify.be)
@@ -136,7 +137,7 @@ public class FilterConstraints
      *
      * @param roleGroups
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#restrict(Http.Context, DeadboltHandler, Optional, Supplier, Function, TriFunction)
+     * @see ConstraintLogic#restrict(Http.Context, DeadboltHandler, Optional, RoleGroups, Function, TriFunction)
      */
     public FilterFunction restrict(final List<String[]> roleGroups)
     {
@@ -150,12 +151,13 @@ public class FilterConstraints
      * @param roleGroups
      * @param content    is passed to {@link DeadboltHandler#onAuthFailure(Http.Context, Optional)} if the authorization fails
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#restrict(Http.Context, DeadboltHandler, Optional, Supplier, Function, TriFunction)
+     * @see ConstraintLogic#restrict(Http.Context, DeadboltHandler, Optional, RoleGroups, Function, TriFunction)
      */
     public FilterFunction restrict(final List<String[]> roleGroups,
                                    final Optional<String> content)
     {
         final ExecutionContextExecutor executor = executor();
+        final RoleGroups compiledRoleGroups = constraintLogic.compileRoleGroups(roleGroups);
         return (Http.Context context,
                 Http.RequestHeader requestHeader,
                 DeadboltHandler handler,
@@ -165,7 +167,7 @@ public class FilterConstraints
                                                                      .orElseGet(() -> constraintLogic.restrict(context,
                                                                                                                handler,
                                                                                                                content,
-                                                                                                               () -> roleGroups,
+                                                                                                               compiledRoleGroups,
                                                                                                                ctx -> next.apply(requestHeader),
                                                                                                                (ctx, hdlr, cntent) -> hdlr.onAuthFailure(ctx,
                                                                                                                                                          cntent))),
@@ -180,7 +182,7 @@ public class FilterConstraints
      * @param value       the constraint value
      * @param patternType the type of pattern matching
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, boolean, Function, TriFunction)
+     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, Optional, boolean, Function, TriFunction)
      */
     public FilterFunction pattern(final String value,
                                   final PatternType patternType)
@@ -199,7 +201,7 @@ public class FilterConstraints
      * @param patternType the type of pattern matching
      * @param meta        additional information passed to {@link be.objectify.deadbolt.java.DynamicResourceHandler#checkPermission(String, Optional, DeadboltHandler, Http.Context)}
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, boolean, Function, TriFunction)
+     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, Optional, boolean, Function, TriFunction)
      */
     public FilterFunction pattern(final String value,
                                   final PatternType patternType,
@@ -221,7 +223,7 @@ public class FilterConstraints
      * @param patternType the type of pattern matching
      * @param invert      invert the meaning of the constraint, where a successful match results in authorization failing
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, boolean, Function, TriFunction)
+     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, Optional, boolean, Function, TriFunction)
      */
     public FilterFunction pattern(final String value,
                                   final PatternType patternType,
@@ -245,7 +247,7 @@ public class FilterConstraints
      * @param invert      invert the meaning of the constraint, where a successful match results in authorization failing
      * @param content     is passed to {@link DeadboltHandler#onAuthFailure(Http.Context, Optional)} if the authorization fails
      * @return a function that wraps the constraint
-     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, boolean, Function, TriFunction)
+     * @see ConstraintLogic#pattern(Http.Context, DeadboltHandler, Optional, String, PatternType, Optional, Optional, boolean, Function, TriFunction)
      */
     public FilterFunction pattern(final String value,
                                   final PatternType patternType,
@@ -254,6 +256,8 @@ public class FilterConstraints
                                   final Optional<String> content)
     {
         final ExecutionContextExecutor executor = executor();
+        final Optional<Pattern> compiledPattern = constraintLogic.compilePattern(value,
+                                                                                 patternType);
         return (Http.Context context,
                 Http.RequestHeader requestHeader,
                 DeadboltHandler handler,
@@ -265,6 +269,7 @@ public class FilterConstraints
                                                                                                               content,
                                                                                                               value,
                                                                                                               patternType,
+                                                                                                              compiledPattern,
                                                                                                               meta,
                                                                                                               invert,
                                                                                                               ctx -> next.apply(requestHeader),
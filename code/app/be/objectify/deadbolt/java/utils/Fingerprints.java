@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.utils;
+
+/**
+ * Builds fingerprints that identify constraints, e.g. to key cached decisions.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class Fingerprints
+{
+    private Fingerprints()
+    {
+        // static methods only
+    }
+
+    /**
+     * Build an unambiguous fingerprint for a constraint from its kind and its parameters.  Each part is prefixed with
+     * its length, so no two different sets of parts give the same fingerprint.
+     *
+     * @param kind  the kind of constraint, e.g. restrict
+     * @param parts the parameters of the constraint.  A null part is distinct from an empty part.
+     * @return the fingerprint
+     */
+    public static String fingerprint(final String kind,
+                                     final String... parts)
+    {
+        final StringBuilder fingerprint = new StringBuilder(kind);
+        for (String part : parts)
+        {
+            fingerprint.append(':');
+            if (part == null)
+            {
+                fingerprint.append(-1);
+            }
+            else
+            {
+                fingerprint.append(part.length())
+                           .append(':')
+                           .append(part);
+            }
+        }
+        return fingerprint.toString();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.utils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A copy-on-write cache keyed by object identity, for values derived from constant sources such as annotations.  Reads
+ * are lock-free; a miss computes the value and publishes a new copy of the map.  Keys should be long-lived and few in
+ * number, as entries are never evicted.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class IdentityCache<K, V>
+{
+    private volatile Map<K, V> entries = new IdentityHashMap<>();
+
+    /**
+     * Gets the value for the key, computing it if this is the first time the key is seen.
+     *
+     * @param key     the key
+     * @param compute computes the value for the key.  Must not return null.
+     * @return the value
+     */
+    public V get(final K key,
+                 final Function<? super K, ? extends V> compute)
+    {
+        V value = entries.get(key);
+        if (value == null)
+        {
+            synchronized (this)
+            {
+                value = entries.get(key);
+                if (value == null)
+                {
+                    value = compute.apply(key);
+                    final Map<K, V> copy = new IdentityHashMap<>(entries);
+                    copy.put(key,
+                             value);
+                    entries = copy;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value for the key, if it has been computed.
+     *
+     * @param key the key
+     * @return the value, or null if the key has not been seen
+     */
+    public V getIfPresent(final K key)
+    {
+        return entries.get(key);
+    }
+
+    /**
+     * The number of cached values.
+     *
+     * @return the number of cached values
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+}
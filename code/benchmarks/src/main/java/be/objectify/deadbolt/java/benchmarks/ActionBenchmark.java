@@ -0,0 +1,346 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.actions.AbstractDeadboltAction;
+import be.objectify.deadbolt.java.actions.BeforeAccess;
+import be.objectify.deadbolt.java.actions.BeforeAccessAction;
+import be.objectify.deadbolt.java.actions.Composite;
+import be.objectify.deadbolt.java.actions.CompositeAction;
+import be.objectify.deadbolt.java.actions.Dynamic;
+import be.objectify.deadbolt.java.actions.DynamicAction;
+import be.objectify.deadbolt.java.actions.Group;
+import be.objectify.deadbolt.java.actions.Pattern;
+import be.objectify.deadbolt.java.actions.PatternAction;
+import be.objectify.deadbolt.java.actions.Restrict;
+import be.objectify.deadbolt.java.actions.RestrictAction;
+import be.objectify.deadbolt.java.actions.RoleBasedPermissions;
+import be.objectify.deadbolt.java.actions.RoleBasedPermissionsAction;
+import be.objectify.deadbolt.java.actions.SubjectNotPresent;
+import be.objectify.deadbolt.java.actions.SubjectNotPresentAction;
+import be.objectify.deadbolt.java.actions.SubjectPresent;
+import be.objectify.deadbolt.java.actions.SubjectPresentAction;
+import be.objectify.deadbolt.java.actions.Unrestricted;
+import be.objectify.deadbolt.java.actions.UnrestrictedAction;
+import be.objectify.deadbolt.java.cache.CompositeCache;
+import be.objectify.deadbolt.java.cache.DefaultCompositeCache;
+import be.objectify.deadbolt.java.cache.HandlerCache;
+import be.objectify.deadbolt.java.composite.RestrictConstraint;
+import be.objectify.deadbolt.java.models.PatternType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import play.Configuration;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every annotation action, run as Play runs them - a new action instance and context per request - against stub
+ * handlers whose stages have already completed.  Every constraint is satisfied, so each benchmark measures the path to
+ * the delegate.
+ *
+ * <pre>sbt "benchmarks/jmh:run -prof gc .*ActionBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ActionBenchmark
+{
+    @Param({"5", "50"})
+    public int roleCount;
+
+    @Param({"10", "1000"})
+    public int permissionCount;
+
+    private final Configuration config = BenchmarkSupport.configuration(false);
+
+    private final ExecutionContextProvider ecProvider = BenchmarkSupport.ecProvider();
+
+    private final Action<?> delegate = new Action.Simple()
+    {
+        private final CompletionStage<Result> ok = CompletableFuture.completedFuture(Results.ok());
+
+        @Override
+        public CompletionStage<Result> call(final Http.Context ctx)
+        {
+            return ok;
+        }
+    };
+
+    private ConstraintLogic constraintLogic;
+
+    private HandlerCache withSubject;
+
+    private HandlerCache withoutSubject;
+
+    private CompositeCache compositeCache;
+
+    @Setup
+    public void setUp()
+    {
+        constraintLogic = BenchmarkSupport.constraintLogic(BenchmarkSupport.passThroughSubjectCache(),
+                                                           false);
+        withSubject = BenchmarkSupport.handlerCache(BenchmarkSupport.handler(BenchmarkSupport.subject(roleCount,
+                                                                                                      permissionCount),
+                                                                             BenchmarkSupport.permissions(10,
+                                                                                                          BenchmarkSupport.TARGET_PERMISSION_REGEX),
+                                                                             BenchmarkSupport.allowingDynamicResourceHandler()));
+        withoutSubject = BenchmarkSupport.handlerCache(BenchmarkSupport.handler(null,
+                                                                                Collections.emptyList(),
+                                                                                null));
+        compositeCache = new DefaultCompositeCache();
+        compositeCache.register("benchmark",
+                                new RestrictConstraint(Collections.singletonList(new String[]{BenchmarkSupport.TARGET_ROLE}),
+                                                       Optional.empty(),
+                                                       constraintLogic));
+    }
+
+    @Benchmark
+    public Result subjectPresent()
+    {
+        return call(new SubjectPresentAction(withSubject,
+                                             config,
+                                             ecProvider,
+                                             constraintLogic),
+                    Annotated.SUBJECT_PRESENT);
+    }
+
+    @Benchmark
+    public Result subjectNotPresent()
+    {
+        return call(new SubjectNotPresentAction(withoutSubject,
+                                                config,
+                                                ecProvider,
+                                                constraintLogic),
+                    Annotated.SUBJECT_NOT_PRESENT);
+    }
+
+    @Benchmark
+    public Result restrict()
+    {
+        return call(new RestrictAction(withSubject,
+                                       config,
+                                       ecProvider,
+                                       constraintLogic),
+                    Annotated.RESTRICT);
+    }
+
+    @Benchmark
+    public Result patternEquality()
+    {
+        return call(new PatternAction(withSubject,
+                                      config,
+                                      ecProvider,
+                                      constraintLogic),
+                    Annotated.PATTERN_EQUALITY);
+    }
+
+    @Benchmark
+    public Result patternRegex()
+    {
+        return call(new PatternAction(withSubject,
+                                      config,
+                                      ecProvider,
+                                      constraintLogic),
+                    Annotated.PATTERN_REGEX);
+    }
+
+    @Benchmark
+    public Result patternCustom()
+    {
+        return call(new PatternAction(withSubject,
+                                      config,
+                                      ecProvider,
+                                      constraintLogic),
+                    Annotated.PATTERN_CUSTOM);
+    }
+
+    @Benchmark
+    public Result dynamic()
+    {
+        return call(new DynamicAction(withSubject,
+                                      config,
+                                      ecProvider,
+                                      constraintLogic),
+                    Annotated.DYNAMIC);
+    }
+
+    @Benchmark
+    public Result roleBasedPermissions()
+    {
+        return call(new RoleBasedPermissionsAction(withSubject,
+                                                   config,
+                                                   ecProvider,
+                                                   constraintLogic),
+                    Annotated.ROLE_BASED_PERMISSIONS);
+    }
+
+    @Benchmark
+    public Result composite()
+    {
+        return call(new CompositeAction(withSubject,
+                                        config,
+                                        ecProvider,
+                                        compositeCache,
+                                        constraintLogic),
+                    Annotated.COMPOSITE);
+    }
+
+    @Benchmark
+    public Result unrestricted()
+    {
+        return call(new UnrestrictedAction(withoutSubject,
+                                           config,
+                                           ecProvider),
+                    Annotated.UNRESTRICTED);
+    }
+
+    @Benchmark
+    public Result beforeAccess()
+    {
+        return call(new BeforeAccessAction(withSubject,
+                                           config,
+                                           ecProvider),
+                    Annotated.BEFORE_ACCESS);
+    }
+
+    private <A extends Annotation> Result call(final AbstractDeadboltAction<A> action,
+                                               final A annotation)
+    {
+        action.configuration = annotation;
+        action.delegate = delegate;
+        return action.call(BenchmarkSupport.context())
+                     .toCompletableFuture()
+                     .join();
+    }
+
+    /**
+     * Holds the annotations used by the benchmarks.  Each annotation is read once, so - as with Play - every action
+     * receives the same annotation instance.
+     */
+    public static class Annotated
+    {
+        static final SubjectPresent SUBJECT_PRESENT = annotation("subjectPresent",
+                                                                 SubjectPresent.class);
+        static final SubjectNotPresent SUBJECT_NOT_PRESENT = annotation("subjectNotPresent",
+                                                                        SubjectNotPresent.class);
+        static final Restrict RESTRICT = annotation("restrict",
+                                                    Restrict.class);
+        static final Pattern PATTERN_EQUALITY = annotation("patternEquality",
+                                                           Pattern.class);
+        static final Pattern PATTERN_REGEX = annotation("patternRegex",
+                                                        Pattern.class);
+        static final Pattern PATTERN_CUSTOM = annotation("patternCustom",
+                                                         Pattern.class);
+        static final Dynamic DYNAMIC = annotation("dynamic",
+                                                  Dynamic.class);
+        static final RoleBasedPermissions ROLE_BASED_PERMISSIONS = annotation("roleBasedPermissions",
+                                                                              RoleBasedPermissions.class);
+        static final Composite COMPOSITE = annotation("composite",
+                                                      Composite.class);
+        static final Unrestricted UNRESTRICTED = annotation("unrestricted",
+                                                            Unrestricted.class);
+        static final BeforeAccess BEFORE_ACCESS = annotation("beforeAccess",
+                                                             BeforeAccess.class);
+
+        private static <A extends Annotation> A annotation(final String methodName,
+                                                           final Class<A> annotationType)
+        {
+            try
+            {
+                return Annotated.class.getMethod(methodName)
+                                      .getAnnotation(annotationType);
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @SubjectPresent
+        public void subjectPresent()
+        {
+        }
+
+        @SubjectNotPresent
+        public void subjectNotPresent()
+        {
+        }
+
+        @Restrict(@Group(BenchmarkSupport.TARGET_ROLE))
+        public void restrict()
+        {
+        }
+
+        @Pattern(BenchmarkSupport.TARGET_PERMISSION)
+        public void patternEquality()
+        {
+        }
+
+        @Pattern(value = BenchmarkSupport.TARGET_PERMISSION_REGEX, patternType = PatternType.REGEX)
+        public void patternRegex()
+        {
+        }
+
+        @Pattern(value = BenchmarkSupport.TARGET_PERMISSION, patternType = PatternType.CUSTOM)
+        public void patternCustom()
+        {
+        }
+
+        @Dynamic("benchmark")
+        public void dynamic()
+        {
+        }
+
+        @RoleBasedPermissions(BenchmarkSupport.TARGET_ROLE)
+        public void roleBasedPermissions()
+        {
+        }
+
+        @Composite("benchmark")
+        public void composite()
+        {
+        }
+
+        @Unrestricted
+        public void unrestricted()
+        {
+        }
+
+        @BeforeAccess
+        public void beforeAccess()
+        {
+        }
+    }
+}
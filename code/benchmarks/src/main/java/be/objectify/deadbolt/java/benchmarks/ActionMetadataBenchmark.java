@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.actions.ActionMetadata;
+import be.objectify.deadbolt.java.actions.Deferrable;
+import be.objectify.deadbolt.java.actions.SubjectPresent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading an action's annotation reflectively on each request, as {@link
+ * be.objectify.deadbolt.java.actions.AbstractDeadboltAction#call} used to, with reading the cached {@link
+ * ActionMetadata}.
+ *
+ * <pre>sbt "benchmarks/jmh:run -prof gc .*ActionMetadataBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ActionMetadataBenchmark
+{
+    private final SubjectPresent annotation = ActionBenchmark.Annotated.SUBJECT_PRESENT;
+
+    @Benchmark
+    public void reflective(final Blackhole blackhole) throws Exception
+    {
+        final Class<?> annClass = annotation.getClass();
+        blackhole.consume(annClass.isAnnotationPresent(Deferrable.class)
+                                  && (Boolean) annClass.getMethod("deferred").invoke(annotation));
+        blackhole.consume(annotation.forceBeforeAuthCheck());
+        blackhole.consume(annotation.handlerKey());
+        blackhole.consume(Optional.ofNullable(annotation.content()));
+    }
+
+    @Benchmark
+    public void metadata(final Blackhole blackhole)
+    {
+        final ActionMetadata metadata = ActionMetadata.of(annotation);
+        blackhole.consume(metadata.deferrable && metadata.deferred);
+        blackhole.consume(metadata.forceBeforeAuthCheck);
+        blackhole.consume(metadata.handlerKey);
+        blackhole.consume(metadata.content);
+    }
+}
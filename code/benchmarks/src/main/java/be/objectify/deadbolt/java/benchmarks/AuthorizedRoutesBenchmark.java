@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.filters.AuthorizedRoute;
+import be.objectify.deadbolt.java.filters.AuthorizedRoutes;
+import be.objectify.deadbolt.java.filters.FilterFunction;
+import be.objectify.deadbolt.java.filters.Methods;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a linear scan of the route list - the lookup {@link AuthorizedRoutes} used before it indexed its routes -
+ * with the indexed lookup.  Half the routes are GET routes and half are ANY routes, and the route looked up is the last
+ * in the list.
+ *
+ * <pre>sbt "benchmarks/jmh:run -prof gc .*AuthorizedRoutesBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AuthorizedRoutesBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int routeCount;
+
+    private List<AuthorizedRoute> routes;
+
+    private AuthorizedRoutes authorizedRoutes;
+
+    private String path;
+
+    @Setup
+    public void setUp()
+    {
+        final FilterFunction constraint = (context, requestHeader, handler, next) -> next.apply(requestHeader);
+        routes = new ArrayList<>(routeCount);
+        for (int i = 0; i < routeCount; i++)
+        {
+            routes.add(new AuthorizedRoute(i % 2 == 0 ? Methods.ANY
+                                                      : Methods.GET,
+                                           "/route/" + i,
+                                           constraint));
+        }
+        path = routes.get(routeCount - 1).path();
+        authorizedRoutes = new AuthorizedRoutes(() -> null)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                return routes;
+            }
+        };
+    }
+
+    @Benchmark
+    public Optional<AuthorizedRoute> scan()
+    {
+        return routes.stream()
+                     .filter(authRoute -> authRoute.method()
+                                                   .map(routeMethod -> routeMethod.equals("GET") && authRoute.path().equals(path))
+                                                   .orElseGet(() -> authRoute.path().equals(path)))
+                     .findFirst();
+    }
+
+    @Benchmark
+    public Optional<AuthorizedRoute> indexed()
+    {
+        return authorizedRoutes.apply("GET",
+                                      path);
+    }
+}
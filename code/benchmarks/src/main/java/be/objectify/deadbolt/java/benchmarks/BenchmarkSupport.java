@@ -0,0 +1,314 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.AbstractDeadboltHandler;
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.DeadboltAnalyzer;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DynamicResourceHandler;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.cache.HandlerCache;
+import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.cache.SubjectCache;
+import be.objectify.deadbolt.java.models.Permission;
+import be.objectify.deadbolt.java.models.Role;
+import be.objectify.deadbolt.java.models.Subject;
+import play.Configuration;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.regex.Pattern;
+
+/**
+ * Fixtures shared by the benchmarks.  Nothing here needs a running application.
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public final class BenchmarkSupport
+{
+    /**
+     * The role checked by the benchmarks.  It is always the last role held by the subject.
+     */
+    public static final String TARGET_ROLE = "target-role";
+
+    /**
+     * The permission checked by the benchmarks.  It is always the last permission held by the subject.
+     */
+    public static final String TARGET_PERMISSION = "target.permission";
+
+    /**
+     * A regex matching only {@link #TARGET_PERMISSION}.
+     */
+    public static final String TARGET_PERMISSION_REGEX = "target\\.perm.*";
+
+    private BenchmarkSupport()
+    {
+        // no-op
+    }
+
+    /**
+     * A subject holding roleCount roles and permissionCount permissions.  The last role is {@link #TARGET_ROLE} and the
+     * last permission is {@link #TARGET_PERMISSION}; the others are role-0, role-1... and perm.0, perm.1...
+     *
+     * @param roleCount       the number of roles.  Must be at least 1.
+     * @param permissionCount the number of permissions.  Must be at least 1.
+     * @return the subject
+     */
+    public static Subject subject(final int roleCount,
+                                  final int permissionCount)
+    {
+        final List<Role> roles = new ArrayList<>(roleCount);
+        for (int i = 0; i < roleCount - 1; i++)
+        {
+            final String name = "role-" + i;
+            roles.add(() -> name);
+        }
+        roles.add(() -> TARGET_ROLE);
+        final List<Permission> permissions = permissions(permissionCount,
+                                                         TARGET_PERMISSION);
+        return new Subject()
+        {
+            @Override
+            public List<? extends Role> getRoles()
+            {
+                return roles;
+            }
+
+            @Override
+            public List<? extends Permission> getPermissions()
+            {
+                return permissions;
+            }
+
+            @Override
+            public String getIdentifier()
+            {
+                return "benchmark";
+            }
+        };
+    }
+
+    /**
+     * A list of count permissions, where the last has the given value and the others are perm.0, perm.1...
+     *
+     * @param count the number of permissions.  Must be at least 1.
+     * @param last  the value of the last permission
+     * @return the permissions
+     */
+    public static List<Permission> permissions(final int count,
+                                               final String last)
+    {
+        final List<Permission> permissions = new ArrayList<>(count);
+        for (int i = 0; i < count - 1; i++)
+        {
+            final String value = "perm." + i;
+            permissions.add(() -> value);
+        }
+        permissions.add(() -> last);
+        return permissions;
+    }
+
+    /**
+     * A fresh context, as each request gets its own.
+     *
+     * @return the context
+     */
+    public static Http.Context context()
+    {
+        return new Http.Context(new Http.RequestBuilder());
+    }
+
+    /**
+     * An execution context provider using Play's default execution context.
+     *
+     * @return the provider
+     */
+    public static ExecutionContextProvider ecProvider()
+    {
+        return new ExecutionContextProvider(configuration(false),
+                                            null);
+    }
+
+    /**
+     * A configuration with the synchronous fast path enabled or disabled.
+     *
+     * @param syncFastPath true iff the fast path should be enabled
+     * @return the configuration
+     */
+    public static Configuration configuration(final boolean syncFastPath)
+    {
+        return new Configuration(Collections.singletonMap(ConfigKeys.SYNC_FAST_PATH,
+                                                          syncFastPath));
+    }
+
+    /**
+     * A pattern cache that compiles on every call.
+     *
+     * @return the pattern cache
+     */
+    public static PatternCache patternCache()
+    {
+        return Pattern::compile;
+    }
+
+    /**
+     * A subject cache returning an already-completed stage, as the default cache does once the subject is held in the
+     * request.
+     *
+     * @param subject the subject
+     * @return the subject cache
+     */
+    public static SubjectCache completedSubjectCache(final Subject subject)
+    {
+        final CompletionStage<Optional<? extends Subject>> stage = CompletableFuture.completedFuture(Optional.ofNullable(subject));
+        return (handler, ctx) -> stage;
+    }
+
+    /**
+     * A subject cache that always asks the handler.
+     *
+     * @return the subject cache
+     */
+    public static SubjectCache passThroughSubjectCache()
+    {
+        return (handler, ctx) -> handler.getSubject(ctx);
+    }
+
+    /**
+     * A dynamic resource handler that allows everything.
+     *
+     * @return the dynamic resource handler
+     */
+    public static DynamicResourceHandler allowingDynamicResourceHandler()
+    {
+        final CompletionStage<Boolean> allowed = CompletableFuture.completedFuture(true);
+        return new DynamicResourceHandler()
+        {
+            @Override
+            public CompletionStage<Boolean> isAllowed(final String name,
+                                                      final Optional<String> meta,
+                                                      final DeadboltHandler deadboltHandler,
+                                                      final Http.Context ctx)
+            {
+                return allowed;
+            }
+
+            @Override
+            public CompletionStage<Boolean> checkPermission(final String permissionValue,
+                                                            final Optional<String> meta,
+                                                            final DeadboltHandler deadboltHandler,
+                                                            final Http.Context ctx)
+            {
+                return allowed;
+            }
+        };
+    }
+
+    /**
+     * A handler cache that returns the same handler for every key.
+     *
+     * @param handler the handler
+     * @return the handler cache
+     */
+    public static HandlerCache handlerCache(final DeadboltHandler handler)
+    {
+        return new HandlerCache()
+        {
+            @Override
+            public DeadboltHandler apply(final String key)
+            {
+                return handler;
+            }
+
+            @Override
+            public DeadboltHandler get()
+            {
+                return handler;
+            }
+        };
+    }
+
+    /**
+     * Constraint logic backed by the given subject cache.
+     *
+     * @param subjectCache the subject cache
+     * @param syncFastPath true iff the synchronous fast path should be enabled
+     * @return the constraint logic
+     */
+    public static ConstraintLogic constraintLogic(final SubjectCache subjectCache,
+                                                  final boolean syncFastPath)
+    {
+        return new ConstraintLogic(new DeadboltAnalyzer(),
+                                   subjectCache,
+                                   patternCache(),
+                                   ecProvider(),
+                                   configuration(syncFastPath),
+                                   () -> null,
+                                   () -> null);
+    }
+
+    /**
+     * A handler that returns already-completed stages.
+     *
+     * @param subject                the subject
+     * @param rolePermissions        the permissions of every role
+     * @param dynamicResourceHandler the dynamic resource handler.  May be null.
+     * @return the handler
+     */
+    public static DeadboltHandler handler(final Subject subject,
+                                          final List<? extends Permission> rolePermissions,
+                                          final DynamicResourceHandler dynamicResourceHandler)
+    {
+        final CompletionStage<Optional<? extends Subject>> subjectStage = CompletableFuture.completedFuture(Optional.ofNullable(subject));
+        final CompletionStage<List<? extends Permission>> permissionStage = CompletableFuture.completedFuture(rolePermissions);
+        final CompletionStage<Optional<DynamicResourceHandler>> drhStage = CompletableFuture.completedFuture(Optional.ofNullable(dynamicResourceHandler));
+        return new AbstractDeadboltHandler(ecProvider())
+        {
+            @Override
+            public CompletionStage<Optional<? extends Subject>> getSubject(final Http.Context context)
+            {
+                return subjectStage;
+            }
+
+            @Override
+            public CompletionStage<Result> onAuthFailure(final Http.Context context,
+                                                         final Optional<String> content)
+            {
+                return CompletableFuture.completedFuture(forbidden());
+            }
+
+            @Override
+            public CompletionStage<Optional<DynamicResourceHandler>> getDynamicResourceHandler(final Http.Context context)
+            {
+                return drhStage;
+            }
+
+            @Override
+            public CompletionStage<List<? extends Permission>> getPermissionsForRole(final String roleName)
+            {
+                return permissionStage;
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.RoleGroups;
+import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.utils.TriFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import play.mvc.Http;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Every entry point of {@link ConstraintLogic}, using a handler whose stages have already completed and a subject whose
+ * matching role and permission are the last in their lists.  Each invocation uses a fresh context, so per-request
+ * caches are rebuilt every time.
+ *
+ * <pre>sbt "benchmarks/jmh:run -prof gc .*ConstraintLogicBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConstraintLogicBenchmark
+{
+    private static final Function<Http.Context, CompletionStage<Boolean>> PASS = ctx -> CompletableFuture.completedFuture(true);
+
+    private static final TriFunction<Http.Context, DeadboltHandler, Optional<String>, CompletionStage<Boolean>> FAIL = (ctx, dh, content) -> CompletableFuture.completedFuture(false);
+
+    @Param({"5", "50"})
+    public int roleCount;
+
+    @Param({"10", "1000"})
+    public int permissionCount;
+
+    @Param({"false"})
+    public boolean syncFastPath;
+
+    private ConstraintLogic constraintLogic;
+
+    private DeadboltHandler handler;
+
+    private RoleGroups roleGroups;
+
+    private Optional<Pattern> compiledPattern;
+
+    @Setup
+    public void setUp()
+    {
+        final Subject subject = BenchmarkSupport.subject(roleCount,
+                                                         permissionCount);
+        constraintLogic = BenchmarkSupport.constraintLogic(BenchmarkSupport.passThroughSubjectCache(),
+                                                           syncFastPath);
+        handler = BenchmarkSupport.handler(subject,
+                                           BenchmarkSupport.permissions(10,
+                                                                        BenchmarkSupport.TARGET_PERMISSION_REGEX),
+                                           BenchmarkSupport.allowingDynamicResourceHandler());
+        roleGroups = constraintLogic.compileRoleGroups(Collections.singletonList(new String[]{BenchmarkSupport.TARGET_ROLE}));
+        compiledPattern = constraintLogic.compilePattern(BenchmarkSupport.TARGET_PERMISSION_REGEX,
+                                                         PatternType.REGEX);
+    }
+
+    @Benchmark
+    public Boolean subjectPresent()
+    {
+        return constraintLogic.subjectPresent(BenchmarkSupport.context(),
+                                              handler,
+                                              Optional.empty(),
+                                              (ctx, dh, content) -> PASS.apply(ctx),
+                                              FAIL)
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    @Benchmark
+    public Boolean restrict()
+    {
+        return constraintLogic.restrict(BenchmarkSupport.context(),
+                                        handler,
+                                        Optional.empty(),
+                                        roleGroups,
+                                        PASS,
+                                        FAIL)
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    @Benchmark
+    public Boolean patternEquality()
+    {
+        return pattern(BenchmarkSupport.TARGET_PERMISSION,
+                       PatternType.EQUALITY,
+                       Optional.empty());
+    }
+
+    @Benchmark
+    public Boolean patternRegex()
+    {
+        return pattern(BenchmarkSupport.TARGET_PERMISSION_REGEX,
+                       PatternType.REGEX,
+                       compiledPattern);
+    }
+
+    @Benchmark
+    public Boolean patternCustom()
+    {
+        return pattern(BenchmarkSupport.TARGET_PERMISSION,
+                       PatternType.CUSTOM,
+                       Optional.empty());
+    }
+
+    @Benchmark
+    public Boolean dynamic()
+    {
+        return constraintLogic.dynamic(BenchmarkSupport.context(),
+                                       handler,
+                                       Optional.empty(),
+                                       "benchmark",
+                                       Optional.empty(),
+                                       PASS,
+                                       FAIL)
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    @Benchmark
+    public Boolean roleBasedPermissions()
+    {
+        return constraintLogic.roleBasedPermissions(BenchmarkSupport.context(),
+                                                    handler,
+                                                    Optional.empty(),
+                                                    BenchmarkSupport.TARGET_ROLE,
+                                                    PASS,
+                                                    FAIL)
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    private Boolean pattern(final String value,
+                            final PatternType patternType,
+                            final Optional<Pattern> pattern)
+    {
+        return constraintLogic.pattern(BenchmarkSupport.context(),
+                                       handler,
+                                       Optional.empty(),
+                                       value,
+                                       patternType,
+                                       pattern,
+                                       Optional.empty(),
+                                       false,
+                                       PASS,
+                                       FAIL)
+                              .toCompletableFuture()
+                              .join();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.DeadboltAnalyzer;
+import be.objectify.deadbolt.java.PermissionIndex;
+import be.objectify.deadbolt.java.RoleGroups;
+import be.objectify.deadbolt.java.RoleIndex;
+import be.objectify.deadbolt.java.models.Subject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The static checks of {@link DeadboltAnalyzer}, against a subject whose matching role and permission are the last in
+ * their lists.  The Optional variants scan the subject; the indexed variants use a prebuilt {@link RoleIndex} or
+ * {@link PermissionIndex}, and the build benchmarks measure the cost of creating an index.
+ *
+ * <pre>sbt "benchmarks/jmh:run -prof gc .*DeadboltAnalyzerBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeadboltAnalyzerBenchmark
+{
+    @Param({"5", "50"})
+    public int roleCount;
+
+    @Param({"10", "1000"})
+    public int permissionCount;
+
+    private final DeadboltAnalyzer analyzer = new DeadboltAnalyzer();
+
+    private final String[] roleNames = {BenchmarkSupport.TARGET_ROLE};
+
+    private final Optional<String> permissionValue = Optional.of(BenchmarkSupport.TARGET_PERMISSION);
+
+    private final Optional<Pattern> pattern = Optional.of(Pattern.compile(BenchmarkSupport.TARGET_PERMISSION_REGEX));
+
+    private Optional<Subject> subject;
+
+    private RoleIndex roleIndex;
+
+    private PermissionIndex permissionIndex;
+
+    private RoleGroups roleGroups;
+
+    @Setup
+    public void setUp()
+    {
+        subject = Optional.of(BenchmarkSupport.subject(roleCount,
+                                                       permissionCount));
+        roleIndex = RoleIndex.of(subject);
+        permissionIndex = PermissionIndex.of(subject);
+        roleGroups = analyzer.compileRoleGroups(Collections.singletonList(roleNames));
+    }
+
+    @Benchmark
+    public boolean hasAllRoles()
+    {
+        return analyzer.hasAllRoles(subject,
+                                    roleNames);
+    }
+
+    @Benchmark
+    public boolean hasAllRoles_indexed()
+    {
+        return analyzer.hasAllRoles(roleIndex,
+                                    roleNames);
+    }
+
+    @Benchmark
+    public boolean checkRoleGroups_indexed()
+    {
+        return analyzer.checkRoleGroups(roleIndex,
+                                        roleGroups);
+    }
+
+    @Benchmark
+    public boolean checkPatternEquality()
+    {
+        return analyzer.checkPatternEquality(subject,
+                                             permissionValue);
+    }
+
+    @Benchmark
+    public boolean checkPatternEquality_indexed()
+    {
+        return analyzer.checkPatternEquality(permissionIndex,
+                                             permissionValue);
+    }
+
+    @Benchmark
+    public boolean checkRegexPattern()
+    {
+        return analyzer.checkRegexPattern(subject,
+                                          pattern);
+    }
+
+    @Benchmark
+    public boolean checkRegexPattern_indexed()
+    {
+        return analyzer.checkRegexPattern(permissionIndex,
+                                          pattern);
+    }
+
+    @Benchmark
+    public RoleIndex buildRoleIndex()
+    {
+        return RoleIndex.of(subject);
+    }
+
+    @Benchmark
+    public PermissionIndex buildPermissionIndex()
+    {
+        return PermissionIndex.of(subject);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.benchmarks;
+
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.RoleGroups;
+import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.models.Subject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the asynchronous hops of {@link ConstraintLogic} with the synchronous fast path, when every stage returned
+ * by the handler and the subject cache has already completed.
+ *
+ * <pre>sbt "benchmarks/jmh:run .*SyncFastPathBenchmark.*"</pre>
+ *
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncFastPathBenchmark
+{
+    @Param({"false", "true"})
+    public boolean syncFastPath;
+
+    private ConstraintLogic constraintLogic;
+
+    private DeadboltHandler handler;
+
+    private RoleGroups roleGroups;
+
+    @Setup
+    public void setUp()
+    {
+        final Subject subject = BenchmarkSupport.subject(10,
+                                                         10);
+        constraintLogic = BenchmarkSupport.constraintLogic(BenchmarkSupport.completedSubjectCache(subject),
+                                                           syncFastPath);
+        handler = BenchmarkSupport.handler(subject,
+                                           Collections.emptyList(),
+                                           null);
+        roleGroups = constraintLogic.compileRoleGroups(Collections.singletonList(new String[]{BenchmarkSupport.TARGET_ROLE}));
+    }
+
+    @Benchmark
+    public Boolean subjectPresent()
+    {
+        return constraintLogic.subjectPresent(BenchmarkSupport.context(),
+                                              handler,
+                                              Optional.empty(),
+                                              (ctx, dh, content) -> CompletableFuture.completedFuture(true),
+                                              (ctx, dh, content) -> CompletableFuture.completedFuture(false))
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    @Benchmark
+    public Boolean restrict()
+    {
+        return constraintLogic.restrict(BenchmarkSupport.context(),
+                                        handler,
+                                        Optional.empty(),
+                                        roleGroups,
+                                        ctx -> CompletableFuture.completedFuture(true),
+                                        (ctx, dh, content) -> CompletableFuture.completedFuture(false))
+                              .toCompletableFuture()
+                              .join();
+    }
+
+    @Benchmark
+    public Boolean patternEquality()
+    {
+        final CompletionStage<Boolean> result = constraintLogic.pattern(BenchmarkSupport.context(),
+                                                                        handler,
+                                                                        Optional.empty(),
+                                                                        BenchmarkSupport.TARGET_PERMISSION,
+                                                                        PatternType.EQUALITY,
+                                                                        Optional.empty(),
+                                                                        false,
+                                                                        ctx -> CompletableFuture.completedFuture(true),
+                                                                        (ctx, dh, content) -> CompletableFuture.completedFuture(false));
+        return result.toCompletableFuture()
+                     .join();
+    }
+}
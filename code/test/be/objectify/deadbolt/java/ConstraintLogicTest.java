@@ -15,9 +15,13 @@
  */
 package be.objectify.deadbolt.java;
 
+import be.objectify.deadbolt.java.cache.DecisionCache;
 import be.objectify.deadbolt.java.cache.DefaultPatternCache;
 import be.objectify.deadbolt.java.cache.HandlerCache;
+import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.cache.RolePermissionCache;
 import be.objectify.deadbolt.java.cache.SubjectCache;
+import be.objectify.deadbolt.java.models.PatternType;
 import be.objectify.deadbolt.java.models.Permission;
 import be.objectify.deadbolt.java.models.Subject;
 import be.objectify.deadbolt.java.testsupport.FakeCache;
@@ -28,16 +32,21 @@ import be.objectify.deadbolt.java.testsupport.TestSubject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import play.Configuration;
 import play.mvc.Http;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  * @author Steve Chaloner (steve@objectify.be)
@@ -106,6 +115,135 @@ public class ConstraintLogicTest extends AbstractFakeApplicationTest
 
     }
 
+    @Test
+    public void testRestrict_syncFastPath_completedSubject() throws Exception
+    {
+        final Thread caller = Thread.currentThread();
+        final Thread[] decidedOn = new Thread[1];
+        final CompletionStage<Boolean> result = syncFastPathLogic(CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().role(new TestRole("foo")).build())))
+                .restrict(context(),
+                          handler(() -> null),
+                          Optional.empty(),
+                          () -> Collections.singletonList(new String[]{"foo"}),
+                          ctx ->
+                          {
+                              decidedOn[0] = Thread.currentThread();
+                              return CompletableFuture.completedFuture(true);
+                          },
+                          (ctx, handler, context) -> CompletableFuture.completedFuture(false));
+        Assert.assertTrue(result.toCompletableFuture().isDone());
+        Assert.assertSame(caller,
+                          decidedOn[0]);
+        pass.accept(result);
+    }
+
+    @Test
+    public void testRestrict_syncFastPath_incompleteSubject() throws Exception
+    {
+        final CompletableFuture<Optional<? extends Subject>> subject = new CompletableFuture<>();
+        final CompletionStage<Boolean> result = syncFastPathLogic(subject)
+                .restrict(context(),
+                          handler(() -> null),
+                          Optional.empty(),
+                          () -> Collections.singletonList(new String[]{"foo"}),
+                          ctx -> CompletableFuture.completedFuture(true),
+                          (ctx, handler, context) -> CompletableFuture.completedFuture(false));
+        subject.complete(Optional.of(new TestSubject.Builder().role(new TestRole("bar")).build()));
+        fail.accept(result);
+    }
+
+    @Test
+    public void testSubjectPresent_syncFastPath_exceptionFailsStage() throws Exception
+    {
+        final CompletionStage<Boolean> result = syncFastPathLogic(CompletableFuture.completedFuture(Optional.empty()))
+                .subjectPresent(context(),
+                                handler(() -> null),
+                                Optional.empty(),
+                                (ctx, handler, content) -> CompletableFuture.completedFuture(true),
+                                (ctx, handler, content) ->
+                                {
+                                    throw new IllegalStateException("no subject");
+                                });
+        Assert.assertTrue(result.toCompletableFuture().isCompletedExceptionally());
+    }
+
+    private ConstraintLogic syncFastPathLogic(final CompletionStage<Optional<? extends Subject>> subject)
+    {
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get()).thenReturn(new DefaultDeadboltExecutionContextProvider());
+        final SubjectCache subjectCache = Mockito.mock(SubjectCache.class);
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(subject);
+        return new ConstraintLogic(new DeadboltAnalyzer(),
+                                   subjectCache,
+                                   new DefaultPatternCache(new FakeCache()),
+                                   ecProvider,
+                                   new Configuration(Collections.singletonMap(ConfigKeys.SYNC_FAST_PATH,
+                                                                              true)),
+                                   () -> null,
+                                   () -> null);
+    }
+
+    @Test
+    public void testPattern_precompiled_doesNotUsePatternCache() throws Exception
+    {
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get()).thenReturn(new DefaultDeadboltExecutionContextProvider());
+        final SubjectCache subjectCache = Mockito.mock(SubjectCache.class);
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().permission(new TestPermission("a.b.c")).build())));
+        final PatternCache patternCache = Mockito.mock(PatternCache.class);
+        Mockito.when(patternCache.apply("a\\.b.*")).thenReturn(Pattern.compile("a\\.b.*"));
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          subjectCache,
+                                                          patternCache,
+                                                          ecProvider);
+
+        final Optional<Pattern> compiledPattern = logic.compilePattern("a\\.b.*",
+                                                                       PatternType.REGEX);
+        Assert.assertTrue(compiledPattern.isPresent());
+        for (int i = 0; i < 3; i++)
+        {
+            pass.accept(logic.pattern(context(),
+                                      handler(() -> null),
+                                      Optional.empty(),
+                                      "a\\.b.*",
+                                      PatternType.REGEX,
+                                      compiledPattern,
+                                      Optional.empty(),
+                                      false,
+                                      ctx -> CompletableFuture.completedFuture(true),
+                                      (ctx, handler, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Mockito.verify(patternCache,
+                       Mockito.times(1)).apply(Mockito.anyString());
+    }
+
+    @Test
+    public void testCompilePattern() throws Exception
+    {
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          Mockito.mock(SubjectCache.class),
+                                                          new DefaultPatternCache(new FakeCache()),
+                                                          ecProvider());
+        Assert.assertFalse(logic.compilePattern("foo",
+                                                PatternType.EQUALITY).isPresent());
+        Assert.assertFalse(logic.compilePattern("foo",
+                                                PatternType.CUSTOM).isPresent());
+
+        final Object source = new Object();
+        final Optional<Pattern> first = logic.compilePattern(source,
+                                                             () -> "foo.*",
+                                                             PatternType.REGEX);
+        Assert.assertTrue(first.isPresent());
+        Assert.assertSame(first,
+                          logic.compilePattern(source,
+                                               () -> "bar.*",
+                                               PatternType.REGEX));
+    }
+
     @Test
     public void testDynamic_pass() throws Exception
     {
@@ -223,6 +361,359 @@ public class ConstraintLogicTest extends AbstractFakeApplicationTest
                                  pass);
     }
 
+    @Test
+    public void testRoleBasedPermissions_rolePermissionCache()
+    {
+        final ExecutionContextProvider ecProvider = ecProvider();
+        final SubjectCache subjectCache = Mockito.mock(SubjectCache.class);
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().permission(new TestPermission("a.b.c")).build())));
+        final PatternCache patternCache = new DefaultPatternCache(new FakeCache());
+        final Configuration configuration = new Configuration(Collections.singletonMap(ConfigKeys.ROLE_PERMISSION_CACHE,
+                                                                                       true));
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          subjectCache,
+                                                          patternCache,
+                                                          ecProvider,
+                                                          configuration,
+                                                          () -> new RolePermissionCache(configuration,
+                                                                                        patternCache,
+                                                                                        ecProvider),
+                                                          () -> new DecisionCache(configuration));
+        final DeadboltHandler handler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(handler.handlerName())
+               .thenReturn("handler");
+        Mockito.when(handler.getPermissionsForRole("foo"))
+               .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(new TestPermission("a.b.*"))));
+
+        for (int i = 0; i < 3; i++)
+        {
+            pass.accept(logic.roleBasedPermissions(context(),
+                                                   handler,
+                                                   Optional.empty(),
+                                                   "foo",
+                                                   ctx -> CompletableFuture.completedFuture(true),
+                                                   (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Mockito.verify(handler,
+                       Mockito.times(1)).getPermissionsForRole("foo");
+    }
+
+    @Test
+    public void testRoleBasedPermissions_matchersScopedByHandler()
+    {
+        final SubjectCache subjectCache = Mockito.mock(SubjectCache.class);
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().permission(new TestPermission("a.b.c")).build())));
+        final AtomicInteger compiled = new AtomicInteger();
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          subjectCache,
+                                                          value ->
+                                                          {
+                                                              compiled.incrementAndGet();
+                                                              return Pattern.compile(value);
+                                                          },
+                                                          ecProvider());
+        final DeadboltHandler first = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(first.handlerName())
+               .thenReturn("first");
+        Mockito.when(first.getPermissionsForRole("foo"))
+               .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(new TestPermission("a.b.*"))));
+        final DeadboltHandler second = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(second.handlerName())
+               .thenReturn("second");
+        Mockito.when(second.getPermissionsForRole("foo"))
+               .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(new TestPermission("x.*"))));
+
+        for (int i = 0; i < 3; i++)
+        {
+            pass.accept(logic.roleBasedPermissions(context(),
+                                                   first,
+                                                   Optional.empty(),
+                                                   "foo",
+                                                   ctx -> CompletableFuture.completedFuture(true),
+                                                   (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+            fail.accept(logic.roleBasedPermissions(context(),
+                                                   second,
+                                                   Optional.empty(),
+                                                   "foo",
+                                                   ctx -> CompletableFuture.completedFuture(true),
+                                                   (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Assert.assertEquals("Each handler's permissions for the role are compiled once",
+                            2,
+                            compiled.get());
+    }
+
+    @Test
+    public void testRestrict_decisionCache()
+    {
+        final Subject subject = new TestSubject.Builder().identifier("foo")
+                                                         .role(new TestRole("foo"))
+                                                         .build();
+        final DeadboltAnalyzer analyzer = Mockito.spy(new DeadboltAnalyzer());
+        final ConstraintLogic logic = decisionCacheLogic(analyzer,
+                                                         subject);
+        final DeadboltHandler handler = handler(() -> subject);
+
+        for (int i = 0; i < 3; i++)
+        {
+            pass.accept(logic.restrict(context(),
+                                       handler,
+                                       Optional.empty(),
+                                       () -> Collections.singletonList(new String[]{"foo"}),
+                                       ctx -> CompletableFuture.completedFuture(true),
+                                       (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Mockito.verify(analyzer,
+                       Mockito.times(1)).checkRoleGroups(Mockito.any(RoleIndex.class),
+                                                         Mockito.anyListOf(String[].class));
+        Mockito.verify(analyzer,
+                       Mockito.never()).compileRoleGroups(Mockito.anyListOf(String[].class));
+    }
+
+    @Test
+    public void testDynamic_decisionCache_onlyIfCacheable()
+    {
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        final ConstraintLogic logic = decisionCacheLogic(new DeadboltAnalyzer(),
+                                                         subject);
+        final int[] checks = {0};
+        final boolean[] cacheable = {false};
+        final DeadboltHandler handler = withDrh(() -> new AbstractDynamicResourceHandler()
+        {
+            @Override
+            public CompletionStage<Boolean> isAllowed(final String name,
+                                                      final Optional<String> meta,
+                                                      final DeadboltHandler deadboltHandler,
+                                                      final Http.Context ctx)
+            {
+                checks[0]++;
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public boolean isCacheable(final String name,
+                                       final Optional<String> meta)
+            {
+                return cacheable[0];
+            }
+        });
+
+        for (int i = 0; i < 2; i++)
+        {
+            pass.accept(logic.dynamic(context(),
+                                      handler,
+                                      Optional.empty(),
+                                      "foo",
+                                      Optional.empty(),
+                                      ctx -> CompletableFuture.completedFuture(true),
+                                      (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Assert.assertEquals(2,
+                            checks[0]);
+
+        cacheable[0] = true;
+        for (int i = 0; i < 2; i++)
+        {
+            pass.accept(logic.dynamic(context(),
+                                      handler,
+                                      Optional.empty(),
+                                      "foo",
+                                      Optional.empty(),
+                                      ctx -> CompletableFuture.completedFuture(true),
+                                      (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        Assert.assertEquals(3,
+                            checks[0]);
+    }
+
+    @Test
+    public void testDynamic_stableDynamicResourceHandler_resolvedOnce()
+    {
+        Assert.assertEquals(1,
+                            dynamicResourceHandlerResolutions(true));
+    }
+
+    @Test
+    public void testDynamic_dynamicResourceHandler_resolvedPerCheck()
+    {
+        Assert.assertEquals(3,
+                            dynamicResourceHandlerResolutions(false));
+    }
+
+    @Test
+    public void testDynamicAll_defaultCallsIsAllowedPerItemInTurn()
+    {
+        final List<String> checked = new ArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final DynamicResourceHandler drh = new AbstractDynamicResourceHandler()
+        {
+            @Override
+            public CompletionStage<Boolean> isAllowed(final String name,
+                                                      final Optional<String> meta,
+                                                      final DeadboltHandler deadboltHandler,
+                                                      final Http.Context ctx)
+            {
+                checked.add(meta.get());
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(),
+                                             Math::max);
+                return CompletableFuture.supplyAsync(() ->
+                                                     {
+                                                         inFlight.decrementAndGet();
+                                                         return meta.get().startsWith("a");
+                                                     });
+            }
+        };
+
+        final BitSet allowed = dynamicAll(drh,
+                                          Arrays.asList(Optional.of("a1"),
+                                                        Optional.of("b2"),
+                                                        Optional.of("a3")));
+
+        Assert.assertEquals(Arrays.asList("a1",
+                                          "b2",
+                                          "a3"),
+                            checked);
+        Assert.assertEquals("Each call starts once the previous one has completed",
+                            1,
+                            maxInFlight.get());
+        Assert.assertTrue(allowed.get(0));
+        Assert.assertFalse(allowed.get(1));
+        Assert.assertTrue(allowed.get(2));
+    }
+
+    @Test
+    public void testDynamicAll_batchedHandler()
+    {
+        final int[] batches = {0};
+        final DynamicResourceHandler drh = new AbstractDynamicResourceHandler()
+        {
+            @Override
+            public CompletionStage<BitSet> isAllowedAll(final String name,
+                                                        final List<Optional<String>> metas,
+                                                        final DeadboltHandler deadboltHandler,
+                                                        final Http.Context ctx)
+            {
+                batches[0]++;
+                final BitSet allowed = new BitSet();
+                allowed.set(1);
+                return CompletableFuture.completedFuture(allowed);
+            }
+        };
+
+        final BitSet allowed = dynamicAll(drh,
+                                          Arrays.asList(Optional.of("a"),
+                                                        Optional.of("b")));
+
+        Assert.assertEquals(1,
+                            batches[0]);
+        Assert.assertFalse(allowed.get(0));
+        Assert.assertTrue(allowed.get(1));
+    }
+
+    @Test
+    public void testDynamicAll_empty()
+    {
+        Assert.assertTrue(dynamicAll(Mockito.mock(DynamicResourceHandler.class),
+                                     Collections.emptyList()).isEmpty());
+    }
+
+    private BitSet dynamicAll(final DynamicResourceHandler drh,
+                              final List<Optional<String>> metas)
+    {
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          Mockito.mock(SubjectCache.class),
+                                                          new DefaultPatternCache(new FakeCache()),
+                                                          ecProvider());
+        final DeadboltHandler handler = new NoPreAuthDeadboltHandler(ecProvider())
+        {
+            @Override
+            public CompletionStage<Optional<DynamicResourceHandler>> getDynamicResourceHandler(final Http.Context context)
+            {
+                return CompletableFuture.completedFuture(Optional.of(drh));
+            }
+        };
+        return logic.dynamicAll(context(),
+                                handler,
+                                "foo",
+                                metas)
+                    .toCompletableFuture()
+                    .join();
+    }
+
+    private int dynamicResourceHandlerResolutions(final boolean stable)
+    {
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          Mockito.mock(SubjectCache.class),
+                                                          new DefaultPatternCache(new FakeCache()),
+                                                          ecProvider());
+        final int[] resolutions = {0};
+        final DynamicResourceHandler drh = new AbstractDynamicResourceHandler()
+        {
+            @Override
+            public CompletionStage<Boolean> isAllowed(final String name,
+                                                      final Optional<String> meta,
+                                                      final DeadboltHandler deadboltHandler,
+                                                      final Http.Context ctx)
+            {
+                return CompletableFuture.completedFuture(true);
+            }
+        };
+        final DeadboltHandler handler = new NoPreAuthDeadboltHandler(ecProvider())
+        {
+            @Override
+            public CompletionStage<Optional<DynamicResourceHandler>> getDynamicResourceHandler(final Http.Context context)
+            {
+                resolutions[0]++;
+                return CompletableFuture.supplyAsync(() -> Optional.of(drh));
+            }
+
+            @Override
+            public boolean isDynamicResourceHandlerStable()
+            {
+                return stable;
+            }
+        };
+
+        for (int i = 0; i < 3; i++)
+        {
+            pass.accept(logic.dynamic(context(),
+                                      handler,
+                                      Optional.empty(),
+                                      "foo",
+                                      Optional.empty(),
+                                      ctx -> CompletableFuture.completedFuture(true),
+                                      (ctx, dh, content) -> CompletableFuture.completedFuture(false)));
+        }
+        return resolutions[0];
+    }
+
+    private ConstraintLogic decisionCacheLogic(final DeadboltAnalyzer analyzer,
+                                               final Subject subject)
+    {
+        final ExecutionContextProvider ecProvider = ecProvider();
+        final SubjectCache subjectCache = Mockito.mock(SubjectCache.class);
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(subject)));
+        final PatternCache patternCache = new DefaultPatternCache(new FakeCache());
+        final Configuration configuration = new Configuration(Collections.singletonMap(ConfigKeys.DECISION_CACHE,
+                                                                                       true));
+        return new ConstraintLogic(analyzer,
+                                   subjectCache,
+                                   patternCache,
+                                   ecProvider,
+                                   configuration,
+                                   () -> new RolePermissionCache(configuration,
+                                                                 patternCache,
+                                                                 ecProvider),
+                                   () -> new DecisionCache(configuration));
+    }
+
     private void testRoleBasedPermissions(final Subject subject,
                                           final String roleName,
                                           final List<? extends Permission> associatedPermissions,
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestPermission;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class PermissionIndexTest
+{
+    private final PermissionIndex index = PermissionIndex.of(new TestSubject.Builder().permissions(Arrays.asList(new TestPermission("printers.edit"),
+                                                                                                                 new TestPermission("printers.view"),
+                                                                                                                 null,
+                                                                                                                 new TestPermission("scanners.edit")))
+                                                                                      .build());
+
+    @Test
+    public void testEmptySubject()
+    {
+        final PermissionIndex empty = PermissionIndex.of(Optional.empty());
+        Assert.assertSame(PermissionIndex.EMPTY,
+                          empty);
+        Assert.assertFalse(empty.contains("foo"));
+        Assert.assertFalse(empty.matches(Pattern.compile(".*")));
+    }
+
+    @Test
+    public void testNullPermissions()
+    {
+        final Subject subject = Mockito.mock(Subject.class);
+        Mockito.when(subject.getPermissions()).thenReturn(null);
+
+        final PermissionIndex nullPermissions = PermissionIndex.of(subject);
+        Assert.assertTrue(nullPermissions.isFor(subject));
+        Assert.assertEquals(0,
+                            nullPermissions.size());
+        Assert.assertFalse(nullPermissions.matches(Pattern.compile(".*")));
+    }
+
+    @Test
+    public void testContains()
+    {
+        Assert.assertEquals(3,
+                            index.size());
+        Assert.assertTrue(index.contains("printers.edit"));
+        Assert.assertFalse(index.contains("printers"));
+    }
+
+    @Test
+    public void testMatches()
+    {
+        Assert.assertTrue(index.matches(Pattern.compile("printers\\.view")));
+        Assert.assertTrue(index.matches(Pattern.compile("scanners.*")));
+        Assert.assertTrue(index.matches(Pattern.compile(".*(.edit)")));
+        Assert.assertTrue(index.matches(Pattern.compile("xprinters.view|scanners.edit")));
+        Assert.assertTrue(index.matches(Pattern.compile("sx?canners.edit")));
+        Assert.assertTrue(index.matches(Pattern.compile("PRINTERS.VIEW",
+                                                        Pattern.CASE_INSENSITIVE)));
+        Assert.assertFalse(index.matches(Pattern.compile("printers")));
+        Assert.assertFalse(index.matches(Pattern.compile("zebras.*")));
+    }
+
+    @Test
+    public void testLiteralPrefix()
+    {
+        Assert.assertEquals("printers",
+                            PermissionIndex.literalPrefix(Pattern.compile("printers.edit")));
+        Assert.assertEquals("printer",
+                            PermissionIndex.literalPrefix(Pattern.compile("printers?.edit")));
+        Assert.assertEquals("printers",
+                            PermissionIndex.literalPrefix(Pattern.compile("printers+")));
+        Assert.assertEquals("",
+                            PermissionIndex.literalPrefix(Pattern.compile("a|b")));
+        Assert.assertEquals("",
+                            PermissionIndex.literalPrefix(Pattern.compile("^printers")));
+        Assert.assertEquals("",
+                            PermissionIndex.literalPrefix(Pattern.compile("printers",
+                                                                          Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testAnalyzer_withIndex()
+    {
+        final DeadboltAnalyzer analyzer = new DeadboltAnalyzer();
+        Assert.assertTrue(analyzer.checkPatternEquality(index,
+                                                        Optional.of("scanners.edit")));
+        Assert.assertFalse(analyzer.checkPatternEquality(index,
+                                                         Optional.empty()));
+        Assert.assertTrue(analyzer.checkRegexPattern(index,
+                                                     Optional.of(Pattern.compile("printers\\..*"))));
+        Assert.assertFalse(analyzer.checkRegexPattern(index,
+                                                      Optional.empty()));
+    }
+}
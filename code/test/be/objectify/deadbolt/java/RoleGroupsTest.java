@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.testsupport.TestRole;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class RoleGroupsTest
+{
+    private final DeadboltAnalyzer analyzer = new DeadboltAnalyzer();
+
+    private final RoleIndex fooBar = RoleIndex.of(new TestSubject.Builder().role(new TestRole("foo"))
+                                                                           .role(new TestRole("bar"))
+                                                                           .build());
+
+    @Test
+    public void testSingleGroup()
+    {
+        Assert.assertTrue(check(fooBar,
+                                new String[]{"foo", "bar"}));
+        Assert.assertFalse(check(fooBar,
+                                 new String[]{"foo", "hurdy"}));
+    }
+
+    @Test
+    public void testNegation()
+    {
+        Assert.assertTrue(check(fooBar,
+                                new String[]{"foo", "!hurdy"}));
+        Assert.assertFalse(check(fooBar,
+                                 new String[]{"foo", "!bar"}));
+        Assert.assertFalse(check(fooBar,
+                                 new String[]{"foo", "!foo"}));
+    }
+
+    @Test
+    public void testMultipleGroups_ored()
+    {
+        Assert.assertTrue(check(fooBar,
+                                new String[]{"hurdy"},
+                                new String[]{"bar"}));
+        Assert.assertFalse(check(fooBar,
+                                 new String[]{"hurdy"},
+                                 new String[]{"gurdy"}));
+    }
+
+    @Test
+    public void testEmptyAndNullGroups()
+    {
+        Assert.assertFalse(check(fooBar,
+                                 new String[0]));
+        Assert.assertFalse(check(fooBar,
+                                 (String[]) null));
+        Assert.assertFalse(analyzer.checkRoleGroups(fooBar,
+                                                    analyzer.compileRoleGroups(Collections.emptyList())));
+    }
+
+    @Test
+    public void testMoreThanSixtyFourRoles()
+    {
+        final String[] required = new String[130];
+        final TestSubject.Builder builder = new TestSubject.Builder();
+        for (int i = 0; i < required.length; i++)
+        {
+            required[i] = "role" + i;
+            builder.role(new TestRole(required[i]));
+        }
+        final RoleIndex index = RoleIndex.of(builder.build());
+        Assert.assertTrue(check(index,
+                                required));
+
+        final String[] withMissing = Arrays.copyOf(required,
+                                                   required.length + 1);
+        withMissing[required.length] = "role" + required.length;
+        Assert.assertFalse(check(index,
+                                 withMissing));
+    }
+
+    @Test
+    public void testMaskRebuiltWhenSymbolTableGrows()
+    {
+        Assert.assertTrue(check(fooBar,
+                                new String[]{"foo"}));
+        // bar is interned after the subject's mask has been built
+        Assert.assertTrue(check(fooBar,
+                                new String[]{"bar"}));
+    }
+
+    @Test
+    public void testCompileBySource_cached()
+    {
+        final Object source = new Object();
+        final RoleGroups first = analyzer.compileRoleGroups(source,
+                                                            () -> Collections.singletonList(new String[]{"foo"}));
+        final RoleGroups second = analyzer.compileRoleGroups(source,
+                                                             () -> Collections.singletonList(new String[]{"bar"}));
+        Assert.assertSame(first,
+                          second);
+        Assert.assertNotSame(first,
+                             analyzer.compileRoleGroups(new Object(),
+                                                        () -> Collections.singletonList(new String[]{"foo"})));
+    }
+
+    @Test
+    public void testFingerprint_canonical()
+    {
+        Assert.assertEquals(fingerprint(new String[]{"foo", "bar"},
+                                        new String[]{"hurdy"}),
+                            fingerprint(new String[]{"hurdy"},
+                                        new String[]{"bar", "foo"},
+                                        null));
+        Assert.assertNotEquals(fingerprint(new String[]{"foo", "bar"}),
+                               fingerprint(new String[]{"foo"},
+                                           new String[]{"bar"}));
+        Assert.assertNotEquals(fingerprint(new String[]{"foo"}),
+                               fingerprint(new String[]{"!foo"}));
+    }
+
+    @Test
+    public void testFingerprint_uncompiledMatchesCompiled()
+    {
+        Assert.assertEquals(fingerprint(new String[]{"foo", "bar"},
+                                        new String[]{"!hurdy"}),
+                            RoleGroups.fingerprint(Arrays.asList(new String[]{"!hurdy"},
+                                                                 new String[]{"bar", "foo"},
+                                                                 new String[0])));
+    }
+
+    @Test
+    public void testUncompiledGroups()
+    {
+        Assert.assertTrue(analyzer.checkRoleGroups(fooBar,
+                                                   Arrays.asList(new String[]{"hurdy"},
+                                                                 new String[]{"foo", "!gurdy"})));
+        Assert.assertFalse(analyzer.checkRoleGroups(fooBar,
+                                                    Arrays.asList(new String[]{"foo", "!bar"},
+                                                                  new String[0],
+                                                                  null)));
+        Assert.assertFalse(analyzer.checkRoleGroups(fooBar,
+                                                    (List<String[]>) null));
+        // none of the role names above were interned, so the first compiled role gets the first bit
+        Assert.assertEquals(1,
+                            analyzer.compileRoleGroups(Collections.singletonList(new String[]{"foo"}))
+                                    .width());
+    }
+
+    private String fingerprint(final String[]... roleGroups)
+    {
+        return analyzer.compileRoleGroups(Arrays.asList(roleGroups))
+                       .fingerprint();
+    }
+
+    private boolean check(final RoleIndex index,
+                          final String[]... roleGroups)
+    {
+        return analyzer.checkRoleGroups(index,
+                                        analyzer.compileRoleGroups(Arrays.asList(roleGroups)));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestRole;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Optional;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class RoleIndexTest
+{
+    @Test
+    public void testEmptySubject()
+    {
+        final RoleIndex index = RoleIndex.of(Optional.empty());
+        Assert.assertSame(RoleIndex.EMPTY,
+                          index);
+        Assert.assertFalse(index.contains("foo"));
+        Assert.assertTrue(index.roleNames().isEmpty());
+    }
+
+    @Test
+    public void testNullRoles()
+    {
+        final Subject subject = Mockito.mock(Subject.class);
+        Mockito.when(subject.getRoles()).thenReturn(null);
+
+        final RoleIndex index = RoleIndex.of(subject);
+        Assert.assertFalse(index.contains("foo"));
+        Assert.assertTrue(index.isFor(subject));
+    }
+
+    @Test
+    public void testRolesWithNulls()
+    {
+        final Subject subject = new TestSubject.Builder().role(new TestRole("foo"))
+                                                         .role(null)
+                                                         .role(new TestRole("bar"))
+                                                         .build();
+        final RoleIndex index = RoleIndex.of(subject);
+        Assert.assertTrue(index.contains("foo"));
+        Assert.assertTrue(index.contains("bar"));
+        Assert.assertFalse(index.contains("hurdy"));
+        Assert.assertEquals(2,
+                            index.roleNames().size());
+    }
+
+    @Test
+    public void testIsFor_differentInstance()
+    {
+        final RoleIndex index = RoleIndex.of(new TestSubject.Builder().role(new TestRole("foo")).build());
+        Assert.assertFalse(index.isFor(new TestSubject.Builder().role(new TestRole("foo")).build()));
+    }
+
+    @Test
+    public void testHasAllRoles_withIndex()
+    {
+        final RoleIndex index = RoleIndex.of(new TestSubject.Builder().role(new TestRole("foo"))
+                                                                      .role(new TestRole("bar"))
+                                                                      .build());
+        final DeadboltAnalyzer analyzer = new DeadboltAnalyzer();
+        Assert.assertTrue(analyzer.hasAllRoles(index,
+                                               new String[]{"foo", "bar"}));
+        Assert.assertTrue(analyzer.hasAllRoles(index,
+                                               new String[]{"foo", "!hurdy"}));
+        Assert.assertFalse(analyzer.hasAllRoles(index,
+                                                new String[]{"foo", "!bar"}));
+        Assert.assertFalse(analyzer.hasAllRoles(index,
+                                                new String[0]));
+        Assert.assertTrue(analyzer.hasRole(index,
+                                           "bar"));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.testsupport.TestPermission;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class RolePermissionMatcherTest
+{
+    private final PatternCache patternCache = Pattern::compile;
+
+    private final PermissionIndex index = PermissionIndex.of(new TestSubject.Builder().permissions(Arrays.asList(new TestPermission("printers.edit"),
+                                                                                                                 new TestPermission("aa")))
+                                                                                      .build());
+
+    @Test
+    public void testCombined()
+    {
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Arrays.asList("scanners.*",
+                                                                                          "printers\\.edit"),
+                                                                            patternCache);
+        Assert.assertTrue(matcher.isCombined());
+        Assert.assertTrue(matcher.test(index));
+    }
+
+    @Test
+    public void testCombined_noMatch()
+    {
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Arrays.asList("scanners.*",
+                                                                                          "printers"),
+                                                                            patternCache);
+        Assert.assertTrue(matcher.isCombined());
+        Assert.assertFalse(matcher.test(index));
+    }
+
+    @Test
+    public void testBackReference_notCombined()
+    {
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Arrays.asList("scanners.*",
+                                                                                          "(a)\\1"),
+                                                                            patternCache);
+        Assert.assertFalse(matcher.isCombined());
+        Assert.assertTrue(matcher.test(index));
+    }
+
+    @Test
+    public void testNoPermissions()
+    {
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Collections.emptyList(),
+                                                                            patternCache);
+        Assert.assertFalse(matcher.test(index));
+    }
+
+    @Test
+    public void testValuesAndIsFor()
+    {
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Collections.singletonList("printers.edit"),
+                                                                            patternCache);
+        Assert.assertTrue(matcher.isFor(RolePermissionMatcher.values(Arrays.asList(new TestPermission("printers.edit"),
+                                                                                   null))));
+        Assert.assertFalse(matcher.isFor(RolePermissionMatcher.values(Collections.singletonList(new TestPermission("printers.view")))));
+        Assert.assertTrue(RolePermissionMatcher.values(null).isEmpty());
+    }
+}
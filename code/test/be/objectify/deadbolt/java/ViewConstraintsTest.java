@@ -0,0 +1,237 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java;
+
+import be.objectify.deadbolt.java.cache.HandlerCache;
+import be.objectify.deadbolt.java.cache.PatternCache;
+import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestHandlerCache;
+import be.objectify.deadbolt.java.testsupport.TestRole;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.Configuration;
+import play.mvc.Http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class ViewConstraintsTest extends AbstractFakeApplicationTest
+{
+    private final DeadboltHandler handler = handler("default");
+
+    private final DeadboltHandler other = handler("other");
+
+    private final HandlerCache handlerCache;
+
+    private int lookups;
+
+    private CompletionStage<Optional<? extends Subject>> subject;
+
+    public ViewConstraintsTest()
+    {
+        final Map<String, DeadboltHandler> handlers = new HashMap<>();
+        handlers.put("other",
+                     other);
+        handlerCache = new TestHandlerCache(handler,
+                                            handlers);
+    }
+
+    @Before
+    public void setUp()
+    {
+        lookups = 0;
+        subject = CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().role(new TestRole("foo"))
+                                                                                         .build()));
+    }
+
+    @Test
+    public void testResolvedDecisionsUsedByTags() throws Throwable
+    {
+        final ViewSupport viewSupport = viewSupport();
+        viewSupport.viewConstraints()
+                   .restrict(Collections.singletonList(new String[]{"foo"}))
+                   .restrict(Collections.singletonList(new String[]{"bar"}))
+                   .subjectPresent()
+                   .subjectNotPresent()
+                   .pattern("foo",
+                            PatternType.EQUALITY,
+                            Optional.empty(),
+                            false)
+                   .resolve(Http.Context.current())
+                   .toCompletableFuture()
+                   .join();
+        Assert.assertEquals("The subject is resolved once for all the constraints",
+                            1,
+                            lookups);
+
+        Assert.assertTrue(viewSupport.viewRestrict(Collections.singletonList(new String[]{"foo"}),
+                                                   null,
+                                                   Optional.empty(),
+                                                   1000L));
+        Assert.assertFalse(viewSupport.viewRestrict(Collections.singletonList(new String[]{"bar"}),
+                                                    null,
+                                                    Optional.empty(),
+                                                    1000L));
+        Assert.assertTrue(viewSupport.viewSubjectPresent(null,
+                                                         Optional.empty(),
+                                                         1000L));
+        Assert.assertFalse(viewSupport.viewSubjectNotPresent(null,
+                                                             Optional.empty(),
+                                                             1000L));
+        Assert.assertFalse(viewSupport.viewPattern("foo",
+                                                   PatternType.EQUALITY,
+                                                   Optional.empty(),
+                                                   false,
+                                                   null,
+                                                   Optional.empty(),
+                                                   1000L));
+        Assert.assertEquals("No tag evaluates its constraint again",
+                            1,
+                            lookups);
+    }
+
+    @Test
+    public void testUnresolvedConstraintEvaluatedByTag() throws Throwable
+    {
+        final ViewSupport viewSupport = viewSupport();
+        viewSupport.viewConstraints()
+                   .subjectPresent()
+                   .resolve(Http.Context.current())
+                   .toCompletableFuture()
+                   .join();
+
+        Assert.assertTrue(viewSupport.viewRestrict(Collections.singletonList(new String[]{"foo"}),
+                                                   null,
+                                                   Optional.empty(),
+                                                   1000L));
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testDecisionsScopedByHandler() throws Throwable
+    {
+        final ViewSupport viewSupport = viewSupport();
+        viewSupport.viewConstraints(other)
+                   .subjectPresent()
+                   .resolve(Http.Context.current())
+                   .toCompletableFuture()
+                   .join();
+
+        viewSupport.viewSubjectPresent(handler,
+                                       Optional.empty(),
+                                       1000L);
+        Assert.assertEquals(2,
+                            lookups);
+        viewSupport.viewSubjectPresent(other,
+                                       Optional.empty(),
+                                       1000L);
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testResolveCompletesWhenDecisionsAreStored() throws Throwable
+    {
+        final CompletableFuture<Optional<? extends Subject>> pending = new CompletableFuture<>();
+        subject = pending;
+        final ViewSupport viewSupport = viewSupport();
+
+        final CompletionStage<Void> resolved = viewSupport.viewConstraints()
+                                                          .subjectPresent()
+                                                          .resolve(Http.Context.current());
+        Assert.assertFalse(resolved.toCompletableFuture().isDone());
+
+        pending.complete(Optional.empty());
+        resolved.toCompletableFuture().join();
+
+        Assert.assertFalse(viewSupport.viewSubjectPresent(null,
+                                                          Optional.empty(),
+                                                          1000L));
+        Assert.assertEquals(1,
+                            lookups);
+    }
+
+    @Test
+    public void testNoKeyBuiltWithoutResolvedDecisions() throws Throwable
+    {
+        final DeadboltHandler unnamed = Mockito.mock(DeadboltHandler.class);
+        viewSupport().viewSubjectPresent(unnamed,
+                                         Optional.empty(),
+                                         1000L);
+        Mockito.verify(unnamed,
+                       Mockito.never()).handlerName();
+    }
+
+    @Test
+    public void testRestrictKey_unambiguous()
+    {
+        Assert.assertNotEquals(ViewConstraints.restrictKey(handler,
+                                                           Collections.singletonList(new String[]{"a", "b"})),
+                               ViewConstraints.restrictKey(handler,
+                                                           Arrays.asList(new String[]{"a"},
+                                                                         new String[]{"b"})));
+        Assert.assertEquals(ViewConstraints.restrictKey(handler,
+                                                        Collections.singletonList(new String[]{"a", "b"})),
+                            ViewConstraints.restrictKey(handler,
+                                                        Collections.singletonList(new String[]{"a", "b"})));
+    }
+
+    private ViewSupport viewSupport()
+    {
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get()).thenReturn(new DefaultDeadboltExecutionContextProvider());
+        final ConstraintLogic constraintLogic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                                    (deadboltHandler, context) ->
+                                                                    {
+                                                                        lookups++;
+                                                                        return subject;
+                                                                    },
+                                                                    Mockito.mock(PatternCache.class),
+                                                                    ecProvider);
+
+        return new ViewSupport(Mockito.mock(Configuration.class),
+                               handlerCache,
+                               new TemplateFailureListenerProvider(provideApplication().injector()),
+                               constraintLogic);
+    }
+
+    private static DeadboltHandler handler(final String name)
+    {
+        final DeadboltHandler deadboltHandler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(deadboltHandler.handlerName())
+               .thenReturn(name);
+        return deadboltHandler;
+    }
+
+    @Override
+    protected HandlerCache handlers()
+    {
+        return handlerCache;
+    }
+}
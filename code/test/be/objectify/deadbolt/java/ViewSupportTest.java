@@ -25,6 +25,8 @@ import org.mockito.Mockito;
 import play.Configuration;
 import play.mvc.Http;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -94,8 +96,13 @@ public class ViewSupportTest extends AbstractFakeApplicationTest
         Mockito.when(noDrhHandler.getDynamicResourceHandler(Mockito.any(Http.Context.class)))
                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 
+        final DeadboltHandler slowHandler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(slowHandler.getDynamicResourceHandler(Mockito.any(Http.Context.class)))
+               .thenReturn(new CompletableFuture<>());
+
         Map<String, DeadboltHandler> handlers = new HashMap<>();
         handlers.put("noDrh", noDrhHandler);
+        handlers.put("slow", slowHandler);
         handlerCache = new TestHandlerCache(handler,
                                             handlers);
     }
@@ -146,6 +153,17 @@ public class ViewSupportTest extends AbstractFakeApplicationTest
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void testDynamicAll_timeoutDeniesEveryResource() throws Throwable
+    {
+        final BitSet result = viewSupport().viewDynamicAll("foo",
+                                                           Arrays.asList(Optional.of("a"),
+                                                                         Optional.of("b")),
+                                                           handlerCache.apply("slow"),
+                                                           50L);
+        Assert.assertTrue(result.isEmpty());
+    }
+
     private ViewSupport viewSupport()
     {
         final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.actions;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DefaultDeadboltExecutionContextProvider;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.cache.HandlerCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.Configuration;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class ActionMetadataTest
+{
+    @Test
+    public void testOf_defaults()
+    {
+        final ActionMetadata metadata = ActionMetadata.of(annotation("subjectPresent",
+                                                                     SubjectPresent.class));
+        Assert.assertFalse(metadata.deferred);
+        Assert.assertEquals(ConfigKeys.DEFAULT_HANDLER_KEY,
+                            metadata.handlerKey);
+        Assert.assertEquals(Optional.of(""),
+                            metadata.content);
+        Assert.assertEquals(Optional.empty(),
+                            metadata.meta);
+        Assert.assertFalse(metadata.forceBeforeAuthCheck);
+    }
+
+    @Test
+    public void testOf_values()
+    {
+        final ActionMetadata metadata = ActionMetadata.of(annotation("dynamic",
+                                                                     Dynamic.class));
+        Assert.assertTrue(metadata.deferred);
+        Assert.assertEquals("foo",
+                            metadata.handlerKey);
+        Assert.assertEquals(Optional.of("json"),
+                            metadata.content);
+        Assert.assertEquals(Optional.of("bar"),
+                            metadata.meta);
+    }
+
+    @Test
+    public void testOf_reflectedAnnotationsNotDeferrable()
+    {
+        Assert.assertFalse(ActionMetadata.of(annotation("dynamic",
+                                                        Dynamic.class)).deferrable);
+        Assert.assertFalse(ActionMetadata.of(annotation("deferredSubjectPresent",
+                                                        SubjectPresent.class)).deferrable);
+    }
+
+    @Test
+    public void testOf_notDeferrable()
+    {
+        final ActionMetadata metadata = ActionMetadata.of(Deferred.class.getAnnotation(DeferredDeadbolt.class));
+        Assert.assertFalse(metadata.deferrable);
+        Assert.assertFalse(metadata.deferred);
+        Assert.assertNull(metadata.handlerKey);
+        Assert.assertEquals(Optional.empty(),
+                            metadata.content);
+    }
+
+    @Test
+    public void testOf_notAnAnnotation()
+    {
+        Assert.assertSame(ActionMetadata.NONE,
+                          ActionMetadata.of("foo"));
+        Assert.assertSame(ActionMetadata.NONE,
+                          ActionMetadata.of(null));
+    }
+
+    @Test
+    public void testOf_readOncePerAnnotation()
+    {
+        final Dynamic annotation = annotation("dynamic",
+                                              Dynamic.class);
+        Assert.assertSame(ActionMetadata.of(annotation),
+                          ActionMetadata.of(annotation));
+    }
+
+    @Test
+    public void testCall_deferredFlagDoesNotDefer()
+    {
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get())
+               .thenReturn(new DefaultDeadboltExecutionContextProvider());
+        final ConstraintLogic constraintLogic = Mockito.mock(ConstraintLogic.class);
+        final boolean[] checked = {false};
+        Mockito.when(constraintLogic.subjectPresent(Mockito.any(Http.Context.class),
+                                                    Mockito.any(),
+                                                    Mockito.any(),
+                                                    Mockito.any(),
+                                                    Mockito.any()))
+               .thenAnswer(invocation ->
+                           {
+                               checked[0] = true;
+                               return CompletableFuture.completedFuture(Results.forbidden());
+                           });
+        final DeadboltHandler handler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(handler.beforeAuthCheck(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final HandlerCache handlerCache = Mockito.mock(HandlerCache.class);
+        Mockito.when(handlerCache.apply(Mockito.anyString()))
+               .thenReturn(handler);
+        final SubjectPresentAction action = new SubjectPresentAction(handlerCache,
+                                                                     new Configuration(Collections.emptyMap()),
+                                                                     ecProvider,
+                                                                     constraintLogic);
+        action.configuration = annotation("deferredSubjectPresent",
+                                          SubjectPresent.class);
+        final boolean[] delegated = {false};
+        action.delegate = new Action.Simple()
+        {
+            @Override
+            public CompletionStage<Result> call(final Http.Context ctx)
+            {
+                delegated[0] = true;
+                return CompletableFuture.completedFuture(Results.ok());
+            }
+        };
+
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        action.call(context)
+              .toCompletableFuture()
+              .join();
+
+        Assert.assertTrue("The constraint is enforced straight away",
+                          checked[0]);
+        Assert.assertFalse(delegated[0]);
+        Assert.assertFalse(action.isDeferred(context));
+    }
+
+    private static <A extends Annotation> A annotation(final String methodName,
+                                                       final Class<A> annotationType)
+    {
+        try
+        {
+            return ActionMetadataTest.class.getDeclaredMethod(methodName)
+                                           .getAnnotation(annotationType);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SubjectPresent
+    private void subjectPresent()
+    {
+    }
+
+    @SubjectPresent(deferred = true)
+    private void deferredSubjectPresent()
+    {
+    }
+
+    @Dynamic(value = "baz", meta = "bar", content = "json", handlerKey = "foo", deferred = true)
+    private void dynamic()
+    {
+    }
+
+    @DeferredDeadbolt
+    private static class Deferred
+    {
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class BoundedCacheTest
+{
+    private final long[] now = {0L};
+
+    private BoundedCache<String, String> cache;
+
+    @Before
+    public void setUp()
+    {
+        cache = new BoundedCache<>(10,
+                                   TimeUnit.MILLISECONDS.toNanos(1000),
+                                   () -> now[0]);
+    }
+
+    @Test
+    public void testGet()
+    {
+        Assert.assertNull(cache.get("a"));
+        put("a",
+            "foo");
+
+        Assert.assertEquals("foo",
+                            cache.get("a"));
+        Assert.assertEquals(1,
+                            cache.hitCount());
+        Assert.assertEquals(1,
+                            cache.missCount());
+    }
+
+    @Test
+    public void testTtl_measuredFromRequest()
+    {
+        final long requestedAt = cache.now();
+        now[0] = TimeUnit.MILLISECONDS.toNanos(500);
+        cache.put("a",
+                  "foo",
+                  requestedAt,
+                  cache.generation());
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(999);
+        Assert.assertEquals("foo",
+                            cache.get("a"));
+        now[0] = TimeUnit.MILLISECONDS.toNanos(1000);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testNoExpiry()
+    {
+        final BoundedCache<String, String> permanent = new BoundedCache<>(10,
+                                                                          BoundedCache.NO_EXPIRY,
+                                                                          () -> now[0]);
+        Assert.assertNull(permanent.putIfAbsent("a",
+                                                "foo"));
+        now[0] = Long.MAX_VALUE;
+
+        Assert.assertEquals("foo",
+                            permanent.get("a"));
+        Assert.assertEquals("foo",
+                            permanent.putIfAbsent("a",
+                                                  "bar"));
+    }
+
+    @Test
+    public void testMaxSize_leastRecentlyUsedEvicted()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            now[0] = TimeUnit.MILLISECONDS.toNanos(10 * i);
+            put("k" + i,
+                "v" + i);
+        }
+        now[0] = TimeUnit.MILLISECONDS.toNanos(100);
+        cache.get("k0");
+        put("k10",
+            "v10");
+
+        Assert.assertEquals(9,
+                            cache.size());
+        Assert.assertEquals(2,
+                            cache.evictionCount());
+        Assert.assertEquals("v0",
+                            cache.get("k0"));
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertNull(cache.get("k2"));
+        Assert.assertEquals("v10",
+                            cache.get("k10"));
+    }
+
+    @Test
+    public void testMaxSize_expiredRemovedFirst()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            put("k" + i,
+                "v" + i);
+        }
+        cache.get("k0");
+        now[0] = TimeUnit.MILLISECONDS.toNanos(1000);
+        put("k10",
+            "v10");
+
+        Assert.assertEquals(1,
+                            cache.size());
+        Assert.assertEquals(0,
+                            cache.evictionCount());
+    }
+
+    @Test
+    public void testPut_invalidatedSinceRequestNotStored()
+    {
+        put("a",
+            "foo");
+        final long generation = cache.generation();
+        cache.invalidate("b");
+
+        Assert.assertFalse(cache.put("a",
+                                     "bar",
+                                     cache.now(),
+                                     generation));
+        Assert.assertEquals("The current entry is kept",
+                            "foo",
+                            cache.get("a"));
+    }
+
+    @Test
+    public void testInvalidateIf()
+    {
+        put("a",
+            "foo");
+        put("b",
+            "bar");
+        put("c",
+            "foo");
+
+        cache.invalidateIf((key, value) -> value.equals("foo"));
+
+        Assert.assertEquals(1,
+                            cache.size());
+        Assert.assertEquals("bar",
+                            cache.get("b"));
+    }
+
+    @Test
+    public void testInvalidateAll()
+    {
+        put("a",
+            "foo");
+        put("b",
+            "bar");
+
+        cache.invalidateAll();
+
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    private void put(final String key,
+                     final String value)
+    {
+        Assert.assertTrue(cache.put(key,
+                                    value,
+                                    cache.now(),
+                                    cache.generation()));
+    }
+}
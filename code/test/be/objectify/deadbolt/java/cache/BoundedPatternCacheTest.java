@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class BoundedPatternCacheTest
+{
+    @Test
+    public void testCompiledOnce()
+    {
+        final BoundedPatternCache cache = new BoundedPatternCache(10);
+
+        final Pattern first = cache.apply("foo.*");
+        final Pattern second = cache.apply("foo.*");
+
+        Assert.assertSame(first,
+                          second);
+        Assert.assertEquals("foo.*",
+                            first.pattern());
+        Assert.assertEquals(1,
+                            cache.hitCount());
+        Assert.assertEquals(1,
+                            cache.missCount());
+        Assert.assertEquals(1,
+                            cache.size());
+    }
+
+    @Test
+    public void testMaxSize()
+    {
+        final BoundedPatternCache cache = new BoundedPatternCache(10);
+
+        for (int i = 0; i < 25; i++)
+        {
+            cache.apply("foo" + i);
+            Assert.assertTrue(cache.size() <= 10);
+        }
+        Assert.assertEquals(25,
+                            cache.missCount());
+        Assert.assertEquals(25 - cache.size(),
+                            cache.evictionCount());
+    }
+
+    @Test
+    public void testEvictedPatternRecompiled()
+    {
+        final BoundedPatternCache cache = new BoundedPatternCache(1);
+
+        cache.apply("foo");
+        cache.apply("bar");
+        Assert.assertEquals(1,
+                            cache.size());
+        Assert.assertEquals(1,
+                            cache.evictionCount());
+
+        // only one of the two patterns is still held, so at least one of them is compiled again
+        final Pattern foo = cache.apply("foo");
+        final Pattern bar = cache.apply("bar");
+        Assert.assertEquals("foo",
+                            foo.pattern());
+        Assert.assertEquals("bar",
+                            bar.pattern());
+        Assert.assertTrue(cache.missCount() >= 3);
+        Assert.assertEquals(4,
+                            cache.hitCount() + cache.missCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSize_mustBePositive()
+    {
+        new BoundedPatternCache(0);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class DecisionCacheTest
+{
+    private final long[] now = {0L};
+
+    private int evaluations;
+
+    private DeadboltHandler handler;
+
+    private DecisionCache cache;
+
+    @Before
+    public void setUp()
+    {
+        evaluations = 0;
+        handler = handler("handler");
+        cache = new DecisionCache(1000L,
+                                  10,
+                                  () -> now[0]);
+    }
+
+    @Test
+    public void testCachedAcrossChecks()
+    {
+        Assert.assertTrue(test(handler,
+                               subject("foo"),
+                               "a",
+                               true));
+        Assert.assertTrue(test(handler,
+                               subject("foo"),
+                               "a",
+                               false));
+
+        Assert.assertEquals(1,
+                            evaluations);
+        Assert.assertEquals(1,
+                            cache.hitCount());
+        Assert.assertEquals(1,
+                            cache.missCount());
+    }
+
+    @Test
+    public void testKeyedBySubjectFingerprintAndHandler()
+    {
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+        Assert.assertFalse(test(handler,
+                                subject("bar"),
+                                "a",
+                                false));
+        Assert.assertFalse(test(handler,
+                                subject("foo"),
+                                "b",
+                                false));
+        Assert.assertFalse(test(handler("other"),
+                                subject("foo"),
+                                "a",
+                                false));
+
+        Assert.assertEquals(4,
+                            evaluations);
+        Assert.assertEquals(0,
+                            cache.hitCount());
+    }
+
+    @Test
+    public void testNoIdentifier_notCached()
+    {
+        test(handler,
+             subject(null),
+             "a",
+             true);
+        test(handler,
+             subject(null),
+             "a",
+             true);
+
+        Assert.assertEquals(2,
+                            evaluations);
+        Assert.assertEquals(0,
+                            cache.size());
+        Assert.assertEquals(0,
+                            cache.missCount());
+    }
+
+    @Test
+    public void testTtl()
+    {
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(999);
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+        Assert.assertEquals(1,
+                            evaluations);
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(1000);
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+        Assert.assertEquals(2,
+                            evaluations);
+    }
+
+    @Test
+    public void testMaxSize()
+    {
+        for (int i = 0; i < 25; i++)
+        {
+            test(handler,
+                 subject("foo"),
+                 "a" + i,
+                 true);
+            Assert.assertTrue(cache.size() <= 10);
+        }
+    }
+
+    @Test
+    public void testInvalidate_bySubjectIdentifier()
+    {
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+        test(handler,
+             subject("foo"),
+             "b",
+             true);
+        test(handler,
+             subject("bar"),
+             "a",
+             true);
+
+        cache.invalidate("foo");
+
+        Assert.assertEquals(1,
+                            cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll()
+    {
+        test(handler,
+             subject("foo"),
+             "a",
+             true);
+        test(handler,
+             subject("bar"),
+             "a",
+             true);
+
+        cache.invalidateAll();
+
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testAsync_cachedOnceComplete()
+    {
+        final CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        final CompletionStage<Boolean> result = cache.apply(handler,
+                                                            subject("foo"),
+                                                            () -> "a",
+                                                            () -> pending);
+        Assert.assertEquals(0,
+                            cache.size());
+
+        pending.complete(true);
+
+        Assert.assertTrue(result.toCompletableFuture().join());
+        Assert.assertTrue(cache.apply(handler,
+                                      subject("foo"),
+                                      () -> "a",
+                                      () -> CompletableFuture.completedFuture(false))
+                               .toCompletableFuture()
+                               .join());
+    }
+
+    @Test
+    public void testAsync_failedEvaluationNotCached()
+    {
+        final CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("foo"));
+        cache.apply(handler,
+                    subject("foo"),
+                    () -> "a",
+                    () -> failed);
+
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testAsync_invalidatedWhileInFlightNotStored()
+    {
+        final CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        final CompletionStage<Boolean> result = cache.apply(handler,
+                                                            subject("foo"),
+                                                            () -> "a",
+                                                            () -> pending);
+        cache.invalidate("foo");
+        pending.complete(true);
+
+        Assert.assertTrue(result.toCompletableFuture().join());
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    private boolean test(final DeadboltHandler deadboltHandler,
+                         final Subject subject,
+                         final String fingerprint,
+                         final boolean allowed)
+    {
+        return cache.test(deadboltHandler,
+                          subject,
+                          () -> fingerprint,
+                          () ->
+                          {
+                              evaluations++;
+                              return allowed;
+                          });
+    }
+
+    private static DeadboltHandler handler(final String name)
+    {
+        final DeadboltHandler deadboltHandler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(deadboltHandler.handlerName())
+               .thenReturn(name);
+        return deadboltHandler;
+    }
+
+    private static Subject subject(final String identifier)
+    {
+        return new TestSubject.Builder().identifier(identifier)
+                                        .build();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.composite.Constraint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class DefaultCompositeCacheTest
+{
+    private static final Constraint CONSTRAINT_A = (ctx, handler, executor) -> CompletableFuture.completedFuture(true);
+
+    private static final Constraint CONSTRAINT_B = (ctx, handler, executor) -> CompletableFuture.completedFuture(false);
+
+    @Test
+    public void testRegister()
+    {
+        final DefaultCompositeCache cache = new DefaultCompositeCache();
+        cache.register("a",
+                       CONSTRAINT_A);
+
+        Assert.assertSame(CONSTRAINT_A,
+                          cache.apply("a").get());
+    }
+
+    @Test
+    public void testLookupDoesNotAllocate()
+    {
+        final DefaultCompositeCache cache = new DefaultCompositeCache();
+        cache.register("a",
+                       CONSTRAINT_A);
+
+        Assert.assertSame(cache.apply("a"),
+                          cache.apply("a"));
+        Assert.assertSame(cache.apply("b"),
+                          cache.apply("b"));
+    }
+
+    @Test
+    public void testUnregistered()
+    {
+        final Optional<Constraint> constraint = new DefaultCompositeCache().apply("a");
+
+        Assert.assertTrue(constraint.isPresent());
+        try
+        {
+            constraint.get().test(null,
+                                  null,
+                                  null);
+            Assert.fail("An unregistered constraint should fail when it is tested");
+        }
+        catch (RuntimeException e)
+        {
+            Assert.assertEquals("A composite constraint with name [a] is specified but is not registered",
+                                e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnregistered_registeredLater()
+    {
+        final DefaultCompositeCache cache = new DefaultCompositeCache();
+        final Optional<Constraint> missing = cache.apply("a");
+        cache.register("a",
+                       CONSTRAINT_A);
+
+        Assert.assertSame(CONSTRAINT_A,
+                          cache.apply("a").get());
+
+        cache.replaceAll(new HashMap<>());
+        Assert.assertNotSame("A name that is no longer registered gets a new failing constraint",
+                             missing,
+                             cache.apply("a"));
+    }
+
+    @Test
+    public void testDefaultReplaceAll_registersEach()
+    {
+        final Map<String, Constraint> registered = new HashMap<>();
+        final CompositeCache cache = new CompositeCache()
+        {
+            @Override
+            public void register(final String name,
+                                 final Constraint constraint)
+            {
+                registered.put(name,
+                               constraint);
+            }
+
+            @Override
+            public Optional<Constraint> apply(final String name)
+            {
+                return Optional.ofNullable(registered.get(name));
+            }
+        };
+        final Map<String, Constraint> replacement = new HashMap<>();
+        replacement.put("a",
+                        CONSTRAINT_A);
+        replacement.put("b",
+                        CONSTRAINT_B);
+        cache.replaceAll(replacement);
+
+        Assert.assertEquals(replacement,
+                            registered);
+    }
+
+    @Test
+    public void testReplaceAll()
+    {
+        final DefaultCompositeCache cache = new DefaultCompositeCache();
+        cache.register("a",
+                       CONSTRAINT_A);
+
+        final Map<String, Constraint> replacement = new HashMap<>();
+        replacement.put("b",
+                        CONSTRAINT_B);
+        cache.replaceAll(replacement);
+        replacement.put("c",
+                        CONSTRAINT_A);
+
+        Assert.assertSame(CONSTRAINT_B,
+                          cache.apply("b").get());
+        Assert.assertNotSame("Constraints that are not in the replacement are removed",
+                             CONSTRAINT_A,
+                             cache.apply("a").get());
+        Assert.assertNotSame("Later changes to the replacement map are not seen",
+                             CONSTRAINT_A,
+                             cache.apply("c").get());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws InterruptedException
+    {
+        final DefaultCompositeCache cache = new DefaultCompositeCache();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            final int thread = i;
+            threads.add(new Thread(() ->
+                                   {
+                                       try
+                                       {
+                                           start.await();
+                                       }
+                                       catch (InterruptedException e)
+                                       {
+                                           Thread.currentThread().interrupt();
+                                       }
+                                       for (int j = 0; j < 250; j++)
+                                       {
+                                           cache.register(thread + "-" + j,
+                                                          CONSTRAINT_A);
+                                       }
+                                   }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        for (int i = 0; i < 4; i++)
+        {
+            for (int j = 0; j < 250; j++)
+            {
+                Assert.assertSame(CONSTRAINT_A,
+                                  cache.apply(i + "-" + j).get());
+            }
+        }
+    }
+}
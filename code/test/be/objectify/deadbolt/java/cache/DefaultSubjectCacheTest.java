@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DefaultDeadboltExecutionContextProvider;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.Configuration;
+import play.mvc.Http;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class DefaultSubjectCacheTest
+{
+    private ExecutionContextProvider ecProvider;
+
+    private DeadboltHandler handler;
+
+    @Before
+    public void setUp()
+    {
+        ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get())
+               .thenReturn(new DefaultDeadboltExecutionContextProvider());
+        handler = Mockito.mock(DeadboltHandler.class);
+    }
+
+    @Test
+    public void testCachingDisabled()
+    {
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final SubjectCache cache = cache(false);
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+
+        Assert.assertFalse(get(cache,
+                               context).isPresent());
+        Assert.assertFalse(get(cache,
+                               context).isPresent());
+        Mockito.verify(handler,
+                       Mockito.times(2))
+               .getSubject(context);
+    }
+
+    @Test
+    public void testCachingEnabled_subjectPresent()
+    {
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(subject)));
+        final SubjectCache cache = cache(true);
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+
+        Assert.assertSame(subject,
+                          get(cache,
+                              context).get());
+        Assert.assertSame(subject,
+                          get(cache,
+                              context).get());
+        Mockito.verify(handler,
+                       Mockito.times(1))
+               .getSubject(context);
+        Assert.assertSame(subject,
+                          context.args.get(ConfigKeys.CACHE_DEADBOLT_USER));
+    }
+
+    @Test
+    public void testCachingEnabled_subjectNotPresent()
+    {
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final SubjectCache cache = cache(true);
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+
+        for (int i = 0; i < 15; i++)
+        {
+            Assert.assertFalse(get(cache,
+                                   context).isPresent());
+        }
+        Mockito.verify(handler,
+                       Mockito.times(1))
+               .getSubject(context);
+        Assert.assertFalse(context.args.containsKey(ConfigKeys.CACHE_DEADBOLT_USER));
+    }
+
+    @Test
+    public void testCachingEnabled_subjectNotPresent_perRequest()
+    {
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final SubjectCache cache = cache(true);
+
+        get(cache,
+            new Http.Context(new Http.RequestBuilder()));
+        get(cache,
+            new Http.Context(new Http.RequestBuilder()));
+
+        Mockito.verify(handler,
+                       Mockito.times(2))
+               .getSubject(Mockito.any(Http.Context.class));
+    }
+
+    @Test
+    public void testCachingEnabled_subjectNotPresent_filterContext()
+    {
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final SubjectCache cache = cache(true);
+        final Http.Request request = new Http.RequestBuilder().build();
+        // filters wrap the request header in a new context, as in AbstractDeadboltFilter
+        final Http.Context context = new Http.Context(new Http.RequestImpl(request._underlyingHeader()));
+
+        get(cache,
+            context);
+        get(cache,
+            context);
+
+        Mockito.verify(handler,
+                       Mockito.times(1))
+               .getSubject(context);
+    }
+
+    @Test
+    public void testCachingEnabled_subjectNotPresent_perHandler()
+    {
+        Mockito.when(handler.handlerName())
+               .thenReturn("a");
+        Mockito.when(handler.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        final DeadboltHandler other = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(other.handlerName())
+               .thenReturn("b");
+        Mockito.when(other.getSubject(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(subject)));
+        final SubjectCache cache = cache(true);
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+
+        Assert.assertFalse(get(cache,
+                               context).isPresent());
+        Assert.assertSame("Another handler is asked even though the first found no subject",
+                          subject,
+                          cache.apply(other,
+                                      context)
+                               .toCompletableFuture()
+                               .join()
+                               .get());
+
+        // once the subject is no longer cached, the record of the first handler finding no subject is gone too
+        context.args.remove(ConfigKeys.CACHE_DEADBOLT_USER);
+        get(cache,
+            context);
+        Mockito.verify(handler,
+                       Mockito.times(2))
+               .getSubject(context);
+    }
+
+    private SubjectCache cache(final boolean cacheUser)
+    {
+        return new DefaultSubjectCache(new Configuration(Collections.singletonMap(ConfigKeys.CACHE_DEADBOLT_USER,
+                                                                                  cacheUser)),
+                                       ecProvider);
+    }
+
+    private Optional<? extends Subject> get(final SubjectCache cache,
+                                            final Http.Context context)
+    {
+        return cache.apply(handler,
+                           context)
+                    .toCompletableFuture()
+                    .join();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.RolePermissionMatcher;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.mvc.Http;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class EvaluationContextTest
+{
+    private final DeadboltHandler handler = Mockito.mock(DeadboltHandler.class);
+
+    @Test
+    public void testWithin_attachedForTheEvaluation()
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        final CompletableFuture<Boolean> pending = new CompletableFuture<>();
+
+        final CompletionStage<Boolean> result = EvaluationContext.within(context,
+                                                                         () ->
+                                                                         {
+                                                                             Assert.assertTrue(EvaluationContext.current(context).isPresent());
+                                                                             return pending;
+                                                                         });
+        Assert.assertTrue(EvaluationContext.current(context).isPresent());
+
+        pending.complete(true);
+
+        Assert.assertTrue(result.toCompletableFuture().join());
+        Assert.assertFalse(EvaluationContext.current(context).isPresent());
+    }
+
+    @Test
+    public void testWithin_nestedEvaluationJoinsOuter()
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+
+        EvaluationContext.within(context,
+                                 () ->
+                                 {
+                                     final EvaluationContext outer = EvaluationContext.current(context).get();
+                                     EvaluationContext.within(context,
+                                                              () ->
+                                                              {
+                                                                  Assert.assertSame(outer,
+                                                                                    EvaluationContext.current(context).get());
+                                                                  return CompletableFuture.completedFuture(true);
+                                                              });
+                                     Assert.assertSame("The nested evaluation does not detach the outer context",
+                                                       outer,
+                                                       EvaluationContext.current(context).get());
+                                     return CompletableFuture.completedFuture(true);
+                                 });
+
+        Assert.assertFalse(EvaluationContext.current(context).isPresent());
+    }
+
+    @Test
+    public void testWithin_failedEvaluationDetached()
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        try
+        {
+            EvaluationContext.within(context,
+                                     () ->
+                                     {
+                                         throw new IllegalStateException("foo");
+                                     });
+            Assert.fail("The exception should be thrown");
+        }
+        catch (IllegalStateException e)
+        {
+            Assert.assertFalse(EvaluationContext.current(context).isPresent());
+        }
+    }
+
+    @Test
+    public void testWithin_noArgs()
+    {
+        final Http.Context context = Mockito.mock(Http.Context.class);
+
+        Assert.assertTrue(EvaluationContext.within(context,
+                                                   () -> CompletableFuture.completedFuture(true))
+                                           .toCompletableFuture()
+                                           .join());
+        Assert.assertFalse(EvaluationContext.current(context).isPresent());
+    }
+
+    @Test
+    public void testSubject_resolvedOncePerHandler()
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        final AtomicInteger resolutions = new AtomicInteger();
+        final Subject subject = new TestSubject.Builder().identifier("foo")
+                                                         .build();
+
+        EvaluationContext.within(context,
+                                 () ->
+                                 {
+                                     final EvaluationContext evaluation = EvaluationContext.current(context).get();
+                                     for (int i = 0; i < 3; i++)
+                                     {
+                                         evaluation.subject(handler,
+                                                            () ->
+                                                            {
+                                                                resolutions.incrementAndGet();
+                                                                return CompletableFuture.completedFuture(Optional.of(subject));
+                                                            });
+                                     }
+                                     evaluation.subject(Mockito.mock(DeadboltHandler.class),
+                                                        () ->
+                                                        {
+                                                            resolutions.incrementAndGet();
+                                                            return CompletableFuture.completedFuture(Optional.empty());
+                                                        });
+                                     return CompletableFuture.completedFuture(true);
+                                 });
+
+        Assert.assertEquals(2,
+                            resolutions.get());
+    }
+
+    @Test
+    public void testRolePermissionMatcher_resolvedOncePerRole()
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        final AtomicInteger resolutions = new AtomicInteger();
+        final RolePermissionMatcher matcher = RolePermissionMatcher.compile(Collections.emptyList(),
+                                                                            new BoundedPatternCache(10));
+
+        EvaluationContext.within(context,
+                                 () ->
+                                 {
+                                     final EvaluationContext evaluation = EvaluationContext.current(context).get();
+                                     for (String role : new String[]{"foo", "foo", "bar", null, null})
+                                     {
+                                         evaluation.rolePermissionMatcher(handler,
+                                                                          role,
+                                                                          () ->
+                                                                          {
+                                                                              resolutions.incrementAndGet();
+                                                                              return CompletableFuture.completedFuture(matcher);
+                                                                          });
+                                     }
+                                     return CompletableFuture.completedFuture(true);
+                                 });
+
+        Assert.assertEquals("foo and bar once each, and a null role every time",
+                            4,
+                            resolutions.get());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.actions.Pattern;
+import be.objectify.deadbolt.java.filters.AuthorizedRoute;
+import be.objectify.deadbolt.java.filters.AuthorizedRoutes;
+import be.objectify.deadbolt.java.models.PatternType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.routing.Router;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class PatternCacheWarmerTest
+{
+    private ConstraintLogic constraintLogic;
+
+    private BoundedPatternCache patternCache;
+
+    private PatternCacheWarmer warmer;
+
+    @Before
+    public void setUp()
+    {
+        constraintLogic = Mockito.mock(ConstraintLogic.class);
+        patternCache = new BoundedPatternCache(10);
+        warmer = new PatternCacheWarmer(constraintLogic,
+                                        patternCache);
+    }
+
+    @Test
+    public void testWarmAnnotations()
+    {
+        final List<Router.RouteDocumentation> routes = Arrays.asList(route(AnnotatedController.class.getName() + ".regex()"),
+                                                                     route(AnnotatedController.class.getName() + "@equality()"),
+                                                                     route(AnnotatedController.class.getName() + ".notAnnotated()"));
+
+        final int warmed = warmer.warmAnnotations(getClass().getClassLoader(),
+                                                  routes);
+
+        Assert.assertEquals("The class-level pattern is found for each route, plus the regex action",
+                            4,
+                            warmed);
+        Mockito.verify(constraintLogic).compilePattern(Mockito.argThat(new PatternValue("[0-9]+")),
+                                                       Mockito.any(),
+                                                       Mockito.eq(PatternType.REGEX));
+        Mockito.verify(constraintLogic,
+                       Mockito.times(3)).compilePattern(Mockito.argThat(new PatternValue("foo.*")),
+                                                        Mockito.any(),
+                                                        Mockito.eq(PatternType.REGEX));
+        Mockito.verify(constraintLogic,
+                       Mockito.never()).compilePattern(Mockito.argThat(new PatternValue("bar")),
+                                                       Mockito.any(),
+                                                       Mockito.eq(PatternType.REGEX));
+    }
+
+    @Test
+    public void testWarmAnnotations_unknownControllerSkipped()
+    {
+        final int warmed = warmer.warmAnnotations(getClass().getClassLoader(),
+                                                  Collections.singletonList(route("controllers.DoesNotExist.foo()")));
+
+        Assert.assertEquals(0,
+                            warmed);
+    }
+
+    @Test
+    public void testWarmRouteComments() throws IOException
+    {
+        final String routes = "# deadbolt:pattern:value[foo.*]:type[REGEX]\n" +
+                              "GET     /foo       controllers.Foo.foo()\n" +
+                              "# deadbolt:pattern:value[bar]:type[EQUALITY]\n" +
+                              "GET     /bar       controllers.Foo.bar()\n" +
+                              "GET     /baz       controllers.Foo.baz(value = \"deadbolt:pattern:value[baz]:type[REGEX]\")\n";
+
+        final int warmed = warmer.warmRouteComments(new ByteArrayInputStream(routes.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(1,
+                            warmed);
+        Assert.assertEquals(1,
+                            patternCache.size());
+        patternCache.apply("foo.*");
+        Assert.assertEquals(1,
+                            patternCache.hitCount());
+    }
+
+    @Test
+    public void testWarmRouteComments_noRoutesFile() throws IOException
+    {
+        Assert.assertEquals(0,
+                            warmer.warmRouteComments(null));
+    }
+
+    @Test
+    public void testWarmAuthorizedRoutes()
+    {
+        final AuthorizedRoutes authorizedRoutes = Mockito.mock(AuthorizedRoutes.class);
+        Mockito.when(authorizedRoutes.routes())
+               .thenReturn(Arrays.asList(Mockito.mock(AuthorizedRoute.class),
+                                         Mockito.mock(AuthorizedRoute.class)));
+
+        Assert.assertEquals(2,
+                            warmer.warmAuthorizedRoutes(authorizedRoutes));
+    }
+
+    private static Router.RouteDocumentation route(final String invocation)
+    {
+        return new Router.RouteDocumentation("GET",
+                                             "/",
+                                             invocation);
+    }
+
+    private static final class PatternValue extends org.mockito.ArgumentMatcher<Object>
+    {
+        private final String value;
+
+        private PatternValue(final String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(final Object argument)
+        {
+            return argument instanceof Pattern && value.equals(((Pattern) argument).value());
+        }
+    }
+
+    @Pattern(value = "foo.*",
+             patternType = PatternType.REGEX)
+    public static class AnnotatedController
+    {
+        @Pattern(value = "[0-9]+",
+                 patternType = PatternType.REGEX)
+        public void regex()
+        {
+        }
+
+        @Pattern(value = "bar")
+        public void equality()
+        {
+        }
+
+        public void notAnnotated()
+        {
+        }
+    }
+}
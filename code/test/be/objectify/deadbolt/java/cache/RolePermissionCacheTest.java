@@ -0,0 +1,384 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.RolePermissionMatcher;
+import be.objectify.deadbolt.java.models.Permission;
+import be.objectify.deadbolt.java.testsupport.FakeCache;
+import be.objectify.deadbolt.java.testsupport.TestPermission;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class RolePermissionCacheTest
+{
+    private final long[] now = {0L};
+
+    private final Map<String, String> permissions = new HashMap<>();
+
+    private final List<Runnable> refreshes = new ArrayList<>();
+
+    private int lookups;
+
+    private DeadboltHandler handler;
+
+    private RolePermissionCache cache;
+
+    @Before
+    public void setUp()
+    {
+        lookups = 0;
+        permissions.clear();
+        refreshes.clear();
+        handler = handler("handler");
+        cache = new RolePermissionCache(new DefaultPatternCache(new FakeCache()),
+                                        refreshes::add,
+                                        1000L,
+                                        800L,
+                                        2,
+                                        () -> now[0]);
+    }
+
+    @Test
+    public void testCachedAcrossChecks()
+    {
+        permissions.put("admin",
+                        "foo.*");
+
+        final List<? extends Permission> first = get(cache.getPermissionsForRole(handler,
+                                                                                  "admin"));
+        final List<? extends Permission> second = get(cache.getPermissionsForRole(handler,
+                                                                                   "admin"));
+
+        Assert.assertSame(first,
+                          second);
+        Assert.assertEquals(1,
+                            lookups);
+    }
+
+    @Test
+    public void testMatcherStoredWithPermissions()
+    {
+        permissions.put("admin",
+                        "foo.*");
+
+        final RolePermissionMatcher first = get(cache.getMatcher(handler,
+                                                                 "admin"));
+        final RolePermissionMatcher second = get(cache.getMatcher(handler,
+                                                                  "admin"));
+
+        Assert.assertSame(first,
+                          second);
+        Assert.assertTrue(first.isFor(Collections.singletonList("foo.*")));
+        Assert.assertEquals(1,
+                            lookups);
+    }
+
+    @Test
+    public void testScopedByHandler()
+    {
+        permissions.put("admin",
+                        "foo.*");
+        get(cache.getMatcher(handler,
+                             "admin"));
+        get(cache.getMatcher(handler("other"),
+                             "admin"));
+
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testRefreshAhead_staleValueServedWhileReloading()
+    {
+        permissions.put("admin",
+                        "foo.*");
+        final RolePermissionMatcher original = get(cache.getMatcher(handler,
+                                                                    "admin"));
+        permissions.put("admin",
+                        "bar.*");
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(799);
+        get(cache.getMatcher(handler,
+                             "admin"));
+        Assert.assertTrue(refreshes.isEmpty());
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(800);
+        Assert.assertSame(original,
+                          get(cache.getMatcher(handler,
+                                               "admin")));
+        Assert.assertSame(original,
+                          get(cache.getMatcher(handler,
+                                               "admin")));
+        Assert.assertEquals("Only one reload is started for an entry",
+                            1,
+                            refreshes.size());
+        Assert.assertEquals(1,
+                            lookups);
+
+        refreshes.get(0).run();
+
+        Assert.assertEquals(2,
+                            lookups);
+        Assert.assertTrue(get(cache.getMatcher(handler,
+                                               "admin")).isFor(Collections.singletonList("bar.*")));
+    }
+
+    @Test
+    public void testRefreshAhead_failedReloadKeepsEntry()
+    {
+        permissions.put("admin",
+                        "foo.*");
+        final RolePermissionMatcher original = get(cache.getMatcher(handler,
+                                                                    "admin"));
+        Mockito.when(handler.getPermissionsForRole("admin"))
+               .thenThrow(new IllegalStateException("foo"));
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(800);
+        get(cache.getMatcher(handler,
+                             "admin"));
+        refreshes.get(0).run();
+
+        Assert.assertSame(original,
+                          get(cache.getMatcher(handler,
+                                               "admin")));
+        Assert.assertEquals("A failed reload is retried by the next check",
+                            2,
+                            refreshes.size());
+    }
+
+    @Test
+    public void testRefreshAhead_invalidatedDuringReloadRetried()
+    {
+        permissions.put("admin",
+                        "foo.*");
+        permissions.put("user",
+                        "bar.*");
+        final RolePermissionMatcher original = get(cache.getMatcher(handler,
+                                                                    "admin"));
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(800);
+        get(cache.getMatcher(handler,
+                             "admin"));
+        cache.invalidate("user");
+        refreshes.get(0).run();
+
+        Assert.assertSame("A reload started before an invalidation is not stored",
+                          original,
+                          get(cache.getMatcher(handler,
+                                               "admin")));
+        Assert.assertEquals("The next check starts another reload",
+                            2,
+                            refreshes.size());
+        refreshes.get(1).run();
+
+        Assert.assertNotSame(original,
+                             get(cache.getMatcher(handler,
+                                                  "admin")));
+    }
+
+    @Test
+    public void testTtl()
+    {
+        permissions.put("admin",
+                        "foo.*");
+        get(cache.getMatcher(handler,
+                             "admin"));
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(1000);
+        get(cache.getMatcher(handler,
+                             "admin"));
+
+        Assert.assertEquals(2,
+                            lookups);
+        Assert.assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testMaxSize_leastRecentlyUsedEvicted()
+    {
+        permissions.put("a",
+                        "a");
+        permissions.put("b",
+                        "b");
+        permissions.put("c",
+                        "c");
+        later();
+        get(cache.getMatcher(handler,
+                             "a"));
+        later();
+        get(cache.getMatcher(handler,
+                             "b"));
+        later();
+        get(cache.getMatcher(handler,
+                             "a"));
+        later();
+        get(cache.getMatcher(handler,
+                             "c"));
+        Assert.assertEquals(3,
+                            lookups);
+        Assert.assertEquals(2,
+                            cache.size());
+
+        later();
+        get(cache.getMatcher(handler,
+                             "a"));
+        Assert.assertEquals(3,
+                            lookups);
+        later();
+        get(cache.getMatcher(handler,
+                             "b"));
+        Assert.assertEquals(4,
+                            lookups);
+    }
+
+    @Test
+    public void testInvalidate_role()
+    {
+        permissions.put("a",
+                        "a");
+        permissions.put("b",
+                        "b");
+        get(cache.getMatcher(handler,
+                             "a"));
+        get(cache.getMatcher(handler,
+                             "b"));
+
+        cache.invalidate("a");
+
+        Assert.assertEquals(1,
+                            cache.size());
+        get(cache.getMatcher(handler,
+                             "a"));
+        Assert.assertEquals(3,
+                            lookups);
+    }
+
+    @Test
+    public void testInvalidate_handlerAndRole()
+    {
+        permissions.put("a",
+                        "a");
+        final DeadboltHandler other = handler("other");
+        get(cache.getMatcher(handler,
+                             "a"));
+        get(cache.getMatcher(other,
+                             "a"));
+
+        cache.invalidate(other,
+                         "a");
+
+        Assert.assertEquals(1,
+                            cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll()
+    {
+        permissions.put("a",
+                        "a");
+        permissions.put("b",
+                        "b");
+        get(cache.getMatcher(handler,
+                             "a"));
+        get(cache.getMatcher(handler,
+                             "b"));
+
+        cache.invalidateAll();
+
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testInvalidate_inFlightLoadNotStored()
+    {
+        final CompletableFuture<List<? extends Permission>> pending = new CompletableFuture<>();
+        Mockito.when(handler.getPermissionsForRole("admin"))
+               .thenReturn(pending);
+
+        final CompletionStage<RolePermissionMatcher> result = cache.getMatcher(handler,
+                                                                               "admin");
+        cache.invalidateAll();
+        pending.complete(Collections.singletonList(new TestPermission("foo")));
+
+        Assert.assertTrue(get(result).isFor(Collections.singletonList("foo")));
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testFailedLoadNotStored()
+    {
+        Mockito.when(handler.getPermissionsForRole("admin"))
+               .thenThrow(new IllegalStateException("foo"));
+
+        try
+        {
+            get(cache.getMatcher(handler,
+                                 "admin"));
+            Assert.fail("Load should have failed");
+        }
+        catch (CompletionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    private DeadboltHandler handler(final String name)
+    {
+        final DeadboltHandler deadboltHandler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(deadboltHandler.handlerName())
+               .thenReturn(name);
+        Mockito.when(deadboltHandler.getPermissionsForRole(Mockito.anyString()))
+               .thenAnswer(invocation ->
+                           {
+                               lookups++;
+                               final String value = permissions.get((String) invocation.getArguments()[0]);
+                               return CompletableFuture.completedFuture(value == null ? Collections.emptyList()
+                                                                                      : Collections.singletonList(new TestPermission(value)));
+                           });
+        return deadboltHandler;
+    }
+
+    private static <T> T get(final CompletionStage<T> stage)
+    {
+        return stage.toCompletableFuture()
+                    .join();
+    }
+
+    private void later()
+    {
+        now[0] += TimeUnit.MILLISECONDS.toNanos(10);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.mvc.Http;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class SharedSubjectCacheTest
+{
+    private final long[] now = {0L};
+
+    private final Map<String, Subject> subjects = new HashMap<>();
+
+    private int lookups;
+
+    private DeadboltHandler handler;
+
+    private SharedSubjectCache cache;
+
+    @Before
+    public void setUp()
+    {
+        lookups = 0;
+        subjects.clear();
+        handler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(handler.handlerName())
+               .thenReturn("handler");
+        cache = new SharedSubjectCache((dh, ctx) ->
+                                       {
+                                           lookups++;
+                                           return CompletableFuture.completedFuture(Optional.ofNullable(subjects.get(key(ctx))));
+                                       },
+                                       1000L,
+                                       2,
+                                       () -> now[0]);
+    }
+
+    @Test
+    public void testNoKey_notCached()
+    {
+        subjects.put(null,
+                     subject("foo"));
+        Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+               .thenReturn(Optional.empty());
+
+        Assert.assertTrue(get(null).isPresent());
+        Assert.assertTrue(get(null).isPresent());
+        Assert.assertEquals(2,
+                            lookups);
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testKey_cachedAcrossRequests()
+    {
+        subjects.put("a",
+                     subject("foo"));
+
+        final Subject first = get("a").get();
+        final Subject second = get("a").get();
+
+        Assert.assertSame(first,
+                          second);
+        Assert.assertEquals(1,
+                            lookups);
+    }
+
+    @Test
+    public void testKey_absentSubjectNotCached()
+    {
+        Assert.assertFalse(get("a").isPresent());
+        subjects.put("a",
+                     subject("foo"));
+        Assert.assertTrue(get("a").isPresent());
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testKey_scopedByHandler()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        get("a");
+
+        Mockito.when(handler.handlerName())
+               .thenReturn("other");
+        get("a");
+
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testTtl()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        get("a");
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(999);
+        get("a");
+        Assert.assertEquals(1,
+                            lookups);
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(1000);
+        get("a");
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testMaxSize_leastRecentlyUsedEvicted()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        subjects.put("b",
+                     subject("bar"));
+        subjects.put("c",
+                     subject("baz"));
+        later();
+        get("a");
+        later();
+        get("b");
+        later();
+        get("a");
+        later();
+        get("c");
+        Assert.assertEquals(3,
+                            lookups);
+        Assert.assertEquals(2,
+                            cache.size());
+
+        later();
+        get("a");
+        Assert.assertEquals(3,
+                            lookups);
+        later();
+        get("b");
+        Assert.assertEquals(4,
+                            lookups);
+    }
+
+    @Test
+    public void testInvalidate_bySubjectIdentifier()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        subjects.put("b",
+                     subject("foo"));
+        subjects.put("c",
+                     subject("bar"));
+        later();
+        get("a");
+        later();
+        get("b");
+        later();
+        get("c");
+
+        cache.invalidate("foo");
+
+        Assert.assertEquals(1,
+                            cache.size());
+        later();
+        get("a");
+        later();
+        get("c");
+        Assert.assertEquals(4,
+                            lookups);
+    }
+
+    @Test
+    public void testInvalidateKey()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        get("a");
+
+        cache.invalidateKey(handler,
+                            "a");
+
+        get("a");
+        Assert.assertEquals(2,
+                            lookups);
+    }
+
+    @Test
+    public void testInvalidateAll()
+    {
+        subjects.put("a",
+                     subject("foo"));
+        subjects.put("b",
+                     subject("bar"));
+        get("a");
+        get("b");
+
+        cache.invalidateAll();
+
+        Assert.assertEquals(0,
+                            cache.size());
+    }
+
+    @Test
+    public void testInvalidate_inFlightLookupNotStored()
+    {
+        final CompletableFuture<Optional<? extends Subject>> pending = new CompletableFuture<>();
+        final SharedSubjectCache slowCache = new SharedSubjectCache((dh, ctx) -> pending,
+                                                                    1000L,
+                                                                    2,
+                                                                    () -> now[0]);
+        Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+               .thenReturn(Optional.of("a"));
+
+        final CompletionStage<Optional<? extends Subject>> result = slowCache.apply(handler,
+                                                                                    context("a"));
+        slowCache.invalidateAll();
+        pending.complete(Optional.of(subject("foo")));
+
+        Assert.assertTrue(result.toCompletableFuture().join().isPresent());
+        Assert.assertEquals(0,
+                            slowCache.size());
+    }
+
+    private Optional<? extends Subject> get(final String key)
+    {
+        if (key != null)
+        {
+            Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+                   .thenReturn(Optional.of(key));
+        }
+        return cache.apply(handler,
+                           context(key))
+                    .toCompletableFuture()
+                    .join();
+    }
+
+    private static Http.Context context(final String key)
+    {
+        final Http.Context context = new Http.Context(new Http.RequestBuilder());
+        context.args.put("key",
+                         key);
+        return context;
+    }
+
+    private static String key(final Http.Context context)
+    {
+        return (String) context.args.get("key");
+    }
+
+    private static Subject subject(final String identifier)
+    {
+        return new TestSubject.Builder().identifier(identifier)
+                                        .build();
+    }
+
+    private void later()
+    {
+        now[0] += TimeUnit.MILLISECONDS.toNanos(10);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.cache;
+
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DefaultDeadboltExecutionContextProvider;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.models.Subject;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.Configuration;
+import play.mvc.Http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class SingleFlightSubjectCacheTest
+{
+    private final List<CompletableFuture<Optional<? extends Subject>>> lookups = new ArrayList<>();
+
+    private DeadboltHandler handler;
+
+    private DefaultSubjectCache requestCache;
+
+    private SingleFlightSubjectCache cache;
+
+    @Before
+    public void setUp()
+    {
+        lookups.clear();
+        handler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(handler.handlerName())
+               .thenReturn("handler");
+        Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+               .thenReturn(Optional.of("a"));
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get())
+               .thenReturn(new DefaultDeadboltExecutionContextProvider());
+        requestCache = new DefaultSubjectCache(new Configuration(Collections.singletonMap(ConfigKeys.CACHE_DEADBOLT_USER,
+                                                                                          true)),
+                                               ecProvider);
+        cache = new SingleFlightSubjectCache((dh, ctx) ->
+                                             {
+                                                 final CompletableFuture<Optional<? extends Subject>> lookup = new CompletableFuture<>();
+                                                 lookups.add(lookup);
+                                                 return lookup;
+                                             },
+                                             requestCache);
+    }
+
+    @Test
+    public void testConcurrentLookupsCoalesced()
+    {
+        final List<CompletionStage<Optional<? extends Subject>>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            results.add(cache.apply(handler,
+                                    context()));
+        }
+        Assert.assertEquals(1,
+                            lookups.size());
+        Assert.assertEquals(1,
+                            cache.inFlightCount());
+
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        lookups.get(0).complete(Optional.of(subject));
+
+        for (CompletionStage<Optional<? extends Subject>> result : results)
+        {
+            Assert.assertSame(subject,
+                              result.toCompletableFuture().join().get());
+        }
+        Assert.assertEquals(20,
+                            cache.lookupCount());
+        Assert.assertEquals(19,
+                            cache.coalescedCount());
+        Assert.assertEquals(0,
+                            cache.inFlightCount());
+    }
+
+    @Test
+    public void testCoalescedLookupCachedInEachContext()
+    {
+        final Http.Context first = context();
+        final Http.Context second = context();
+        cache.apply(handler,
+                    first);
+        final CompletionStage<Optional<? extends Subject>> result = cache.apply(handler,
+                                                                                second);
+
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        lookups.get(0).complete(Optional.of(subject));
+        result.toCompletableFuture().join();
+
+        Assert.assertSame(subject,
+                          second.args.get(ConfigKeys.CACHE_DEADBOLT_USER));
+        Assert.assertSame(subject,
+                          cache.apply(handler,
+                                      second).toCompletableFuture().join().get());
+        Assert.assertEquals(1,
+                            lookups.size());
+    }
+
+    @Test
+    public void testSubjectInContext_doesNotWaitForLookupInFlight()
+    {
+        cache.apply(handler,
+                    context());
+
+        final Subject subject = new TestSubject.Builder().identifier("foo").build();
+        final Http.Context context = context();
+        context.args.put(ConfigKeys.CACHE_DEADBOLT_USER,
+                         subject);
+        final CompletableFuture<Optional<? extends Subject>> result = cache.apply(handler,
+                                                                                  context).toCompletableFuture();
+
+        Assert.assertTrue(result.isDone());
+        Assert.assertSame(subject,
+                          result.join().get());
+        Assert.assertEquals(1,
+                            cache.lookupCount());
+        Assert.assertEquals(0,
+                            cache.coalescedCount());
+    }
+
+    @Test
+    public void testCompletedLookupNotShared()
+    {
+        cache.apply(handler,
+                    context());
+        lookups.get(0).complete(Optional.empty());
+
+        cache.apply(handler,
+                    context());
+
+        Assert.assertEquals(2,
+                            lookups.size());
+        Assert.assertEquals(0,
+                            cache.coalescedCount());
+    }
+
+    @Test
+    public void testDifferentPrincipalsNotCoalesced()
+    {
+        cache.apply(handler,
+                    context());
+        Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+               .thenReturn(Optional.of("b"));
+        cache.apply(handler,
+                    context());
+
+        Assert.assertEquals(2,
+                            lookups.size());
+    }
+
+    @Test
+    public void testNoKey_notCoalesced()
+    {
+        Mockito.when(handler.getSubjectCacheKey(Mockito.any(Http.Context.class)))
+               .thenReturn(Optional.empty());
+        cache.apply(handler,
+                    context());
+        cache.apply(handler,
+                    context());
+
+        Assert.assertEquals(2,
+                            lookups.size());
+        Assert.assertEquals(0,
+                            cache.lookupCount());
+        Assert.assertEquals(0,
+                            cache.inFlightCount());
+    }
+
+    @Test
+    public void testFailedLookup()
+    {
+        final CompletionStage<Optional<? extends Subject>> first = cache.apply(handler,
+                                                                               context());
+        final CompletionStage<Optional<? extends Subject>> second = cache.apply(handler,
+                                                                                context());
+        lookups.get(0).completeExceptionally(new IllegalStateException("foo"));
+
+        assertFailed(first);
+        assertFailed(second);
+        Assert.assertEquals(0,
+                            cache.inFlightCount());
+    }
+
+    @Test
+    public void testDelegateThrows()
+    {
+        final SingleFlightSubjectCache throwingCache = new SingleFlightSubjectCache((dh, ctx) ->
+                                                                                    {
+                                                                                        throw new IllegalStateException("foo");
+                                                                                    },
+                                                                                    requestCache);
+
+        assertFailed(throwingCache.apply(handler,
+                                         context()));
+        Assert.assertEquals(0,
+                            throwingCache.inFlightCount());
+    }
+
+    private static void assertFailed(final CompletionStage<Optional<? extends Subject>> result)
+    {
+        try
+        {
+            result.toCompletableFuture().join();
+            Assert.fail("Lookup should have failed");
+        }
+        catch (CompletionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static Http.Context context()
+    {
+        return new Http.Context(new Http.RequestBuilder());
+    }
+}
@@ -15,16 +15,39 @@
  */
 package be.objectify.deadbolt.java.composite;
 
+import be.objectify.deadbolt.java.ConfigKeys;
+import be.objectify.deadbolt.java.ConstraintLogic;
+import be.objectify.deadbolt.java.DeadboltAnalyzer;
 import be.objectify.deadbolt.java.DeadboltHandler;
+import be.objectify.deadbolt.java.DefaultDeadboltExecutionContextProvider;
+import be.objectify.deadbolt.java.DynamicResourceHandler;
+import be.objectify.deadbolt.java.ExecutionContextProvider;
+import be.objectify.deadbolt.java.cache.DefaultPatternCache;
+import be.objectify.deadbolt.java.cache.SubjectCache;
+import be.objectify.deadbolt.java.models.PatternType;
+import be.objectify.deadbolt.java.testsupport.FakeCache;
+import be.objectify.deadbolt.java.testsupport.TestRole;
+import be.objectify.deadbolt.java.testsupport.TestSubject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 import play.libs.F;
 import play.mvc.Http;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
@@ -94,6 +117,33 @@ public class ConstraintTreeTest extends AbstractConstraintTest
         Assert.assertTrue(toBoolean(result));
     }
 
+    @Test
+    public void testNestedSubclass_notFlattened() throws Exception
+    {
+        final Constraint pass = (c, h, e) -> CompletableFuture.completedFuture(true);
+        final Constraint negated = new ConstraintTree(Operator.AND,
+                                                      pass)
+        {
+            @Override
+            public CompletionStage<Boolean> test(final Http.Context context,
+                                                 final DeadboltHandler handler,
+                                                 final Executor executor)
+            {
+                return super.test(context,
+                                  handler,
+                                  executor).thenApply(passed -> !passed);
+            }
+        };
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   pass,
+                                                   negated);
+
+        final CompletionStage<Boolean> result = tree.test(context,
+                                                          handler,
+                                                          Executors.newSingleThreadExecutor());
+        Assert.assertFalse(toBoolean(result));
+    }
+
     @Test
     public void testOr_false_false() throws Exception
     {
@@ -153,6 +203,524 @@ public class ConstraintTreeTest extends AbstractConstraintTest
         Assert.assertTrue(toBoolean(result));
     }
 
+    @Test
+    public void testEmpty() throws Exception
+    {
+        Assert.assertFalse(toBoolean(new ConstraintTree(Operator.AND).test(context,
+                                                                           handler,
+                                                                           Executors.newSingleThreadExecutor())));
+        Assert.assertFalse(toBoolean(new ConstraintTree(Operator.OR,
+                                                        new ConstraintTree(Operator.AND),
+                                                        new ConstraintTree(Operator.OR)).test(context,
+                                                                                              handler,
+                                                                                              Executors.newSingleThreadExecutor())));
+        Assert.assertTrue(toBoolean(new ConstraintTree(Operator.OR,
+                                                       new ConstraintTree(Operator.AND),
+                                                       (c, h, e) -> CompletableFuture.completedFuture(true)).test(context,
+                                                                                                                  handler,
+                                                                                                                  Executors.newSingleThreadExecutor())));
+    }
+
+    @Test
+    public void testNested_shortCircuit() throws Exception
+    {
+        final AtomicInteger tested = new AtomicInteger();
+        final Constraint pass = (c, h, e) ->
+        {
+            tested.incrementAndGet();
+            return CompletableFuture.completedFuture(true);
+        };
+        final Constraint fail = (c, h, e) ->
+        {
+            tested.incrementAndGet();
+            return CompletableFuture.completedFuture(false);
+        };
+        final Constraint notReached = (c, h, e) ->
+        {
+            throw new AssertionError("The tree should have short-circuited");
+        };
+
+        // (fail OR (pass AND fail)) OR (pass AND (fail OR pass)) OR notReached
+        final Constraint tree = new ConstraintTree(Operator.OR,
+                                                   new ConstraintTree(Operator.OR,
+                                                                      fail,
+                                                                      new ConstraintTree(Operator.AND,
+                                                                                         pass,
+                                                                                         fail)),
+                                                   new ConstraintTree(Operator.AND,
+                                                                      pass,
+                                                                      new ConstraintTree(Operator.OR,
+                                                                                         fail,
+                                                                                         pass)),
+                                                   notReached);
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              Executors.newSingleThreadExecutor())));
+        Assert.assertEquals(6,
+                            tested.get());
+    }
+
+    @Test
+    public void testNested_andFailsFast() throws Exception
+    {
+        final Constraint notReached = (c, h, e) ->
+        {
+            throw new AssertionError("The tree should have short-circuited");
+        };
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   new ConstraintTree(Operator.OR,
+                                                                      (c, h, e) -> CompletableFuture.completedFuture(false),
+                                                                      (c, h, e) -> CompletableFuture.completedFuture(false)),
+                                                   notReached);
+
+        Assert.assertFalse(toBoolean(tree.test(context,
+                                               handler,
+                                               Executors.newSingleThreadExecutor())));
+    }
+
+    @Test
+    public void testAsyncLeaves() throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Constraint asyncFalse = (c, h, e) -> CompletableFuture.supplyAsync(() -> false,
+                                                                                   executor);
+        final Constraint asyncTrue = (c, h, e) -> CompletableFuture.supplyAsync(() -> true,
+                                                                                  executor);
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   new ConstraintTree(Operator.OR,
+                                                                      asyncFalse,
+                                                                      asyncTrue),
+                                                   asyncTrue,
+                                                   new ConstraintTree(Operator.OR,
+                                                                      asyncFalse,
+                                                                      asyncFalse,
+                                                                      asyncTrue));
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              executor)));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFailingLeaf_reportedThroughStage()
+    {
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   (c, h, e) -> CompletableFuture.completedFuture(true),
+                                                   new ExceptionThrowingConstraint("foo"));
+
+        final CompletionStage<Boolean> result = tree.test(context,
+                                                          handler,
+                                                          Executors.newSingleThreadExecutor());
+        Assert.assertTrue(result.toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testParallelOr_passesOnFirstTrue() throws Exception
+    {
+        final CompletableFuture<Boolean> slow = new CompletableFuture<>();
+        final Constraint tree = ConstraintTree.parallel(Operator.OR,
+                                                        3,
+                                                        (c, h, e) -> slow,
+                                                        (c, h, e) -> CompletableFuture.completedFuture(false),
+                                                        (c, h, e) -> CompletableFuture.completedFuture(true));
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              Executors.newSingleThreadExecutor())));
+        Assert.assertFalse("The slow child is ignored, not cancelled",
+                           slow.isDone());
+    }
+
+    @Test
+    public void testParallelAnd_failsOnFirstFalse() throws Exception
+    {
+        final CompletableFuture<Boolean> slow = new CompletableFuture<>();
+        final Constraint tree = ConstraintTree.parallel(Operator.AND,
+                                                        2,
+                                                        (c, h, e) -> slow,
+                                                        (c, h, e) -> CompletableFuture.completedFuture(false));
+
+        Assert.assertFalse(toBoolean(tree.test(context,
+                                               handler,
+                                               Executors.newSingleThreadExecutor())));
+    }
+
+    @Test
+    public void testParallel_allChildrenNeeded() throws Exception
+    {
+        final Constraint pass = (c, h, e) -> CompletableFuture.supplyAsync(() -> true);
+        final Constraint fail = (c, h, e) -> CompletableFuture.supplyAsync(() -> false);
+
+        Assert.assertTrue(toBoolean(ConstraintTree.parallel(Operator.AND,
+                                                            2,
+                                                            pass,
+                                                            pass,
+                                                            pass).test(context,
+                                                                       handler,
+                                                                       Executors.newSingleThreadExecutor())));
+        Assert.assertFalse(toBoolean(ConstraintTree.parallel(Operator.OR,
+                                                             2,
+                                                             fail,
+                                                             fail,
+                                                             fail).test(context,
+                                                                        handler,
+                                                                        Executors.newSingleThreadExecutor())));
+        Assert.assertFalse(toBoolean(ConstraintTree.parallel(Operator.OR,
+                                                             2).test(context,
+                                                                     handler,
+                                                                     Executors.newSingleThreadExecutor())));
+    }
+
+    @Test
+    public void testParallel_concurrencyCap() throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        final Constraint child = (c, h, e) ->
+        {
+            maxRunning.accumulateAndGet(running.incrementAndGet(),
+                                        Math::max);
+            return CompletableFuture.supplyAsync(() ->
+                                                 {
+                                                     try
+                                                     {
+                                                         Thread.sleep(10);
+                                                     }
+                                                     catch (InterruptedException ex)
+                                                     {
+                                                         Thread.currentThread().interrupt();
+                                                     }
+                                                     running.decrementAndGet();
+                                                     return true;
+                                                 },
+                                                 pool);
+        };
+        final Constraint tree = ConstraintTree.parallel(Operator.AND,
+                                                        2,
+                                                        child,
+                                                        child,
+                                                        child,
+                                                        child,
+                                                        child,
+                                                        child);
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              pool)));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testParallel_failingChild()
+    {
+        final Constraint tree = ConstraintTree.parallel(Operator.OR,
+                                                        2,
+                                                        (c, h, e) -> CompletableFuture.completedFuture(false),
+                                                        new ExceptionThrowingConstraint("foo"));
+
+        final CompletableFuture<Boolean> result = tree.test(context,
+                                                            handler,
+                                                            Executors.newSingleThreadExecutor())
+                                                      .toCompletableFuture();
+        try
+        {
+            result.join();
+            Assert.fail("The tree should fail with the exception of the child");
+        }
+        catch (CompletionException e)
+        {
+            Assert.assertTrue(result.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testParallel_nestedInSequentialTree() throws Exception
+    {
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   (c, h, e) -> CompletableFuture.completedFuture(true),
+                                                   ConstraintTree.parallel(Operator.OR,
+                                                                           2,
+                                                                           (c, h, e) -> CompletableFuture.completedFuture(false),
+                                                                           (c, h, e) -> CompletableFuture.completedFuture(true)));
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              Executors.newSingleThreadExecutor())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallel_capMustBePositive()
+    {
+        ConstraintTree.parallel(Operator.OR,
+                                0);
+    }
+
+    @Test
+    public void testAdaptive_cheapDecisiveChildMovedFirst() throws Exception
+    {
+        final AtomicInteger slowTests = new AtomicInteger();
+        final Constraint slow = (c, h, e) ->
+        {
+            slowTests.incrementAndGet();
+            try
+            {
+                Thread.sleep(5);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(true);
+        };
+        final Constraint cheap = (c, h, e) -> CompletableFuture.completedFuture(false);
+        final ConstraintTree tree = ConstraintTree.adaptive(Operator.AND,
+                                                            1,
+                                                            slow,
+                                                            cheap);
+
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertFalse(toBoolean(tree.test(context,
+                                                   handler,
+                                                   Executors.newSingleThreadExecutor())));
+        }
+
+        Assert.assertEquals("The slow child is skipped once the cheap one runs first",
+                            1,
+                            slowTests.get());
+        Assert.assertEquals(1,
+                            tree.reorderCount());
+        final List<ConstraintTree.ChildStatistics> statistics = tree.statistics();
+        Assert.assertSame(cheap,
+                          statistics.get(0).constraint());
+        Assert.assertEquals(1,
+                            statistics.get(0).position());
+        Assert.assertEquals(3,
+                            statistics.get(0).tested());
+        Assert.assertEquals(0,
+                            statistics.get(0).passed());
+        Assert.assertEquals(0,
+                            statistics.get(1).position());
+        Assert.assertEquals(1,
+                            statistics.get(1).passed());
+        Assert.assertTrue(statistics.get(1).meanNanos() > 0);
+    }
+
+    @Test
+    public void testAdaptive_statisticsFollowRecentTests() throws Exception
+    {
+        final AtomicInteger tests = new AtomicInteger();
+        final ConstraintTree tree = ConstraintTree.adaptive(Operator.OR,
+                                                            1000,
+                                                            (c, h, e) -> CompletableFuture.completedFuture(tests.incrementAndGet() <= 100));
+
+        for (int i = 0; i < 200; i++)
+        {
+            tree.test(context,
+                      handler,
+                      Executors.newSingleThreadExecutor());
+        }
+
+        final ConstraintTree.ChildStatistics statistics = tree.statistics().get(0);
+        Assert.assertEquals(200,
+                            statistics.tested());
+        Assert.assertEquals(100,
+                            statistics.passed());
+        Assert.assertTrue("The pass rate reflects the latest tests, not all of them",
+                          statistics.passRate() < 0.1);
+    }
+
+    @Test
+    public void testAdaptive_asyncChildRecorded() throws Exception
+    {
+        final ConstraintTree tree = ConstraintTree.adaptive(Operator.OR,
+                                                            10,
+                                                            (c, h, e) -> CompletableFuture.supplyAsync(() -> true));
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              Executors.newSingleThreadExecutor())));
+        Assert.assertEquals(1,
+                            tree.statistics().get(0).passed());
+    }
+
+    @Test
+    public void testAdaptive_nestedInSequentialTree() throws Exception
+    {
+        final Constraint tree = new ConstraintTree(Operator.OR,
+                                                   (c, h, e) -> CompletableFuture.completedFuture(false),
+                                                   ConstraintTree.adaptive(Operator.AND,
+                                                                           1,
+                                                                           (c, h, e) -> CompletableFuture.completedFuture(true),
+                                                                           (c, h, e) -> CompletableFuture.completedFuture(true)));
+
+        Assert.assertTrue(toBoolean(tree.test(context,
+                                              handler,
+                                              Executors.newSingleThreadExecutor())));
+    }
+
+    @Test
+    public void testStatistics_notAdaptive()
+    {
+        Assert.assertTrue(new ConstraintTree(Operator.AND,
+                                             (c, h, e) -> CompletableFuture.completedFuture(true)).statistics().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdaptive_intervalMustBePositive()
+    {
+        ConstraintTree.adaptive(Operator.OR,
+                                0);
+    }
+
+    @Test
+    public void testEvaluationContext_resolvedOncePerTree() throws Exception
+    {
+        final AtomicInteger subjectLookups = new AtomicInteger();
+        final AtomicInteger drhLookups = new AtomicInteger();
+        final DynamicResourceHandler drh = Mockito.mock(DynamicResourceHandler.class);
+        Mockito.when(drh.isAllowed(Mockito.anyString(),
+                                   Mockito.any(Optional.class),
+                                   Mockito.any(DeadboltHandler.class),
+                                   Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(true));
+        final DeadboltHandler deadboltHandler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(deadboltHandler.getSubject(Mockito.any(Http.Context.class)))
+               .thenAnswer(invocation ->
+                           {
+                               subjectLookups.incrementAndGet();
+                               return CompletableFuture.completedFuture(Optional.of(new TestSubject.Builder().role(new TestRole("foo"))
+                                                                                                             .build()));
+                           });
+        Mockito.when(deadboltHandler.getDynamicResourceHandler(Mockito.any(Http.Context.class)))
+               .thenAnswer(invocation ->
+                           {
+                               drhLookups.incrementAndGet();
+                               return CompletableFuture.completedFuture(Optional.of(drh));
+                           });
+        final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+        Mockito.when(ecProvider.get()).thenReturn(new DefaultDeadboltExecutionContextProvider());
+        // asks the handler every time, as deadbolt.java.cache-user=false does
+        final SubjectCache subjectCache = DeadboltHandler::getSubject;
+        final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                          subjectCache,
+                                                          new DefaultPatternCache(new FakeCache()),
+                                                          ecProvider);
+        final Constraint tree = new ConstraintTree(Operator.AND,
+                                                   new SubjectPresentConstraint(Optional.empty(),
+                                                                                logic),
+                                                   new RestrictConstraint(Collections.singletonList(new String[]{"foo"}),
+                                                                          Optional.empty(),
+                                                                          logic),
+                                                   new ConstraintTree(Operator.OR,
+                                                                      new RestrictConstraint(Collections.singletonList(new String[]{"bar"}),
+                                                                                             Optional.empty(),
+                                                                                             logic),
+                                                                      new DynamicConstraint("a",
+                                                                                            Optional.empty(),
+                                                                                            Optional.empty(),
+                                                                                            logic)),
+                                                   new DynamicConstraint("b",
+                                                                         Optional.empty(),
+                                                                         Optional.empty(),
+                                                                         logic));
+        final Http.Context httpContext = new Http.Context(new Http.RequestBuilder());
+
+        Assert.assertTrue(toBoolean(tree.test(httpContext,
+                                              deadboltHandler,
+                                              Executors.newSingleThreadExecutor())));
+        Assert.assertEquals(1,
+                            subjectLookups.get());
+        Assert.assertEquals(1,
+                            drhLookups.get());
+
+        Assert.assertTrue(toBoolean(tree.test(httpContext,
+                                              deadboltHandler,
+                                              Executors.newSingleThreadExecutor())));
+        Assert.assertEquals("Each evaluation resolves the subject again",
+                            2,
+                            subjectLookups.get());
+    }
+
+    @Test
+    public void testParallel_childrenHaveIsolatedArgs() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            // both children write their invert flag before either reads it back
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final Map<String, Object> invertSeen = new ConcurrentHashMap<>();
+            final DynamicResourceHandler drh = Mockito.mock(DynamicResourceHandler.class);
+            Mockito.when(drh.checkPermission(Mockito.anyString(),
+                                             Mockito.any(Optional.class),
+                                             Mockito.any(DeadboltHandler.class),
+                                             Mockito.any(Http.Context.class)))
+                   .thenAnswer(invocation ->
+                               {
+                                   final String value = (String) invocation.getArguments()[0];
+                                   final Http.Context ctx = (Http.Context) invocation.getArguments()[3];
+                                   return CompletableFuture.supplyAsync(() ->
+                                                                        {
+                                                                            try
+                                                                            {
+                                                                                barrier.await(5,
+                                                                                              TimeUnit.SECONDS);
+                                                                            }
+                                                                            catch (Exception e)
+                                                                            {
+                                                                                throw new IllegalStateException(e);
+                                                                            }
+                                                                            invertSeen.put(value,
+                                                                                           ctx.args.get(ConfigKeys.PATTERN_INVERT));
+                                                                            return "a".equals(value);
+                                                                        },
+                                                                        executor);
+                               });
+            final DeadboltHandler deadboltHandler = Mockito.mock(DeadboltHandler.class);
+            Mockito.when(deadboltHandler.getDynamicResourceHandler(Mockito.any(Http.Context.class)))
+                   .thenReturn(CompletableFuture.completedFuture(Optional.of(drh)));
+            final ExecutionContextProvider ecProvider = Mockito.mock(ExecutionContextProvider.class);
+            Mockito.when(ecProvider.get()).thenReturn(new DefaultDeadboltExecutionContextProvider());
+            final ConstraintLogic logic = new ConstraintLogic(new DeadboltAnalyzer(),
+                                                              DeadboltHandler::getSubject,
+                                                              new DefaultPatternCache(new FakeCache()),
+                                                              ecProvider);
+            final Constraint tree = ConstraintTree.parallel(Operator.AND,
+                                                            2,
+                                                            new PatternConstraint("a",
+                                                                                  PatternType.CUSTOM,
+                                                                                  Optional.empty(),
+                                                                                  false,
+                                                                                  Optional.empty(),
+                                                                                  logic),
+                                                            new PatternConstraint("b",
+                                                                                  PatternType.CUSTOM,
+                                                                                  Optional.empty(),
+                                                                                  true,
+                                                                                  Optional.empty(),
+                                                                                  logic));
+            final Http.Context httpContext = new Http.Context(new Http.RequestBuilder());
+
+            Assert.assertTrue(toBoolean(tree.test(httpContext,
+                                                  deadboltHandler,
+                                                  executor)));
+            Assert.assertEquals(false,
+                                invertSeen.get("a"));
+            Assert.assertEquals(true,
+                                invertSeen.get("b"));
+            Assert.assertFalse(httpContext.args.containsKey(ConfigKeys.PATTERN_INVERT));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     @Override
     protected F.Tuple<Constraint, Function<Constraint, CompletionStage<Boolean>>> satisfy()
     {
@@ -19,9 +19,11 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Steve Chaloner (steve@objectify.be)
@@ -128,4 +130,131 @@ public class AuthorizedRoutesTest
                                                                       "/foo/bar");
         Assert.assertFalse(maybeRoute.isPresent());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFirstMatchWins_methodBeforeAny()
+    {
+        final FilterConstraints constraints = Mockito.mock(FilterConstraints.class);
+        final AuthorizedRoute get = new AuthorizedRoute(Methods.GET,
+                                                        "/foo",
+                                                        Mockito.mock(FilterFunction.class));
+        final AuthorizedRoute any = new AuthorizedRoute(Methods.ANY,
+                                                        "/foo",
+                                                        Mockito.mock(FilterFunction.class));
+        final AuthorizedRoutes authRoutes = new AuthorizedRoutes(() -> constraints)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                return Arrays.asList(get,
+                                     any);
+            }
+        };
+
+        Assert.assertSame(get,
+                          authRoutes.apply("GET",
+                                           "/foo").get());
+        Assert.assertSame(any,
+                          authRoutes.apply("POST",
+                                           "/foo").get());
+    }
+
+    @Test
+    public void testFirstMatchWins_anyBeforeMethod()
+    {
+        final FilterConstraints constraints = Mockito.mock(FilterConstraints.class);
+        final AuthorizedRoute any = new AuthorizedRoute(Methods.ANY,
+                                                        "/foo",
+                                                        Mockito.mock(FilterFunction.class));
+        final AuthorizedRoute get = new AuthorizedRoute(Methods.GET,
+                                                        "/foo",
+                                                        Mockito.mock(FilterFunction.class));
+        final AuthorizedRoutes authRoutes = new AuthorizedRoutes(() -> constraints)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                return Arrays.asList(any,
+                                     get);
+            }
+        };
+
+        Assert.assertSame(any,
+                          authRoutes.apply("GET",
+                                           "/foo").get());
+        Assert.assertSame(any,
+                          authRoutes.apply("POST",
+                                           "/foo").get());
+    }
+
+    @Test
+    public void testFirstMatchWins_duplicateMethod()
+    {
+        final FilterConstraints constraints = Mockito.mock(FilterConstraints.class);
+        final AuthorizedRoute first = new AuthorizedRoute(Methods.GET,
+                                                          "/foo",
+                                                          Mockito.mock(FilterFunction.class));
+        final AuthorizedRoute second = new AuthorizedRoute(Methods.GET,
+                                                           "/foo",
+                                                           Mockito.mock(FilterFunction.class));
+        final AuthorizedRoutes authRoutes = new AuthorizedRoutes(() -> constraints)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                return Arrays.asList(first,
+                                     second);
+            }
+        };
+
+        Assert.assertSame(first,
+                          authRoutes.apply("GET",
+                                           "/foo").get());
+    }
+
+    @Test
+    public void testRoutesAreReadOnce()
+    {
+        final FilterConstraints constraints = Mockito.mock(FilterConstraints.class);
+        final AtomicInteger count = new AtomicInteger();
+        final AuthorizedRoutes authRoutes = new AuthorizedRoutes(() -> constraints)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                count.incrementAndGet();
+                return Collections.singletonList(new AuthorizedRoute(Methods.GET,
+                                                                     "/foo",
+                                                                     Mockito.mock(FilterFunction.class)));
+            }
+        };
+
+        authRoutes.apply("GET",
+                         "/foo");
+        authRoutes.apply("GET",
+                         "/bar");
+        authRoutes.apply("POST",
+                         "/foo");
+        Assert.assertEquals(1,
+                            count.get());
+    }
+
+    @Test
+    public void testNoPath()
+    {
+        final FilterConstraints constraints = Mockito.mock(FilterConstraints.class);
+        final AuthorizedRoutes authRoutes = new AuthorizedRoutes(() -> constraints)
+        {
+            @Override
+            public List<AuthorizedRoute> routes()
+            {
+                return Collections.singletonList(new AuthorizedRoute(Methods.ANY,
+                                                                     "/foo",
+                                                                     Mockito.mock(FilterFunction.class)));
+            }
+        };
+
+        Assert.assertFalse(authRoutes.apply("GET",
+                                            null).isPresent());
+    }
+}
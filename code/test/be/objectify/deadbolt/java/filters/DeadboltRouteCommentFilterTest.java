@@ -54,6 +54,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 /**
  * @author Steve Chaloner (steve@objectify.be)
@@ -1122,6 +1123,84 @@ public class DeadboltRouteCommentFilterTest
         Mockito.verifyZeroInteractions(defaultHandler);
     }
 
+    @Test
+    public void testComment_parsedOncePerDistinctComment() throws ExecutionException, InterruptedException
+    {
+        Mockito.when(subjectCache.apply(Mockito.any(DeadboltHandler.class),
+                                        Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.of(Mockito.mock(Subject.class))));
+
+        final HandlerCache handlerCache = Mockito.mock(HandlerCache.class);
+        final DeadboltHandler handler = Mockito.mock(DeadboltHandler.class);
+        Mockito.when(handlerCache.get())
+               .thenReturn(handler);
+        Mockito.when(handler.beforeAuthCheck(Mockito.any(Http.Context.class)))
+               .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        final FilterConstraints spiedConstraints = Mockito.spy(filterConstraints);
+        final Filter filter = new DeadboltRouteCommentFilter(Mockito.mock(Materializer.class),
+                                                             handlerCache,
+                                                             spiedConstraints);
+        final int[] count = {0};
+        final Function<Http.RequestHeader, CompletionStage<Result>> next = rh ->
+        {
+            count[0]++;
+            return CompletableFuture.completedFuture(Results.ok());
+        };
+
+        comment("deadbolt:subjectPresent");
+        ((CompletableFuture) filter.apply(next,
+                                          requestHeader)).get();
+        ((CompletableFuture) filter.apply(next,
+                                          requestHeader)).get();
+        comment("deadbolt:subjectPresent:content[bar]");
+        ((CompletableFuture) filter.apply(next,
+                                          requestHeader)).get();
+
+        Assert.assertEquals(3,
+                            count[0]);
+        Mockito.verify(spiedConstraints,
+                       Mockito.times(1))
+               .subjectPresent(Optional.empty());
+        Mockito.verify(spiedConstraints,
+                       Mockito.times(1))
+               .subjectPresent(Optional.of("bar"));
+    }
+
+    @Test
+    public void testContext_wrapsUnderlyingRequest()
+    {
+        final Http.Request request = new Http.RequestBuilder().method("POST")
+                                                              .uri("http://localhost/foo?bar=baz")
+                                                              .header("X-Foo",
+                                                                      "foo")
+                                                              .cookie(Http.Cookie.builder("hurdy",
+                                                                                          "gurdy").build())
+                                                              .tag(Router.Tags.ROUTE_COMMENTS,
+                                                                   "deadbolt:subjectPresent")
+                                                              .build();
+        final DeadboltRouteCommentFilter filter = new DeadboltRouteCommentFilter(Mockito.mock(Materializer.class),
+                                                                                 Mockito.mock(HandlerCache.class),
+                                                                                 filterConstraints);
+
+        final Http.Context context = filter.context(request);
+
+        Assert.assertSame(request._underlyingHeader(),
+                          context._requestHeader());
+        Assert.assertEquals(request._underlyingHeader().id(),
+                            (long) context.id());
+        Assert.assertEquals("POST",
+                            context.request().method());
+        Assert.assertEquals("baz",
+                            context.request().getQueryString("bar"));
+        Assert.assertEquals("foo",
+                            context.request().getHeader("X-Foo"));
+        Assert.assertEquals("gurdy",
+                            context.request().cookie("hurdy").value());
+        Assert.assertEquals("deadbolt:subjectPresent",
+                            context.args.get(Router.Tags.ROUTE_COMMENTS));
+    }
+
 
     private void comment(final String comment)
     {
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2016 Steve Chaloner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package be.objectify.deadbolt.java.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Steve Chaloner (steve@objectify.be)
+ */
+public class FingerprintsTest
+{
+    @Test
+    public void testFingerprint_unambiguous()
+    {
+        Assert.assertNotEquals(Fingerprints.fingerprint("dynamic",
+                                                        "a:b",
+                                                        "c"),
+                               Fingerprints.fingerprint("dynamic",
+                                                        "a",
+                                                        "b:c"));
+        Assert.assertNotEquals(Fingerprints.fingerprint("dynamic",
+                                                        "a",
+                                                        null),
+                               Fingerprints.fingerprint("dynamic",
+                                                        "a",
+                                                        ""));
+        Assert.assertEquals(Fingerprints.fingerprint("dynamic",
+                                                     "a",
+                                                     "b"),
+                            Fingerprints.fingerprint("dynamic",
+                                                     "a",
+                                                     "b"));
+    }
+}
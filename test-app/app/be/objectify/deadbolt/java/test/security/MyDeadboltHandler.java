@@ -72,6 +72,12 @@ public class MyDeadboltHandler extends AbstractDeadboltHandler
         return CompletableFuture.supplyAsync(() -> Optional.of(dynamicHandler));
     }
 
+    @Override
+    public boolean isDynamicResourceHandlerStable()
+    {
+        return true;
+    }
+
     @Override
     public CompletionStage<List<? extends Permission>> getPermissionsForRole(final String roleName) {
         return CompletableFuture.completedFuture(Collections.singletonList(new SecurityPermission.Builder().value("killer.undead.*")